@@ -0,0 +1,90 @@
+package mapper.implementation;
+
+import ru.hse.homework4.Exported;
+import ru.hse.homework4.Ignored;
+import ru.hse.homework4.PropertyName;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * "План" рефлексии для одного класса.
+ * Собирается один раз на класс и кэшируется в {@link MapperSerializer},
+ * чтобы не вызывать getDeclaredFields и не искать аннотации на каждом объекте.
+ */
+final class ClassPlan {
+    /**
+     * Аннотация Exported класса (может быть null, если класс не помечен).
+     */
+    final Exported exported;
+
+    /**
+     * Поля для записи (в порядке getDeclaredFields) и имена, под которыми они записываются.
+     */
+    final Field[] writeFields;
+    final String[] writeNames;
+
+    /**
+     * Отображение имени в строке на поле для чтения.
+     * Значение null означает, что поле существует, но должно быть пропущено
+     * (Ignored, synthetic или static). Отсутствие ключа - неизвестное поле.
+     */
+    private final Map<String, Field> readFields = new HashMap<>();
+
+    ClassPlan(Class<?> clazz) {
+        exported = clazz.getAnnotation(Exported.class);
+        Field[] fields = clazz.getDeclaredFields();
+
+        List<Field> fieldsToWrite = new ArrayList<>();
+        List<String> namesToWrite = new ArrayList<>();
+        Map<String, Field> renamedFields = new HashMap<>();
+        for (Field field : fields) {
+            boolean skipped = isSkipped(field);
+            readFields.put(field.getName(), skipped ? null : field);
+
+            PropertyName propertyName = field.getAnnotation(PropertyName.class);
+            if (propertyName != null) {
+                // При чтении побеждает первое поле с таким PropertyName.
+                renamedFields.putIfAbsent(propertyName.value(), skipped ? null : field);
+            }
+            // Для записи PropertyName проверяется раньше, чем Ignored.
+            String writeName = propertyName != null ? propertyName.value() : (skipped ? null : field.getName());
+            if (writeName != null) {
+                field.setAccessible(true);
+                fieldsToWrite.add(field);
+                namesToWrite.add(writeName);
+            }
+            if (!skipped) {
+                field.setAccessible(true);
+            }
+        }
+        // Переименование с помощью PropertyName проверяется раньше, чем совпадение по имени.
+        readFields.putAll(renamedFields);
+
+        writeFields = fieldsToWrite.toArray(new Field[0]);
+        writeNames = namesToWrite.toArray(new String[0]);
+    }
+
+    private static boolean isSkipped(Field field) {
+        return field.getAnnotation(Ignored.class) != null || field.isSynthetic()
+                || Modifier.isStatic(field.getModifiers());
+    }
+
+    /**
+     * Известно ли классу поле с таким именем (даже если оно пропускается при чтении).
+     */
+    boolean hasReadField(String fieldName) {
+        return readFields.containsKey(fieldName);
+    }
+
+    /**
+     * Поле для чтения по имени из строки или null, если поле нужно пропустить.
+     */
+    Field getReadField(String fieldName) {
+        return readFields.get(fieldName);
+    }
+}
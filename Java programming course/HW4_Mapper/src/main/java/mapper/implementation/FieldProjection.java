@@ -0,0 +1,65 @@
+package mapper.implementation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Дерево запрошенных полей для частичного чтения.
+ * Строится из путей вида {@code "inside1.c"}: каждый уровень - имя поля в строке
+ * (с учетом PropertyName). Значение null у потомка означает, что поле нужно прочитать целиком.
+ */
+final class FieldProjection {
+    private final Map<String, FieldProjection> children = new HashMap<>();
+
+    private FieldProjection() {
+    }
+
+    /**
+     * Построение проекции из множества путей.
+     * Если запрошены и {@code "a"}, и {@code "a.b"}, поле {@code a} читается целиком.
+     */
+    static FieldProjection of(Set<String> paths) {
+        FieldProjection root = new FieldProjection();
+        for (String path : paths) {
+            FieldProjection current = root;
+            String[] parts = path.split("\\.");
+            for (int i = 0; i < parts.length; i++) {
+                String part = parts[i];
+                boolean last = i == parts.length - 1;
+                if (current.children.containsKey(part) && current.children.get(part) == null) {
+                    // Поле уже читается целиком.
+                    break;
+                }
+                if (last) {
+                    current.children.put(part, null);
+                } else {
+                    current = current.children.computeIfAbsent(part, p -> new FieldProjection());
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Ищет среди запрошенных имен имя текущего поля сканера.
+     * Запрошенных полей обычно немного, поэтому подстрока с именем не создается.
+     *
+     * @return запрошенное имя или null, если поле нужно пропустить
+     */
+    String match(FieldScanner scanner) {
+        for (String name : children.keySet()) {
+            if (scanner.nameEquals(name)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Проекция для вложенного поля или null, если поле читается целиком.
+     */
+    FieldProjection child(String name) {
+        return children.get(name);
+    }
+}
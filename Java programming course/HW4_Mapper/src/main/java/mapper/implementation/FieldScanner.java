@@ -0,0 +1,122 @@
+package mapper.implementation;
+
+/**
+ * Последовательный проход по полям одного объекта в строке вида
+ * {@code { "name": value, "other": { ... }, "list": [ ... ] }}.
+ * <p>
+ * Значения не разбираются и не вырезаются в подстроки: сканер только находит границы
+ * имени и значения. Вложенные объекты и коллекции пропускаются подсчетом скобок.
+ */
+final class FieldScanner {
+    private final String string;
+    private int position;
+
+    /**
+     * Границы имени текущего поля (без кавычек) и его значения: [start, end).
+     */
+    int nameStart;
+    int nameEnd;
+    int valueStart;
+    int valueEnd;
+
+    /**
+     * @param string      строка, в которой находится объект
+     * @param objectStart индекс открывающей фигурной скобки объекта
+     */
+    FieldScanner(String string, int objectStart) {
+        this.string = string;
+        position = objectStart + 1;
+    }
+
+    /**
+     * Переход к следующему полю объекта.
+     *
+     * @return false, если поля закончились (дошли до закрывающей скобки объекта)
+     */
+    boolean next() {
+        while (position < string.length()) {
+            char c = string.charAt(position);
+            if (c == '\"') {
+                break;
+            }
+            if (c == '}') {
+                return false;
+            }
+            position++;
+        }
+        if (position >= string.length()) {
+            return false;
+        }
+        nameStart = position + 1;
+        nameEnd = string.indexOf('\"', nameStart);
+        // После имени идет двоеточие и пробел.
+        valueStart = nameEnd + 1;
+        while (string.charAt(valueStart) == ':' || string.charAt(valueStart) == ' ') {
+            valueStart++;
+        }
+        valueEnd = skipValue(string, valueStart);
+        position = valueEnd;
+        return true;
+    }
+
+    /**
+     * Совпадает ли имя текущего поля с {@code name}.
+     */
+    boolean nameEquals(String name) {
+        return nameEnd - nameStart == name.length()
+                && string.regionMatches(nameStart, name, 0, name.length());
+    }
+
+    String name() {
+        return string.substring(nameStart, nameEnd);
+    }
+
+    String value() {
+        return string.substring(valueStart, valueEnd);
+    }
+
+    char firstValueChar() {
+        return string.charAt(valueStart);
+    }
+
+    /**
+     * Находит конец значения, начинающегося с {@code start}.
+     * Объекты и коллекции пропускаются подсчетом вложенности скобок,
+     * скобки внутри строковых значений не учитываются.
+     *
+     * @return индекс символа, следующего за значением
+     */
+    static int skipValue(String string, int start) {
+        char first = string.charAt(start);
+        if (first == '\"') {
+            // Строки записываются без экранирования, поэтому конец - следующая кавычка.
+            return string.indexOf('\"', start + 1) + 1;
+        }
+        if (first == '{' || first == '[') {
+            int depth = 0;
+            for (int i = start; i < string.length(); i++) {
+                char c = string.charAt(i);
+                if (c == '\"') {
+                    i = string.indexOf('\"', i + 1);
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return i + 1;
+                    }
+                }
+            }
+            return string.length();
+        }
+        // Примитивы и ссылки вида %n не содержат пробелов и запятых.
+        int i = start;
+        while (i < string.length()) {
+            char c = string.charAt(i);
+            if (c == ',' || c == ' ' || c == '}' || c == ']' || c == '\n') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,84 @@
+package mapper.implementation;
+
+/**
+ * Таблица идентичности "объект -> номер" на открытой адресации.
+ * <p>
+ * Замена {@code IdentityHashMap<Object, Integer>}: номера хранятся в массиве int,
+ * поэтому на каждый объект не создается ни Integer, ни узел таблицы.
+ * Номера выдаются подряд с нуля в порядке добавления.
+ */
+final class IdentityIntTable {
+    private static final int ABSENT = -1;
+
+    private Object[] keys;
+    private int[] values;
+    private int size;
+
+    IdentityIntTable() {
+        keys = new Object[64];
+        values = new int[64];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Номер объекта или -1, если объекта нет в таблице.
+     */
+    int get(Object key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (true) {
+            Object current = keys[i];
+            if (current == null) {
+                return ABSENT;
+            }
+            if (current == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Добавляет объект, которого еще нет в таблице, и возвращает выданный ему номер.
+     */
+    int add(Object key) {
+        // Коэффициент заполнения не выше 1/2, чтобы цепочки проб оставались короткими.
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        int id = size++;
+        insert(keys, values, key, id);
+        return id;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new Object[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                insert(keys, values, oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static void insert(Object[] keys, int[] values, Object key, int value) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    private static int hash(Object key) {
+        // identityHashCode плохо распределен в младших битах, поэтому перемешивается.
+        int h = System.identityHashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
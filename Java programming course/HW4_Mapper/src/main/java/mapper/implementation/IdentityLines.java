@@ -0,0 +1,94 @@
+package mapper.implementation;
+
+import java.util.Arrays;
+
+/**
+ * Индекс строк вида {@code n: { ... }} и {@code $k: "..."} во входе.
+ * <p>
+ * Вместо {@code Map<Integer, String>} с подстроками хранятся только массивы смещений:
+ * для номера объекта - индекс открывающей скобки его записи во входной строке,
+ * для номера строки из таблицы строк - индекс открывающей кавычки.
+ * Порядок строк во входе не важен.
+ */
+final class IdentityLines {
+    private static final int ABSENT = -1;
+
+    private int[] starts = newStarts(16);
+    private int count;
+    private int[] stringStarts = newStarts(16);
+    private int stringCount;
+
+    /**
+     * Построение индекса за один проход по входу.
+     * Первая строка ({@code %0} или сам корневой объект) пропускается.
+     */
+    static IdentityLines parse(String input) {
+        IdentityLines lines = new IdentityLines();
+        int lineEnd = input.indexOf('\n');
+        while (lineEnd != -1) {
+            int lineStart = lineEnd + 1;
+            int colon = input.indexOf(':', lineStart);
+            if (input.charAt(lineStart) == '$') {
+                int index = Integer.parseInt(input, lineStart + 1, colon, 10);
+                lines.stringStarts = put(lines.stringStarts, index, colon + 2);
+                lines.stringCount = Math.max(lines.stringCount, index + 1);
+            } else {
+                int id = Integer.parseInt(input, lineStart, colon, 10);
+                lines.starts = put(lines.starts, id, colon + 2);
+                lines.count = Math.max(lines.count, id + 1);
+            }
+            lineEnd = input.indexOf('\n', colon);
+        }
+        return lines;
+    }
+
+    private static int[] newStarts(int length) {
+        int[] starts = new int[length];
+        Arrays.fill(starts, ABSENT);
+        return starts;
+    }
+
+    private static int[] put(int[] starts, int id, int start) {
+        if (id >= starts.length) {
+            int oldLength = starts.length;
+            starts = Arrays.copyOf(starts, Math.max(oldLength * 2, id + 1));
+            Arrays.fill(starts, oldLength, starts.length, ABSENT);
+        }
+        starts[id] = start;
+        return starts;
+    }
+
+    /**
+     * Количество номеров объектов (максимальный номер + 1).
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Количество номеров строк в таблице строк (максимальный номер + 1).
+     */
+    int stringCount() {
+        return stringCount;
+    }
+
+    /**
+     * Индекс открывающей скобки записи объекта с номером {@code id}.
+     */
+    int start(int id) throws Exception {
+        if (id >= count || starts[id] == ABSENT) {
+            throw new Exception("Нет объекта с номером %" + id);
+        }
+        return starts[id];
+    }
+
+    /**
+     * Индекс открывающей кавычки строки с номером {@code index}.
+     */
+    int stringStart(int index) throws Exception {
+        if (index >= stringCount || stringStarts[index] == ABSENT) {
+            throw new Exception("Нет строки с номером $" + index);
+        }
+        return stringStarts[index];
+    }
+}
@@ -0,0 +1,30 @@
+package mapper.implementation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Событие Java Flight Recorder: одна десериализация объекта из строки.
+ */
+@Name("mapper.Deserialize")
+@Label("Mapper Deserialize")
+@Category("Mapper")
+@Description("Десериализация одного корневого объекта через MapperSerializer")
+class MapperDeserializeEvent extends jdk.jfr.Event {
+    @Label("Object Class")
+    Class<?> objectClass;
+
+    @Label("Chars Consumed")
+    int chars;
+
+    @Label("Objects Visited")
+    int objectsVisited;
+
+    @Label("Plan Cache Misses")
+    int planCacheMisses;
+
+    @Label("Failed")
+    boolean failed;
+}
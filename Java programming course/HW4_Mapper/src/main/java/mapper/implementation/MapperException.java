@@ -0,0 +1,11 @@
+package mapper.implementation;
+
+/**
+ * Ошибка сериализации или десериализации: некорректный вход, класс без Exported,
+ * цикл в объектах и т.п. Причина исходной ошибки сохраняется в {@link #getCause()}.
+ */
+public class MapperException extends RuntimeException {
+    public MapperException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
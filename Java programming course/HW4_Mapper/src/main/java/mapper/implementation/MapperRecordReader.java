@@ -0,0 +1,148 @@
+package mapper.implementation;
+
+import ru.hse.homework4.Mapper;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Чтение отдельных записей из файла, созданного {@link MapperRecordWriter} с индексом.
+ * <p>
+ * Смещение N-й записи читается из индекса по позиции, поэтому доступ к записи - O(1)
+ * и не требует чтения предыдущих записей.
+ */
+public class MapperRecordReader implements Closeable {
+    private final Mapper mapper;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final long recordCount;
+
+    /**
+     * @param mapper сериализатор для записей
+     * @param file   файл данных; рядом должен лежать файл индекса {@code <имя>.idx}
+     * @throws IOException если индекса нет, он поврежден, или в случае ошибки ввода-вывода
+     */
+    public MapperRecordReader(Mapper mapper, File file) throws IOException {
+        this.mapper = mapper;
+        File indexFile = MapperRecordWriter.indexFileFor(file);
+        if (!indexFile.exists()) {
+            throw new IOException("Нет файла индекса " + indexFile);
+        }
+        index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readFully(index, 0, MapperRecordWriter.INDEX_HEADER_SIZE);
+            long entries = (index.size() - MapperRecordWriter.INDEX_HEADER_SIZE) / Long.BYTES;
+            if (header.getInt() != MapperRecordWriter.INDEX_MAGIC
+                    || header.getInt() != MapperRecordWriter.INDEX_VERSION || entries < 1) {
+                throw new IOException("Некорректный файл индекса " + indexFile);
+            }
+            // Последнее смещение в индексе - конец последней записи.
+            recordCount = entries - 1;
+            data = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            index.close();
+            throw e;
+        }
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Читает запись с номером {@code n} (с нуля).
+     */
+    public <T> T read(Class<T> clazz, long n) throws IOException {
+        return mapper.readFromString(clazz, readRecordString(n));
+    }
+
+    /**
+     * Читает только запрошенные поля записи с номером {@code n}
+     * (см. {@link Mapper#readFromString(Class, String, Set)}).
+     */
+    public <T> T read(Class<T> clazz, long n, Set<String> fields) throws IOException {
+        return mapper.readFromString(clazz, readRecordString(n), fields);
+    }
+
+    /**
+     * Читает записи с номерами из диапазона [{@code from}, {@code to}).
+     * Байты всех записей диапазона читаются одним обращением к файлу.
+     */
+    public <T> List<T> readRange(Class<T> clazz, long from, long to) throws IOException {
+        checkRange(from, to);
+        int count = (int) (to - from);
+        ByteBuffer offsets = readFully(index, entryPosition(from), (count + 1) * Long.BYTES);
+        long[] starts = new long[count + 1];
+        for (int i = 0; i <= count; i++) {
+            starts[i] = offsets.getLong();
+        }
+        ByteBuffer bytes = readFully(data, starts[0], toLength(starts[count] - starts[0]));
+
+        List<T> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int start = (int) (starts[i] - starts[0]);
+            // Без завершающего перевода строки.
+            int length = (int) (starts[i + 1] - starts[i]) - 1;
+            String record = new String(bytes.array(), start, length, StandardCharsets.UTF_8);
+            result.add(mapper.readFromString(clazz, record));
+        }
+        return result;
+    }
+
+    private String readRecordString(long n) throws IOException {
+        checkRange(n, n + 1);
+        ByteBuffer offsets = readFully(index, entryPosition(n), 2 * Long.BYTES);
+        long start = offsets.getLong();
+        long end = offsets.getLong();
+        ByteBuffer bytes = readFully(data, start, toLength(end - start - 1));
+        return new String(bytes.array(), 0, bytes.limit(), StandardCharsets.UTF_8);
+    }
+
+    private void checkRange(long from, long to) {
+        if (from < 0 || to > recordCount || from > to) {
+            throw new IndexOutOfBoundsException("Записи [" + from + ", " + to + ") нет в файле из "
+                    + recordCount + " записей");
+        }
+    }
+
+    private static long entryPosition(long n) {
+        return MapperRecordWriter.INDEX_HEADER_SIZE + n * Long.BYTES;
+    }
+
+    private static int toLength(long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Слишком большой диапазон записей: " + length + " байт");
+        }
+        return (int) length;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read == -1) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            data.close();
+        } finally {
+            index.close();
+        }
+    }
+}
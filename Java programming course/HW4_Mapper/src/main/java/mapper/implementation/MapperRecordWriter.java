@@ -0,0 +1,98 @@
+package mapper.implementation;
+
+import ru.hse.homework4.Mapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Запись последовательности объектов (записей) в один файл.
+ * <p>
+ * Записи идут подряд, каждая заканчивается переводом строки.
+ * Дополнительно можно создать индекс смещений (файл {@code <имя>.idx}),
+ * по которому {@link MapperRecordReader} читает N-ю запись без чтения файла с начала.
+ * <p>
+ * Формат индекса: 4 байта {@code MIDX}, версия (int), затем смещения начала каждой записи (long)
+ * и в конце - смещение конца последней записи. Количество записей вычисляется из размера индекса.
+ */
+public class MapperRecordWriter implements Closeable {
+    static final int INDEX_MAGIC = 0x4D494458; // "MIDX"
+    static final int INDEX_VERSION = 1;
+    static final int INDEX_HEADER_SIZE = 8;
+
+    private final Mapper mapper;
+    private final OutputStream data;
+    private final DataOutputStream index;
+
+    /**
+     * Смещение (в байтах) начала следующей записи в файле данных.
+     */
+    private long offset;
+    private long recordCount;
+
+    /**
+     * Файл индекса, соответствующий файлу данных.
+     */
+    public static File indexFileFor(File file) {
+        return new File(file.getPath() + ".idx");
+    }
+
+    /**
+     * @param mapper     сериализатор для записей
+     * @param file       файл данных (перезаписывается)
+     * @param writeIndex создавать ли рядом файл индекса смещений
+     * @throws IOException в случае ошибки ввода-вывода
+     */
+    public MapperRecordWriter(Mapper mapper, File file, boolean writeIndex) throws IOException {
+        this.mapper = mapper;
+        data = new BufferedOutputStream(new FileOutputStream(file));
+        if (writeIndex) {
+            index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFileFor(file))));
+            index.writeInt(INDEX_MAGIC);
+            index.writeInt(INDEX_VERSION);
+        } else {
+            index = null;
+        }
+    }
+
+    /**
+     * Дописывает одну запись в конец файла.
+     *
+     * @param record объект класса с аннотацией Exported
+     * @throws IOException в случае ошибки ввода-вывода или сериализации
+     */
+    public void write(Object record) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = mapper.writeToString(record).getBytes(StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new IOException("Не удалось сериализовать запись " + recordCount, e);
+        }
+        if (index != null) {
+            index.writeLong(offset);
+        }
+        data.write(bytes);
+        data.write('\n');
+        offset += bytes.length + 1;
+        recordCount++;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Закрывает файл данных и дописывает в индекс смещение конца последней записи.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            data.close();
+        } finally {
+            if (index != null) {
+                index.writeLong(offset);
+                index.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package mapper.implementation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Событие Java Flight Recorder: одна сериализация объекта в строку.
+ */
+@Name("mapper.Serialize")
+@Label("Mapper Serialize")
+@Category("Mapper")
+@Description("Сериализация одного корневого объекта через MapperSerializer")
+class MapperSerializeEvent extends jdk.jfr.Event {
+    @Label("Object Class")
+    Class<?> objectClass;
+
+    @Label("Chars Produced")
+    int chars;
+
+    @Label("Objects Visited")
+    int objectsVisited;
+
+    @Label("Back References")
+    int backReferences;
+
+    @Label("Plan Cache Misses")
+    int planCacheMisses;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -8,59 +8,73 @@ import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class MapperSerializer implements Mapper {
 
     boolean retainIdentity;
 
+    /**
+     * Записывать ли каждое различное строковое значение один раз.
+     * Строка пишется в таблицу строк отдельной строкой вида {@code $k: "..."},
+     * а в полях и коллекциях вместо нее - ссылка {@code $k} (аналогично ссылкам %n на объекты).
+     */
+    boolean deduplicateStrings;
+
     public MapperSerializer(boolean retainIdentity) {
+        this(retainIdentity, false);
+    }
+
+    /**
+     * @param retainIdentity     сохранять ли идентичность объектов (ссылки %n)
+     * @param deduplicateStrings записывать ли повторяющиеся строки ссылками $k на таблицу строк.
+     *                           При чтении все повторы становятся одним общим экземпляром String
+     */
+    public MapperSerializer(boolean retainIdentity, boolean deduplicateStrings) {
         this.retainIdentity = retainIdentity;
+        this.deduplicateStrings = deduplicateStrings;
     }
 
-    private Field getDeclaredFieldForReading(Class<?> clazz, String fieldName) throws Exception {
-        Field foundField;
-        // Сначала проверяется наличие переименования с помощью PropertyName.
-        var renamedField = Arrays.stream(clazz.getDeclaredFields())
-                .filter(f ->
-                {
-                    if (f.getAnnotation(PropertyName.class) != null) {
-                        return f.getAnnotation(PropertyName.class).value().equals(fieldName);
-                    } else {
-                        return false;
-                    }
-                }).findFirst();
-        if (renamedField.isPresent()) {
-            foundField = renamedField.get();
-        } else {
-            // Иначе ищется поле с таким же именем.
-            try {
-                foundField = clazz.getDeclaredField(fieldName);
-            } catch (NoSuchFieldException e) {
-                if (clazz.getAnnotation(Exported.class).unknownPropertiesPolicy() == UnknownPropertiesPolicy.IGNORE) {
-                    return null;
-                } else {
-                    throw new Exception();
-                }
-            }
-        }
-        // В самом конце проверяется, есть ли у поля аннотация Ignored и является ли он Synthetic.
-        if (foundField.getAnnotation(Ignored.class) != null || foundField.isSynthetic()
-                || java.lang.reflect.Modifier.isStatic(foundField.getModifiers())) {
-            return null;
-        }
-        return foundField;
+    /**
+     * Кэш планов рефлексии, общий для всех экземпляров.
+     */
+    private static final ConcurrentMap<Class<?>, ClassPlan> classPlans = new ConcurrentHashMap<>();
+
+    /**
+     * Накопленная статистика вызовов этого экземпляра.
+     */
+    private final MapperStatistics statistics = new MapperStatistics();
+
+    /**
+     * Статистика работы сериализатора: количество вызовов, время по классам,
+     * количество обработанных объектов и обратных ссылок, промахи кэша рефлексии.
+     *
+     * @return статистика этого экземпляра
+     */
+    public MapperStatistics getStatistics() {
+        return statistics;
     }
 
-    private String getDeclaredFieldForWriting(Field field) {
-        // Для записи нужно проверить PropertyName и Ignored.
-        if (field.getAnnotation(PropertyName.class) != null) {
-            return field.getAnnotation(PropertyName.class).value();
+    private ClassPlan getPlan(Class<?> clazz, OperationCounters counters) {
+        ClassPlan plan = classPlans.get(clazz);
+        if (plan == null) {
+            counters.planCacheMisses++;
+            plan = classPlans.computeIfAbsent(clazz, ClassPlan::new);
         }
-        if (field.getAnnotation(Ignored.class) != null || field.isSynthetic()
-                || java.lang.reflect.Modifier.isStatic(field.getModifiers())) {
-            return null;
+        return plan;
+    }
+
+    private Field getDeclaredFieldForReading(ClassPlan plan, String fieldName) throws Exception {
+        if (!plan.hasReadField(fieldName)) {
+            if (plan.exported.unknownPropertiesPolicy() == UnknownPropertiesPolicy.IGNORE) {
+                return null;
+            } else {
+                throw new Exception();
+            }
         }
-        return field.getName();
+        // Поле с аннотацией Ignored, Synthetic или static в плане хранится как null.
+        return plan.getReadField(fieldName);
     }
 
     private boolean inputHasFeatureOfRetainingIdentity(String input) {
@@ -68,30 +82,6 @@ public class MapperSerializer implements Mapper {
         return input.startsWith("%0");
     }
 
-    private Map<Integer, String> readStringMapperFromLines(String input) {
-        Map<Integer, String> mapper = new HashMap<>();
-        // Заполняется mapper.
-        Scanner scanner = new Scanner(input);
-        // Первая строка пропускается.
-        scanner.nextLine();
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            int indexOfColon = line.indexOf(':');
-            mapper.put(Integer.parseInt(line.substring(0, indexOfColon)), line.substring(indexOfColon + 2));
-        }
-        scanner.close();
-        return mapper;
-    }
-
-    private String transformInputWithIdentityToWithout(String input) {
-        Map<Integer, String> mapper = readStringMapperFromLines(input);
-        // Последовательная замена всех %чисел на соответствующие строки в input.
-        for (int i = 0; i < mapper.size(); ++i) {
-            input = input.replaceAll("%" + i, mapper.get(i));
-        }
-        return input;
-    }
-
     /**
      * Читает сохранённый экземпляр класса {@code clazz} из строки {@code input}
      * и возвращает восстановленный экземпляр класса {@code clazz}.
@@ -110,60 +100,152 @@ public class MapperSerializer implements Mapper {
      * @param input строковое представление сохранённого экземпляра класса {@code
      *              clazz}
      * @return восстановленный экземпляр {@code clazz}
+     * @throws MapperException если {@code input} не удалось прочитать как экземпляр {@code clazz}
      */
     @Override
     public <T> T readFromString(Class<T> clazz, String input) {
-        // Всего есть 4 варианта.
-        Map<Integer, String> stringMapper;
-        Map<Integer, Object> objectMapper = new HashMap<>();
-        if (!retainIdentity && inputHasFeatureOfRetainingIdentity(input)) {
-            input = transformInputWithIdentityToWithout(input);
-            stringMapper = new HashMap<>();
-            stringMapper.put(0, input);
-        } else if (retainIdentity && inputHasFeatureOfRetainingIdentity(input)) {
-            stringMapper = readStringMapperFromLines(input);
-        } else {
-            // Два варианта:
-            // Сохранять индентичность, но при сохранении индентичность не поддрживалась.
-            // Не сохранять идентичость, и при сохранении индентичность не поддрживалась.
-            stringMapper = new HashMap<>();
-            stringMapper.put(0, input);
+        return read(clazz, input, null);
+    }
+
+    /**
+     * Читает из строки {@code input} только запрошенные поля экземпляра класса {@code clazz}.
+     * Остальные значения, включая вложенные объекты и коллекции целиком,
+     * пропускаются без разбора и без создания объектов.
+     * <p>
+     * Пример вызова:
+     *
+     * <pre>
+     * SampleBag bag = mapper.readFromString(SampleBag.class, input, Set.of("id", "inside1.c"));
+     * </pre>
+     *
+     * @param clazz  класс, сохранённый экземпляр которого находится в {@code input}
+     * @param input  строковое представление сохранённого экземпляра класса {@code clazz}
+     * @param fields имена полей (с учетом PropertyName) или пути к вложенным полям через точку
+     * @return экземпляр {@code clazz}, в котором заполнены только запрошенные поля
+     * @throws MapperException если {@code input} не удалось прочитать как экземпляр {@code clazz}
+     */
+    @Override
+    public <T> T readFromString(Class<T> clazz, String input, Set<String> fields) {
+        return read(clazz, input, FieldProjection.of(fields));
+    }
+
+    /**
+     * Состояние одного вызова чтения.
+     * Все таблицы - массивы, индексированные номером объекта %n.
+     */
+    private static class ReadState {
+        final String input;
+        /**
+         * Смещения записей объектов во входе (null, если вход записан без retainIdentity).
+         */
+        final IdentityLines lines;
+        /**
+         * Сохранять ли идентичность: если нет, каждая ссылка %n читается в новый объект.
+         */
+        final boolean shareObjects;
+        /**
+         * Объекты по номерам %n. Объект попадает сюда сразу после создания,
+         * поэтому циклические ссылки не приводят к бесконечной рекурсии.
+         */
+        final Object[] objects;
+        /**
+         * Номера объектов, прочитанных целиком (а не только частично, через проекцию).
+         */
+        final BitSet fullyRead = new BitSet();
+        /**
+         * Номера объектов, которые читаются прямо сейчас (для поиска циклов без сохранения идентичности).
+         */
+        final BitSet inProgress = new BitSet();
+        final OperationCounters counters = new OperationCounters();
+        /**
+         * Индекс таблицы строк $k. Без retainIdentity строится только при первой ссылке $k,
+         * чтобы вход без таблицы строк не просматривался лишний раз.
+         */
+        IdentityLines stringLines;
+        /**
+         * Уже прочитанные строки по номерам $k: все ссылки на номер получают один экземпляр.
+         */
+        String[] strings;
+
+        ReadState(String input, IdentityLines lines, boolean shareObjects) {
+            this.input = input;
+            this.lines = lines;
+            this.shareObjects = shareObjects;
+            objects = new Object[lines == null ? 1 : lines.count()];
+            stringLines = lines;
         }
+
+        String sharedString(int index) throws Exception {
+            if (stringLines == null) {
+                stringLines = IdentityLines.parse(input);
+            }
+            if (strings == null) {
+                strings = new String[stringLines.stringCount()];
+            }
+            int start = stringLines.stringStart(index);
+            String string = strings[index];
+            if (string == null) {
+                string = input.substring(start + 1, FieldScanner.skipValue(input, start) - 1);
+                strings[index] = string;
+            } else {
+                counters.deduplicatedStrings++;
+            }
+            return string;
+        }
+
+        int objectStart(int index) throws Exception {
+            if (lines != null) {
+                return lines.start(index);
+            }
+            if (index != 0) {
+                throw new Exception("Нет объекта с номером %" + index);
+            }
+            return input.indexOf('{');
+        }
+    }
+
+    private <T> T read(Class<T> clazz, String input, FieldProjection projection) {
+        MapperDeserializeEvent event = new MapperDeserializeEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int inputLength = input.length();
+        boolean failed = true;
+        // Всего есть 4 варианта.
+        // Если при записи идентичность не сохранялась, весь вход - это один корневой объект.
+        // Иначе строится индекс записей объектов, а при чтении без retainIdentity
+        // каждая ссылка %n просто читается в новый объект.
+        IdentityLines lines = inputHasFeatureOfRetainingIdentity(input) ? IdentityLines.parse(input) : null;
+        ReadState state = new ReadState(input, lines, retainIdentity);
         // Запуск самой десериализации.
         try {
-            readFromStringRecursive(clazz, 0, stringMapper, objectMapper);
-        } catch (InstantiationException | IllegalAccessException | NoSuchFieldException e) {
-            e.printStackTrace();
+            T result = clazz.cast(readReference(clazz, 0, projection, state));
+            failed = false;
+            return result;
         } catch (Exception e) {
-            e.printStackTrace();
+            throw new MapperException("Не удалось прочитать " + clazz.getName(), e);
+        } finally {
+            // Ошибка пробрасывается вызывающему, но попадает в статистику.
+            OperationCounters counters = state.counters;
+            statistics.recordDeserialization(clazz, System.nanoTime() - start, inputLength, counters, failed);
+            if (event.shouldCommit()) {
+                event.objectClass = clazz;
+                event.chars = inputLength;
+                event.objectsVisited = counters.objectsVisited;
+                event.planCacheMisses = counters.planCacheMisses;
+                event.failed = failed;
+                event.commit();
+            }
         }
-        // Десериализованный объект находится на нулевом месте.
-        return (T) objectMapper.get(0);
     }
 
-    private void splitToFieldsNamesAndValues(String string, List<String> fieldNames, List<String> fieldValues) {
-        int index = 0;
-        int left;
-        int right;
-        while (index < string.length()) {
-            left = string.indexOf('\"', index);
-            right = string.indexOf('\"', left + 1);
-            fieldNames.add(string.substring(left + 1, right));
-
-            index = right + 3;
-            if (string.charAt(index) == '{') {
-                right = string.indexOf('}', index) + 1;
-            } else if (string.charAt(index) == '[') {
-                right = string.indexOf(']', index) + 1;
-            } else {
-                right = string.indexOf(", \"", index);
-                if (right == -1) {
-                    right = string.indexOf(" }", index);
-                }
-            }
-            fieldValues.add(string.substring(index, right));
-            index = right + 2;
+    /**
+     * Разбор примитива или строки с учетом ссылок $k на таблицу строк.
+     */
+    private Object parseEndpointField(Class<?> fieldType, String fieldValue, ReadState state) throws Exception {
+        if (fieldValue.charAt(0) == '$') {
+            return state.sharedString(Integer.parseInt(fieldValue, 1, fieldValue.length(), 10));
         }
+        return parseEndpointField(fieldType, fieldValue);
     }
 
     private Object parseEndpointField(Class<?> fieldType, String fieldValue) {
@@ -194,45 +276,91 @@ public class MapperSerializer implements Mapper {
         }
     }
 
-    private <T> void readFromStringRecursive(Class<T> clazz, int index,
-                                             Map<Integer, String> stringMapper,
-                                             Map<Integer, Object> objectMapper) throws Exception {
-        if (!clazz.isAnnotationPresent(Exported.class)) {
+    /**
+     * Чтение объекта по ссылке %n (корневой объект - это ссылка %0).
+     */
+    private Object readReference(Class<?> clazz, int index, FieldProjection projection,
+                                 ReadState state) throws Exception {
+        int objectStart = state.objectStart(index);
+        if (!state.shareObjects) {
+            // Без сохранения идентичности повторная ссылка на читаемый объект - это цикл.
+            if (state.inProgress.get(index)) {
+                throw new Exception("Цикл!");
+            }
+            state.inProgress.set(index);
+            Object resultObject = createInstance(clazz, state.counters);
+            readFromStringRecursive(resultObject, state.input, objectStart, projection, state);
+            state.inProgress.clear(index);
+            return resultObject;
+        }
+
+        Object resultObject = state.objects[index];
+        if (resultObject != null && state.fullyRead.get(index)) {
+            return resultObject;
+        }
+        if (resultObject == null) {
+            resultObject = createInstance(clazz, state.counters);
+            state.objects[index] = resultObject;
+        }
+        if (projection == null) {
+            state.fullyRead.set(index);
+        }
+        readFromStringRecursive(resultObject, state.input, objectStart, projection, state);
+        return resultObject;
+    }
+
+    private Object createInstance(Class<?> clazz, OperationCounters counters) throws Exception {
+        ClassPlan plan = getPlan(clazz, counters);
+        if (plan.exported == null) {
             throw new Exception();
         }
+        counters.objectsVisited++;
         // Вызов конструктора по умолчанию через рефлексию.
-        T resultObject = clazz.newInstance();
-        List<String> fieldNames = new ArrayList<>();
-        List<String> fieldValues = new ArrayList<>();
+        return clazz.newInstance();
+    }
 
-        // Разделение строки на список переменных и соответствующих им значений.
-        splitToFieldsNamesAndValues(stringMapper.get(index), fieldNames, fieldValues);
+    /**
+     * Заполняет поля {@code resultObject} из объекта, записанного в {@code string} начиная с {@code objectStart}.
+     *
+     * @param projection запрошенные поля или null, если читаются все поля
+     */
+    private void readFromStringRecursive(Object resultObject, String string, int objectStart,
+                                         FieldProjection projection, ReadState state) throws Exception {
+        ClassPlan plan = getPlan(resultObject.getClass(), state.counters);
+        FieldScanner scanner = new FieldScanner(string, objectStart);
 
         // Прохожусь по всем полям в объекте.
-        for (int i = 0; i < fieldNames.size(); ++i) {
-            Field currField = getDeclaredFieldForReading(clazz, fieldNames.get(i));
+        while (scanner.next()) {
+            Field currField;
+            FieldProjection childProjection = null;
+            if (projection == null) {
+                currField = getDeclaredFieldForReading(plan, scanner.name());
+            } else {
+                // Незапрошенные поля пропускаются без создания подстрок.
+                String requestedName = projection.match(scanner);
+                if (requestedName == null) {
+                    continue;
+                }
+                currField = getDeclaredFieldForReading(plan, requestedName);
+                childProjection = projection.child(requestedName);
+            }
             if (currField == null) {
                 continue;
             }
-            currField.setAccessible(true);
 
+            char first = scanner.firstValueChar();
             // 1) Это может быть ссылкой на другой объект.
-            if (fieldValues.get(i).charAt(0) == '%') {
-                int objectNumber = Integer.parseInt(fieldValues.get(i).substring(1));
-                Class<?> objectClass = currField.getType();
-                if (!objectMapper.containsKey(objectNumber)) {
-                    readFromStringRecursive(objectClass, objectNumber, stringMapper, objectMapper);
-                }
-                currField.set(resultObject, objectMapper.get(objectNumber));
+            if (first == '%') {
+                int objectNumber = Integer.parseInt(string, scanner.valueStart + 1, scanner.valueEnd, 10);
+                currField.set(resultObject, readReference(currField.getType(), objectNumber, childProjection, state));
 
-            } else if (fieldValues.get(i).charAt(0) == '{') {
+            } else if (first == '{') {
                 // 2) Это может быть просто объектом.
-                int objectNumber = stringMapper.size();
-                stringMapper.put(objectNumber, fieldValues.get(i));
-                readFromStringRecursive(currField.getType(), objectNumber, stringMapper, objectMapper);
-                currField.set(resultObject, objectMapper.get(objectNumber));
+                Object nested = createInstance(currField.getType(), state.counters);
+                readFromStringRecursive(nested, string, scanner.valueStart, childProjection, state);
+                currField.set(resultObject, nested);
 
-            } else if (fieldValues.get(i).charAt(0) == '[') {
+            } else if (first == '[') {
                 var genericType = (Class<?>) ((ParameterizedType) currField.getGenericType()).getActualTypeArguments()[0];
                 // 3) Это может быть массив/множество.
                 Object collection;// = currField.getClass().newInstance();
@@ -242,12 +370,12 @@ public class MapperSerializer implements Mapper {
                     collection = HashSet.class.newInstance();
                 }
                 Method add = Collection.class.getDeclaredMethod("add", Object.class);
-                var splitted = fieldValues.get(i).split(", ");
+                var splitted = scanner.value().split(", ");
                 splitted[0] = splitted[0].replaceFirst("\\[ ", "");
                 splitted[splitted.length - 1] = splitted[splitted.length - 1].replaceFirst(" ]", "");
                 if (isEndpointClass(genericType)) {
                     for (String elem : splitted) {
-                        add.invoke(collection, parseEndpointField(genericType, elem));
+                        add.invoke(collection, parseEndpointField(genericType, elem, state));
                     }
                 } else {
                     for (String elem : splitted) {
@@ -257,14 +385,16 @@ public class MapperSerializer implements Mapper {
                 }
                 currField.set(resultObject, collection);
 
+            } else if (first == '$') {
+                // 4) Это может быть ссылкой на строку из таблицы строк.
+                int stringNumber = Integer.parseInt(string, scanner.valueStart + 1, scanner.valueEnd, 10);
+                currField.set(resultObject, state.sharedString(stringNumber));
+
             } else {
-                // 3) Иначе это примитив, обертка примитива или строка.
-                currField.set(resultObject, parseEndpointField(currField.getType(), fieldValues.get(i)));
+                // 5) Иначе это примитив, обертка примитива или строка.
+                currField.set(resultObject, parseEndpointField(currField.getType(), scanner.value()));
             }
         }
-        // После полной обработки объект записывается в словарь.
-        objectMapper.put(index, resultObject);
-        // И далее рекурсивные вызовы будут раскручиваться.
     }
 
     /**
@@ -293,7 +423,9 @@ public class MapperSerializer implements Mapper {
      */
     @Override
     public <T> T read(Class<T> clazz, InputStream inputStream) throws IOException {
-        return null;
+        try (inputStream) {
+            return readFromString(clazz, new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+        }
     }
 
     /**
@@ -318,7 +450,7 @@ public class MapperSerializer implements Mapper {
      */
     @Override
     public <T> T read(Class<T> clazz, File file) throws IOException {
-        return null;
+        return read(clazz, new FileInputStream(file));
     }
 
     private boolean isEndpointClass(Class<?> type) {
@@ -335,67 +467,173 @@ public class MapperSerializer implements Mapper {
         return object.toString();
     }
 
-    private String writeToStringRecursive(boolean retainIdentity, Object object,
-                                          IdentityHashMap<Object, Integer> identityHashMap,
-                                          Map<Integer, String> resultIdMapper)
+    /**
+     * Состояние одного вызова записи.
+     */
+    private static class WriteState {
+        final boolean retainIdentity;
+        /**
+         * Номера всех встреченных Exported объектов.
+         */
+        final IdentityIntTable identities = new IdentityIntTable();
+        /**
+         * Куда сразу же выводятся готовые записи объектов {@code n: { ... }} (при retainIdentity).
+         */
+        final Appendable lines;
+        /**
+         * Номера уже записанных строк (null, если строки не дедуплицируются).
+         * Строки сравниваются по значению, а не по ссылке.
+         */
+        final Map<String, Integer> strings;
+        final OperationCounters counters = new OperationCounters();
+        long charsWritten;
+
+        WriteState(boolean retainIdentity, boolean deduplicateStrings, Appendable lines) {
+            this.retainIdentity = retainIdentity;
+            this.lines = lines;
+            strings = deduplicateStrings ? new HashMap<>() : null;
+        }
+
+        void emit(CharSequence chars) throws IOException {
+            lines.append(chars);
+            charsWritten += chars.length();
+        }
+    }
+
+    /**
+     * Дописывает представление {@code object} в {@code target}.
+     * При retainIdentity вместо Exported объекта в {@code target} пишется ссылка %n,
+     * а сама запись объекта выводится в {@code state.lines}, как только объект записан целиком.
+     * Поэтому в памяти одновременно находятся только записи объектов на текущем пути обхода.
+     */
+    private void writeToStringRecursive(Object object, StringBuilder target, WriteState state)
             throws Exception {
         Class<?> objectClass = object.getClass();
         if (object instanceof List<?> || object instanceof Set<?>) {
-            StringBuilder sb = new StringBuilder("[ ");
+            target.append("[ ");
             for (Object elem : (Collection<?>) object) {
-                sb.append(writeToStringRecursive(retainIdentity, elem, identityHashMap, resultIdMapper)).append(", ");
+                writeToStringRecursive(elem, target, state);
+                target.append(", ");
             }
-            sb.delete(sb.length() - 2, sb.length());
-            sb.append(" ]");
-            return sb.toString();
+            target.setLength(target.length() - 2);
+            target.append(" ]");
+            return;
+        }
+        if (state.strings != null && objectClass == String.class) {
+            writeStringReference((String) object, target, state);
+            return;
         }
         if (isEndpointClass(objectClass)) {
-            return getEndpointObjectString(object);
+            target.append(getEndpointObjectString(object));
+            return;
         }
-        if (!objectClass.isAnnotationPresent(Exported.class)) {
+        ClassPlan plan = getPlan(objectClass, state.counters);
+        if (plan.exported == null) {
             throw new Exception();
         }
 
-        if (retainIdentity && identityHashMap.containsKey(object)) {
-            return "%" + identityHashMap.get(object);
-        } else {
-            // Если в массиве identity есть ссылка на этот объект, значит, произошел цикл.
-            if (identityHashMap.containsKey(object)) {
-                throw new Exception("Цикл!");
-            }
-            identityHashMap.put(object, identityHashMap.size());
-
-            StringBuilder result = new StringBuilder("{ ");
-            List<String> fieldStringsToJoin = new ArrayList<>();
-            Field[] fields = objectClass.getDeclaredFields();
-            try {
-                for (Field field : fields) {
-                    String fieldName = getDeclaredFieldForWriting(field);
-                    if (fieldName == null) {
-                        continue;
-                    }
-                    field.setAccessible(true);
-                    if (field.get(object) == null) {
-                        if (objectClass.getAnnotation(Exported.class).nullHandling() == NullHandling.INCLUDE) {
-                            fieldStringsToJoin.add("\"" + field.getName() + "\": null");
-                        }
-                    } else {
-                        fieldStringsToJoin.add("\"" + fieldName + "\": " +
-                                writeToStringRecursive(
-                                        retainIdentity, field.get(object), identityHashMap, resultIdMapper));
-                    }
+        int knownId = state.identities.get(object);
+        if (state.retainIdentity && knownId != -1) {
+            state.counters.backReferences++;
+            target.append('%').append(knownId);
+            return;
+        }
+        // Если в таблице identity есть ссылка на этот объект, значит, произошел цикл.
+        if (knownId != -1) {
+            throw new Exception("Цикл!");
+        }
+        int id = state.identities.add(object);
+        state.counters.objectsVisited++;
+
+        StringBuilder result = state.retainIdentity ? new StringBuilder() : target;
+        result.append("{ ");
+        boolean first = true;
+        try {
+            for (int i = 0; i < plan.writeFields.length; i++) {
+                Field field = plan.writeFields[i];
+                Object value = field.get(object);
+                if (value == null && plan.exported.nullHandling() != NullHandling.INCLUDE) {
+                    continue;
+                }
+                if (!first) {
+                    result.append(", ");
+                }
+                first = false;
+                if (value == null) {
+                    result.append('\"').append(field.getName()).append("\": null");
+                } else {
+                    result.append('\"').append(plan.writeNames[i]).append("\": ");
+                    writeToStringRecursive(value, result, state);
                 }
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
             }
-            result.append(String.join(", ", fieldStringsToJoin));
-            result.append(" }");
+        } catch (IllegalAccessException e) {
+            throw new MapperException("Нет доступа к полю класса " + objectClass.getName(), e);
+        }
+        result.append(" }");
 
-            if (retainIdentity) {
-                resultIdMapper.put(identityHashMap.get(object), result.toString());
-                return "%" + identityHashMap.get(object);
-            } else {
-                return result.toString();
+        if (state.retainIdentity) {
+            state.emit("\n" + id + ": ");
+            state.emit(result);
+            target.append('%').append(id);
+        }
+    }
+
+    /**
+     * Пишет ссылку $k на строку. При первой встрече строка получает номер
+     * и выводится в таблицу строк строкой {@code $k: "..."}.
+     */
+    private void writeStringReference(String value, StringBuilder target, WriteState state) throws IOException {
+        Integer index = state.strings.get(value);
+        if (index == null) {
+            index = state.strings.size();
+            state.strings.put(value, index);
+            state.emit("\n$" + index + ": " + getEndpointObjectString(value));
+        } else {
+            state.counters.deduplicatedStrings++;
+        }
+        target.append('$').append(index);
+    }
+
+    /**
+     * Записывает {@code object} в {@code out}, собирая статистику и событие JFR.
+     */
+    private void write(Object object, Appendable out) throws Exception {
+        MapperSerializeEvent event = new MapperSerializeEvent();
+        event.begin();
+        long start = System.nanoTime();
+        WriteState state;
+        boolean failed = true;
+        StringBuilder root = new StringBuilder();
+        if (retainIdentity && !isEndpointClass(object.getClass())
+                && !(object instanceof List<?> || object instanceof Set<?>)) {
+            // Корневой объект всегда получает номер 0, поэтому заголовок можно вывести сразу,
+            // а записи объектов - по мере готовности.
+            state = new WriteState(true, deduplicateStrings, out);
+            state.emit("%0");
+        } else {
+            // Записи объектов и таблицу строк нужно вывести после корня, поэтому они накапливаются.
+            state = new WriteState(retainIdentity, deduplicateStrings, new StringBuilder());
+        }
+        try {
+            writeToStringRecursive(object, root, state);
+            if (state.lines != out) {
+                out.append(root).append((CharSequence) state.lines);
+                state.charsWritten += root.length();
+            }
+            failed = false;
+        } finally {
+            // Исключение пробрасывается дальше, но попадает в статистику.
+            OperationCounters counters = state.counters;
+            int length = (int) Math.min(state.charsWritten, Integer.MAX_VALUE);
+            statistics.recordSerialization(object.getClass(), System.nanoTime() - start, length, counters, failed);
+            if (event.shouldCommit()) {
+                event.objectClass = object.getClass();
+                event.chars = length;
+                event.objectsVisited = counters.objectsVisited;
+                event.backReferences = counters.backReferences;
+                event.planCacheMisses = counters.planCacheMisses;
+                event.failed = failed;
+                event.commit();
             }
         }
     }
@@ -419,12 +657,8 @@ public class MapperSerializer implements Mapper {
      */
     @Override
     public String writeToString(Object object) throws Exception {
-        Map<Integer, String> mapper = new HashMap<>();
-        StringBuilder result = new StringBuilder(
-                writeToStringRecursive(retainIdentity, object, new IdentityHashMap<>(), mapper));
-        for (var pair : mapper.entrySet()) {
-            result.append("\n").append(pair.getKey()).append(": ").append(pair.getValue());
-        }
+        StringBuilder result = new StringBuilder();
+        write(object, result);
         return result.toString();
     }
 
@@ -454,7 +688,14 @@ public class MapperSerializer implements Mapper {
      */
     @Override
     public void write(Object object, OutputStream outputStream) throws IOException {
-
+        // Записи объектов выводятся в поток по мере готовности, без сборки всей строки в памяти.
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
+            write(object, writer);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
     }
 
     /**
@@ -483,6 +724,6 @@ public class MapperSerializer implements Mapper {
      */
     @Override
     public void write(Object object, File file) throws IOException {
-
+        write(object, new FileOutputStream(file));
     }
 }
@@ -0,0 +1,162 @@
+package mapper.implementation;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Накопленная статистика работы одного {@link MapperSerializer}.
+ * Счетчики дешевые (LongAdder), поэтому собираются всегда -
+ * в отличие от событий JFR, которые пишутся только при включенной записи.
+ */
+public class MapperStatistics {
+    private final LongAdder serializations = new LongAdder();
+    private final LongAdder deserializations = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder charsProduced = new LongAdder();
+    private final LongAdder charsConsumed = new LongAdder();
+    private final LongAdder objectsVisited = new LongAdder();
+    private final LongAdder backReferences = new LongAdder();
+    private final LongAdder planCacheMisses = new LongAdder();
+    private final LongAdder deduplicatedStrings = new LongAdder();
+
+    /**
+     * Время сериализации/десериализации по классам корневых объектов.
+     */
+    private final ConcurrentMap<Class<?>, ClassTimings> classTimings = new ConcurrentHashMap<>();
+
+    /**
+     * Время работы и количество вызовов для одного класса.
+     */
+    public static class ClassTimings {
+        private final LongAdder serializeCount = new LongAdder();
+        private final LongAdder serializeNanos = new LongAdder();
+        private final LongAdder deserializeCount = new LongAdder();
+        private final LongAdder deserializeNanos = new LongAdder();
+
+        public long getSerializeCount() {
+            return serializeCount.sum();
+        }
+
+        public long getSerializeNanos() {
+            return serializeNanos.sum();
+        }
+
+        public long getDeserializeCount() {
+            return deserializeCount.sum();
+        }
+
+        public long getDeserializeNanos() {
+            return deserializeNanos.sum();
+        }
+    }
+
+    /**
+     * Учет одной завершенной сериализации.
+     */
+    void recordSerialization(Class<?> clazz, long nanos, int chars, OperationCounters counters, boolean failed) {
+        serializations.increment();
+        charsProduced.add(chars);
+        record(counters, failed);
+        ClassTimings timings = timingsFor(clazz);
+        timings.serializeCount.increment();
+        timings.serializeNanos.add(nanos);
+    }
+
+    /**
+     * Учет одной завершенной десериализации.
+     */
+    void recordDeserialization(Class<?> clazz, long nanos, int chars, OperationCounters counters, boolean failed) {
+        deserializations.increment();
+        charsConsumed.add(chars);
+        record(counters, failed);
+        ClassTimings timings = timingsFor(clazz);
+        timings.deserializeCount.increment();
+        timings.deserializeNanos.add(nanos);
+    }
+
+    private void record(OperationCounters counters, boolean failed) {
+        if (failed) {
+            failures.increment();
+        }
+        objectsVisited.add(counters.objectsVisited);
+        backReferences.add(counters.backReferences);
+        planCacheMisses.add(counters.planCacheMisses);
+        deduplicatedStrings.add(counters.deduplicatedStrings);
+    }
+
+    private ClassTimings timingsFor(Class<?> clazz) {
+        ClassTimings timings = classTimings.get(clazz);
+        if (timings == null) {
+            timings = classTimings.computeIfAbsent(clazz, c -> new ClassTimings());
+        }
+        return timings;
+    }
+
+    public long getSerializations() {
+        return serializations.sum();
+    }
+
+    public long getDeserializations() {
+        return deserializations.sum();
+    }
+
+    /**
+     * Количество вызовов, завершившихся исключением.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Суммарная длина (в символах) всех записанных строк.
+     */
+    public long getCharsProduced() {
+        return charsProduced.sum();
+    }
+
+    /**
+     * Суммарная длина (в символах) всех прочитанных строк.
+     */
+    public long getCharsConsumed() {
+        return charsConsumed.sum();
+    }
+
+    /**
+     * Количество записанных или восстановленных Exported объектов.
+     */
+    public long getObjectsVisited() {
+        return objectsVisited.sum();
+    }
+
+    /**
+     * Количество записанных ссылок вида %n на уже встреченный объект.
+     */
+    public long getBackReferences() {
+        return backReferences.sum();
+    }
+
+    /**
+     * Количество построений плана рефлексии для еще не встречавшегося класса.
+     */
+    public long getPlanCacheMisses() {
+        return planCacheMisses.sum();
+    }
+
+    /**
+     * Количество повторов строк, записанных или прочитанных как ссылка вида $k
+     * на уже встреченную строку (при включенной дедупликации строк).
+     */
+    public long getDeduplicatedStrings() {
+        return deduplicatedStrings.sum();
+    }
+
+    /**
+     * Время работы по классам корневых объектов.
+     */
+    public Map<Class<?>, ClassTimings> getClassTimings() {
+        return Collections.unmodifiableMap(classTimings);
+    }
+}
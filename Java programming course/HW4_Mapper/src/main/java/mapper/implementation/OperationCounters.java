@@ -0,0 +1,13 @@
+package mapper.implementation;
+
+/**
+ * Счетчики одного вызова сериализации или десериализации.
+ * Обычные int-поля: объект используется только одним потоком,
+ * а в общую статистику переносится один раз в конце вызова.
+ */
+class OperationCounters {
+    int objectsVisited;
+    int backReferences;
+    int planCacheMisses;
+    int deduplicatedStrings;
+}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Set;
 
 public interface Mapper {
     /**
@@ -28,6 +29,29 @@ public interface Mapper {
      */
     <T> T readFromString(Class<T> clazz, String input);
 
+    /**
+     * Читает из строки {@code input} только запрошенные поля сохранённого экземпляра
+     * класса {@code clazz}. Значения остальных полей (в том числе вложенные объекты
+     * и коллекции целиком) пропускаются без разбора.
+     * <p>
+     * Пример вызова:
+     *
+     * <pre>
+     * ReviewComment reviewComment =
+     * mapper.readFromString(ReviewComment.class, input, Set.of("opinion"));
+     * </pre>
+     *
+     * @param clazz  класс, сохранённый экземпляр которого находится в {@code input}
+     * @param input  строковое представление сохранённого экземпляра класса {@code
+     *               clazz}
+     * @param fields имена полей в том виде, в котором они записаны в {@code input},
+     *               или пути к полям вложенных объектов через точку
+     *               (например, {@code "author.name"})
+     * @param <T>    возвращаемый тип метода
+     * @return экземпляр {@code clazz}, в котором восстановлены только запрошенные поля
+     */
+    <T> T readFromString(Class<T> clazz, String input, Set<String> fields);
+
     /**
      * Читает объект класса {@code clazz} из {@code InputStream}'а
      * и возвращает восстановленный экземпляр класса {@code clazz}.
@@ -1,13 +1,20 @@
 package mapper.implementation;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import ru.hse.homework4.Exported;
 import ru.hse.homework4.Mapper;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 @Exported
 class MapperSerializerTest {
@@ -21,4 +28,150 @@ class MapperSerializerTest {
         sampleBag.inside1.c = 999;
         assertEquals(sampleBag.inside1, sampleBag.inside2);
     }
+
+    @Test
+    void statisticsTest() throws Exception {
+        MapperSerializer mapper = new MapperSerializer(true);
+        String save = mapper.writeToString(new SampleBag());
+        mapper.readFromString(SampleBag.class, save);
+
+        MapperStatistics statistics = mapper.getStatistics();
+        assertEquals(1, statistics.getSerializations());
+        assertEquals(1, statistics.getDeserializations());
+        assertEquals(0, statistics.getFailures());
+        // SampleBag и один InsideSample, на который две ссылки.
+        assertEquals(4, statistics.getObjectsVisited());
+        assertEquals(1, statistics.getBackReferences());
+        assertEquals(save.length(), statistics.getCharsProduced());
+        assertEquals(1, statistics.getClassTimings().get(SampleBag.class).getSerializeCount());
+    }
+
+    @Test
+    void readErrorIsThrownAndCounted() {
+        MapperSerializer mapper = new MapperSerializer(false);
+        MapperException exception = assertThrows(MapperException.class,
+                () -> mapper.readFromString(SampleBag.class, "{ \"unknown\": 1 }"));
+        assertNotNull(exception.getCause());
+        assertEquals(1, mapper.getStatistics().getDeserializations());
+        assertEquals(1, mapper.getStatistics().getFailures());
+    }
+
+    @Test
+    void projectionReadsOnlyRequestedFields() throws Exception {
+        Mapper mapper = new MapperSerializer(true);
+        SampleBag sampleBag = new SampleBag();
+        sampleBag.id = 5;
+        sampleBag.inside1.c = 7;
+        String save = mapper.writeToString(sampleBag);
+
+        SampleBag projected = mapper.readFromString(SampleBag.class, save, Set.of("inside1.c"));
+        // id не запрашивался - остается значение из конструктора.
+        assertEquals(223, projected.id);
+        assertEquals(7, projected.inside1.c);
+
+        ReviewComment reviewComment = new ReviewComment();
+        reviewComment.setComment("Хорошая работа");
+        String comment = new MapperSerializer(false).writeToString(reviewComment);
+        assertEquals("Хорошая работа",
+                mapper.readFromString(ReviewComment.class, comment, Set.of("opinion")).getComment());
+    }
+
+    @Test
+    void scannerSkipsNestedValues() {
+        String input = "{ \"skip\": { \"a\": [ \"} ]\", 2 ], \"b\": { \"c\": 1 } }, \"id\": 42 }";
+        FieldScanner scanner = new FieldScanner(input, 0);
+        assertTrue(scanner.next());
+        assertTrue(scanner.nameEquals("skip"));
+        assertTrue(scanner.next());
+        assertEquals("id", scanner.name());
+        assertEquals("42", scanner.value());
+        assertFalse(scanner.next());
+    }
+
+    @Test
+    void streamingIdentityRoundTrip() throws Exception {
+        Mapper mapper = new MapperSerializer(true);
+        SampleBag sampleBag = new SampleBag();
+        sampleBag.inside1.c = 31;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.write(sampleBag, out);
+
+        // Вложенный объект записан раньше корневого.
+        String save = out.toString(StandardCharsets.UTF_8);
+        assertTrue(save.startsWith("%0\n1: "));
+
+        SampleBag restored = mapper.read(SampleBag.class, new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(31, restored.inside1.c);
+        assertSame(restored.inside1, restored.inside2);
+
+        // Без retainIdentity каждая ссылка читается в отдельный объект.
+        SampleBag copied = new MapperSerializer(false).readFromString(SampleBag.class, save);
+        assertEquals(31, copied.inside2.c);
+        assertNotSame(copied.inside1, copied.inside2);
+    }
+
+    @Test
+    void identityTableGrows() {
+        IdentityIntTable table = new IdentityIntTable();
+        List<Object> objects = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            Object object = new Object();
+            objects.add(object);
+            assertEquals(i, table.add(object));
+        }
+        for (int i = 0; i < objects.size(); i++) {
+            assertEquals(i, table.get(objects.get(i)));
+        }
+        assertEquals(-1, table.get(new Object()));
+    }
+
+    @Test
+    void recordIndexReadsNthRecord(@TempDir Path dir) throws Exception {
+        Mapper mapper = new MapperSerializer(true);
+        File file = dir.resolve("records").toFile();
+        try (MapperRecordWriter writer = new MapperRecordWriter(mapper, file, true)) {
+            for (int i = 0; i < 100; i++) {
+                SampleBag sampleBag = new SampleBag();
+                sampleBag.id = i;
+                sampleBag.inside1.c = -i;
+                writer.write(sampleBag);
+            }
+        }
+
+        try (MapperRecordReader reader = new MapperRecordReader(mapper, file)) {
+            assertEquals(100, reader.getRecordCount());
+            SampleBag record = reader.read(SampleBag.class, 57);
+            assertEquals(57, record.id);
+            assertEquals(-57, record.inside2.c);
+            assertSame(record.inside1, record.inside2);
+
+            List<SampleBag> range = reader.readRange(SampleBag.class, 98, 100);
+            assertEquals(2, range.size());
+            assertEquals(98, range.get(0).id);
+            assertEquals(99, range.get(1).id);
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.read(SampleBag.class, 100));
+        }
+    }
+
+    @Test
+    void repeatedStringsAreWrittenOnce() throws Exception {
+        TaggedRecord record = new TaggedRecord();
+        record.status = "открыт";
+        record.category = new String("открыт");
+        record.tags.add("открыт");
+        record.tags.add("срочно");
+
+        for (boolean retainIdentity : new boolean[]{false, true}) {
+            MapperSerializer mapper = new MapperSerializer(retainIdentity, true);
+            String save = mapper.writeToString(record);
+            assertEquals(1, save.split("открыт", -1).length - 1);
+            assertEquals(2, mapper.getStatistics().getDeduplicatedStrings());
+
+            TaggedRecord restored = mapper.readFromString(TaggedRecord.class, save);
+            assertEquals("открыт", restored.status);
+            assertSame(restored.status, restored.category);
+            assertSame(restored.status, restored.tags.get(0));
+            assertEquals("срочно", restored.tags.get(1));
+        }
+    }
 }
@@ -0,0 +1,23 @@
+package mapper.implementation;
+
+import ru.hse.homework4.Exported;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Exported
+public class TaggedRecord {
+    public String status;
+    public String category;
+    public List<String> tags = new ArrayList<>();
+    public InsideSample inside = new InsideSample();
+
+    @Override
+    public String toString() {
+        return "TaggedRecord{" +
+                "status='" + status + '\'' +
+                ", category='" + category + '\'' +
+                ", tags=" + tags +
+                '}';
+    }
+}
@@ -0,0 +1,118 @@
+package jigsaw.bot;
+
+import jigsaw.client.backend.board.BoardSkeleton;
+import jigsaw.client.backend.figure.JigsawFigure;
+import jigsaw.packagemodels.*;
+import jigsaw.protocol.FramedConnection;
+import jigsaw.server.log.ServerLog;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бот без графического интерфейса: играет так же, как {@code MainGameController}, но сам.
+ * <p>
+ * Отправляет имя, затем для каждой партии: begin, figure в цикле (каждая фигура ставится
+ * на первое подходящее место {@link BoardSkeleton}), результаты игры и в конце exit.
+ * Партия заканчивается, когда фигура больше не помещается на поле или вышло время.
+ */
+public class BotClient implements Runnable {
+    /**
+     * Размер поля, как в клиенте.
+     */
+    private static final int BOARD_NUM_CELLS = 9;
+
+    private final String host;
+    private final int port;
+    private final String name;
+    private final LoadGenerator.Settings settings;
+    private final BotStats stats;
+    private final BoardSkeleton board = new BoardSkeleton(BOARD_NUM_CELLS);
+
+    private FramedConnection connection;
+
+    public BotClient(String host, int port, String name, LoadGenerator.Settings settings, BotStats stats) {
+        this.host = host;
+        this.port = port;
+        this.name = name;
+        this.settings = settings;
+        this.stats = stats;
+    }
+
+    @Override
+    public void run() {
+        try (Socket socket = new Socket()) {
+            long connectStart = System.nanoTime();
+            socket.connect(new InetSocketAddress(host, port), settings.timeoutMillis());
+            socket.setSoTimeout(settings.timeoutMillis());
+            connection = FramedConnection.connect(socket, settings.protocolVersion());
+            stats.record(BotStats.CONNECT, System.nanoTime() - connectStart);
+
+            connection.send(new NamePackage(name));
+            for (int game = 0; game < settings.games(); game++) {
+                playGame();
+            }
+            connection.send(new GeneralPackage("exit"));
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            stats.error();
+            ServerLog.get().warn("BotClient", "Бот {} остановлен из-за ошибки. {}", name, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void playGame() throws IOException, ClassNotFoundException, InterruptedException {
+        BeginToClientPackage begin = request(new GeneralPackage("begin"), BotStats.MATCH_WAIT);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(begin.maxSeconds);
+        long gameStart = System.nanoTime();
+        board.clearBoard();
+        int moves = 0;
+        while (System.nanoTime() < deadline) {
+            JigsawFigure figure = request(new GeneralPackage("figure"), "figure");
+            if (!placeFirstFit(figure)) {
+                break;
+            }
+            moves++;
+            if (settings.thinkMillis() > 0) {
+                Thread.sleep(settings.thinkMillis());
+            }
+        }
+        long elapsedSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - gameStart);
+        WonLosePackage result = request(
+                new GameStatPackage(moves, elapsedSeconds, Timestamp.from(Instant.now())), "end");
+        stats.gameFinished("WON".equals(result.value));
+    }
+
+    /**
+     * Запрос с ожиданием ответа и записью задержки.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T request(Object message, String latencyName) throws IOException, ClassNotFoundException {
+        long start = System.nanoTime();
+        connection.send(message);
+        T response = (T) connection.receive();
+        stats.record(latencyName, System.nanoTime() - start);
+        return response;
+    }
+
+    /**
+     * Постановка фигуры на первое подходящее место (по строкам сверху вниз).
+     *
+     * @return false, если места для фигуры нет
+     */
+    private boolean placeFirstFit(JigsawFigure figure) {
+        for (int y = 0; y < BOARD_NUM_CELLS; y++) {
+            for (int x = 0; x < BOARD_NUM_CELLS; x++) {
+                if (board.checkIfFigureFitsIn(x, y, figure)) {
+                    board.placeFigure(x, y, figure);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,75 @@
+package jigsaw.bot;
+
+import jigsaw.server.metrics.LatencyHistogram;
+import jigsaw.server.metrics.LatencySnapshot;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Общая статистика всех ботов: задержки по видам запросов и счетчики.
+ * Записывается параллельно из потоков ботов без блокировок.
+ */
+public class BotStats {
+    /**
+     * Подключение: TCP-соединение и приветствие.
+     */
+    public static final String CONNECT = "connect";
+    /**
+     * Ожидание партнера: от begin до ответа сервера.
+     */
+    public static final String MATCH_WAIT = "matchWait";
+
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final LongAdder gamesPlayed = new LongAdder();
+    private final LongAdder gamesWon = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    void record(String name, long nanos) {
+        latencies.computeIfAbsent(name, key -> new LatencyHistogram()).record(nanos);
+    }
+
+    void gameFinished(boolean won) {
+        gamesPlayed.increment();
+        if (won) {
+            gamesWon.increment();
+        }
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    public long getGamesPlayed() {
+        return gamesPlayed.sum();
+    }
+
+    public long getGamesWon() {
+        return gamesWon.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public Map<String, LatencySnapshot> getLatencies() {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<>();
+        latencies.forEach((name, histogram) -> snapshots.put(name, histogram.snapshot()));
+        return snapshots;
+    }
+
+    /**
+     * Отчет для вывода в консоль.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("LoadGenerator: сыграно партий ").append(getGamesPlayed())
+                .append(", побед ").append(getGamesWon())
+                .append(", ошибок ").append(getErrors()).append('.');
+        getLatencies().forEach((name, snapshot) -> report.append(System.lineSeparator())
+                .append("  ").append(name).append(": ").append(snapshot));
+        return report.toString();
+    }
+}
@@ -0,0 +1,126 @@
+package jigsaw.bot;
+
+import jigsaw.protocol.WireProtocol;
+import jigsaw.server.log.ServerLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Нагрузочный тест сервера: запускает много {@link BotClient} одновременно и печатает статистику.
+ * <p>
+ * Параметры передаются аргументами вида {@code ключ=значение}, например:
+ * {@code java -cp server.jar jigsaw.bot.LoadGenerator host=localhost port=5000 bots=2000 games=3 thinkMillis=200}.
+ * <ul>
+ *     <li>bots - число ботов (подключений);</li>
+ *     <li>games - сколько партий играет каждый бот;</li>
+ *     <li>thinkMillis - пауза между ходами бота;</li>
+ *     <li>rampMillis - за какое время запускаются все боты (чтобы не подключаться одной пачкой);</li>
+ *     <li>protocol - версия протокола (1 - сериализация Java, 2 - двоичный);</li>
+ *     <li>timeoutMillis - время ожидания подключения и любого ответа сервера.</li>
+ * </ul>
+ * Сервер должен быть запущен с maxPlayers=2 (или 1), чтобы боты сами составляли пары.
+ */
+public class LoadGenerator {
+    /**
+     * Каждый бот - отдельный поток, поэтому стек уменьшен: тысячам ботов хватает памяти.
+     */
+    private static final long BOT_STACK_SIZE = 256 * 1024;
+
+    /**
+     * Параметры нагрузочного теста.
+     */
+    public record Settings(String host, int port, int bots, int games, int thinkMillis,
+                           int rampMillis, byte protocolVersion, int timeoutMillis) {
+        /**
+         * Разбор аргументов командной строки.
+         *
+         * @throws IllegalArgumentException при неизвестном ключе или некорректном значении
+         */
+        public static Settings parse(String[] args) {
+            String host = "localhost";
+            int port = 5000;
+            int bots = 100;
+            int games = 1;
+            int thinkMillis = 0;
+            int rampMillis = 0;
+            byte protocolVersion = WireProtocol.VERSION_BINARY;
+            int timeoutMillis = 120_000;
+            for (String arg : args) {
+                int separator = arg.indexOf('=');
+                if (separator == -1) {
+                    throw new IllegalArgumentException("LoadGenerator: Аргумент " + arg + " должен иметь вид ключ=значение.");
+                }
+                String key = arg.substring(0, separator);
+                String value = arg.substring(separator + 1);
+                switch (key) {
+                    case "host" -> host = value;
+                    case "port" -> port = parseInt(key, value);
+                    case "bots" -> bots = parseInt(key, value);
+                    case "games" -> games = parseInt(key, value);
+                    case "thinkMillis" -> thinkMillis = parseInt(key, value);
+                    case "rampMillis" -> rampMillis = parseInt(key, value);
+                    case "protocol" -> protocolVersion = (byte) parseInt(key, value);
+                    case "timeoutMillis" -> timeoutMillis = parseInt(key, value);
+                    default -> throw new IllegalArgumentException("LoadGenerator: Неизвестный параметр " + key + ".");
+                }
+            }
+            return new Settings(host, port, bots, games, thinkMillis, rampMillis, protocolVersion, timeoutMillis);
+        }
+
+        private static int parseInt(String key, String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("LoadGenerator: Параметр " + key + " должен быть числом.");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Settings settings;
+        try {
+            settings = Settings.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        System.out.println("LoadGenerator: Запуск " + settings.bots() + " ботов на "
+                + settings.host() + ":" + settings.port() + ".");
+        long start = System.nanoTime();
+        BotStats stats = run(settings);
+        // Сообщения об ошибках ботов выводятся раньше итогов.
+        ServerLog.get().flush(1000);
+        System.out.println("LoadGenerator: Готово за " + (System.nanoTime() - start) / 1_000_000 + " мс.");
+        System.out.println(stats.report());
+    }
+
+    /**
+     * Запуск всех ботов и ожидание, пока каждый сыграет свои партии.
+     *
+     * @param settings параметры
+     * @return собранная статистика
+     */
+    public static BotStats run(Settings settings) throws InterruptedException {
+        BotStats stats = new BotStats();
+        List<Thread> threads = new ArrayList<>(settings.bots());
+        long startDelayNanos = settings.bots() > 1
+                ? settings.rampMillis() * 1_000_000L / (settings.bots() - 1) : 0;
+        long firstStart = System.nanoTime();
+        for (int i = 0; i < settings.bots(); i++) {
+            long sleepNanos = firstStart + i * startDelayNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+            }
+            BotClient bot = new BotClient(settings.host(), settings.port(), "bot" + i, settings, stats);
+            Thread thread = new Thread(null, bot, "bot-" + i, BOT_STACK_SIZE);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,160 @@
+package jigsaw.client.backend;
+
+import jigsaw.client.backend.figure.JigsawFigure;
+import jigsaw.packagemodels.FiguresRequestPackage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Очередь следующих фигур, заранее полученных с сервера.
+ * <p>
+ * Фигуры запрашиваются пачками ({@link FiguresRequestPackage}), не дожидаясь ответа на предыдущий запрос,
+ * так что к моменту, когда игрок поставил фигуру, следующая обычно уже пришла
+ * и {@link #next()} не ждет ответа сервера.
+ * Пачки приходят в потоке чтения {@link ServerConnection}.
+ */
+public class FigurePrefetcher {
+    /**
+     * Количество фигур в одном запросе.
+     */
+    static final int BATCH_SIZE = 4;
+
+    /**
+     * Сколько фигур держать полученными или запрошенными.
+     * При задержке 150 мс игроку пришлось бы ставить больше 50 фигур в секунду, чтобы очередь опустела.
+     */
+    static final int TARGET_AHEAD = 2 * BATCH_SIZE;
+
+    /**
+     * Метка в очереди: подключение закрыто.
+     */
+    private static final Object CLOSED = new Object();
+
+    private final ServerConnection connection;
+    private final BlockingQueue<Object> ready = new LinkedBlockingQueue<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Размеры отправленных, но еще не полученных пачек (по порядку).
+     */
+    private final ArrayDeque<Integer> pendingBatches = new ArrayDeque<>();
+    private int requestedFigures;
+    /**
+     * Сколько фигур партии выдано игроку через {@link #next()}.
+     */
+    private int takenFigures;
+    /**
+     * Сколько фигур партии игрок уже поставил (сообщается серверу в запросах).
+     */
+    private int placedFigures;
+    /**
+     * Сколько следующих пачек относятся к прошлой партии и должны быть пропущены.
+     */
+    private int staleBatches;
+
+    FigurePrefetcher(ServerConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Следующая фигура. Ждет сервер, только если очередь пуста.
+     *
+     * @throws EOFException если сервер закрыл подключение
+     */
+    public JigsawFigure next() throws IOException {
+        lock.lock();
+        try {
+            // Следующая фигура нужна, когда все выданные раньше уже поставлены.
+            placedFigures = takenFigures;
+        } finally {
+            lock.unlock();
+        }
+        refill();
+        Object figure;
+        try {
+            figure = ready.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (figure == CLOSED) {
+            ready.add(CLOSED);
+            throw new EOFException();
+        }
+        lock.lock();
+        try {
+            takenFigures++;
+        } finally {
+            lock.unlock();
+        }
+        refill();
+        return (JigsawFigure) figure;
+    }
+
+    /**
+     * Сброс перед новой партией (вызывается до отправки begin):
+     * у новой партии своя последовательность фигур, старые больше не нужны.
+     * Ответы на уже отправленные запросы придут раньше ответа на begin и будут пропущены.
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            staleBatches += pendingBatches.size();
+            pendingBatches.clear();
+            requestedFigures = 0;
+            takenFigures = 0;
+            placedFigures = 0;
+            ready.removeIf(figure -> figure != CLOSED);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Запрос новой пачки, если полученных и запрошенных фигур меньше {@link #TARGET_AHEAD}.
+     */
+    private void refill() throws IOException {
+        lock.lock();
+        try {
+            if (ready.size() + requestedFigures < TARGET_AHEAD) {
+                pendingBatches.add(BATCH_SIZE);
+                requestedFigures += BATCH_SIZE;
+                connection.send(new FiguresRequestPackage(BATCH_SIZE, placedFigures));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Пришла пачка фигур (вызывается потоком чтения).
+     */
+    void onBatch(List<JigsawFigure> figures) {
+        lock.lock();
+        try {
+            if (staleBatches > 0) {
+                staleBatches--;
+                return;
+            }
+            Integer requested = pendingBatches.poll();
+            requestedFigures -= requested == null ? 0 : requested;
+            ready.addAll(figures);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Подключение закрыто: ожидающий {@link #next()} получает EOFException.
+     */
+    void onClosed() {
+        ready.add(CLOSED);
+    }
+}
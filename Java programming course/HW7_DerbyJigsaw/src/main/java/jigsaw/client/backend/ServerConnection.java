@@ -0,0 +1,166 @@
+package jigsaw.client.backend;
+
+import jigsaw.packagemodels.EventPackage;
+import jigsaw.packagemodels.FiguresPackage;
+import jigsaw.packagemodels.GeneralPackage;
+import jigsaw.packagemodels.MatchEventPackage;
+import jigsaw.protocol.FramedConnection;
+import jigsaw.protocol.WireProtocol;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Подключение клиента к серверу с отдельным потоком чтения.
+ * <p>
+ * Поток чтения разбирает все сообщения сервера: события партии ({@link EventPackage})
+ * и партии, за которой клиент наблюдает ({@link MatchEventPackage}),
+ * сразу передаются слушателям, пачки фигур - в {@link FigurePrefetcher},
+ * а ответы на остальные запросы складываются в очередь
+ * и забираются методом {@link #receive()}, как раньше из сокета.
+ * Поэтому клиенту больше не нужно раз в секунду спрашивать сервер о выходе партнера.
+ */
+public class ServerConnection implements Closeable {
+    /**
+     * Слушатель событий сервера. Вызывается в потоке чтения.
+     */
+    public interface Listener {
+        void onEvent(EventPackage event);
+
+        /**
+         * Событие партии, за которой клиент наблюдает как зритель.
+         */
+        default void onMatchEvent(MatchEventPackage event) {
+        }
+
+        /**
+         * Сервер закрыл подключение (или упал).
+         * Не вызывается, если подключение закрыл сам клиент.
+         */
+        void onClosed();
+    }
+
+    /**
+     * Метка в очереди ответов: подключение закрыто.
+     */
+    private static final Object CLOSED = new Object();
+
+    private final FramedConnection connection;
+    private final BlockingQueue<Object> responses = new LinkedBlockingQueue<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final FigurePrefetcher figures = new FigurePrefetcher(this);
+    private volatile boolean closedByClient;
+
+    private ServerConnection(FramedConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Подключение к серверу по двоичному протоколу и подписка на события партии.
+     *
+     * @param socket подключенный сокет
+     * @return подключение
+     * @throws IOException в случае ошибки ввода-вывода
+     */
+    public static ServerConnection connect(Socket socket) throws IOException {
+        return connect(socket, WireProtocol.VERSION_BINARY);
+    }
+
+    /**
+     * Подключение к серверу с выбранной версией протокола и подписка на события партии.
+     *
+     * @param socket  подключенный сокет
+     * @param version версия протокола (см. {@link WireProtocol})
+     * @return подключение
+     * @throws IOException в случае ошибки ввода-вывода
+     */
+    public static ServerConnection connect(Socket socket, byte version) throws IOException {
+        ServerConnection serverConnection = new ServerConnection(FramedConnection.connect(socket, version));
+        serverConnection.send(new GeneralPackage("events"));
+        Thread reader = new Thread(serverConnection::readLoop, "server-connection-reader");
+        reader.setDaemon(true);
+        reader.start();
+        return serverConnection;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Очередь заранее запрошенных фигур.
+     */
+    public FigurePrefetcher figures() {
+        return figures;
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                Object message = connection.receive();
+                if (message instanceof EventPackage event) {
+                    listeners.forEach(listener -> listener.onEvent(event));
+                } else if (message instanceof MatchEventPackage matchEvent) {
+                    listeners.forEach(listener -> listener.onMatchEvent(matchEvent));
+                } else if (message instanceof FiguresPackage batch) {
+                    figures.onBatch(batch.figures);
+                } else {
+                    responses.add(message);
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            // Подключение закрыто одной из сторон.
+        } finally {
+            responses.add(CLOSED);
+            figures.onClosed();
+            if (!closedByClient) {
+                listeners.forEach(Listener::onClosed);
+            }
+        }
+    }
+
+    public void send(Object message) throws IOException {
+        connection.send(message);
+    }
+
+    /**
+     * Ожидание следующего ответа сервера.
+     * ClassNotFoundException оставлен в сигнатуре для совместимости с кодом,
+     * написанным под ObjectInputStream.readObject.
+     *
+     * @throws EOFException    если сервер закрыл подключение
+     * @throws SocketException если подключение закрыл сам клиент
+     */
+    public Object receive() throws IOException, ClassNotFoundException {
+        Object message;
+        try {
+            message = responses.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (message == CLOSED) {
+            // Метка возвращается в очередь для следующих вызовов.
+            responses.add(CLOSED);
+            if (closedByClient) {
+                throw new SocketException("Socket closed");
+            }
+            throw new EOFException();
+        }
+        return message;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closedByClient = true;
+        connection.close();
+    }
+}
@@ -1,13 +1,39 @@
 package jigsaw.client.backend.figure;
 
 import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Фигура для игры.
+ * <p>
+ * Фигуры из ТЗ собраны в каталог: у каждой формы постоянный номер (shape id)
+ * и один общий неизменяемый экземпляр ({@link #ofShape(int)}).
+ * По сети передается только номер формы, а на принимающей стороне подставляется экземпляр из каталога.
  */
 public class JigsawFigure implements Serializable {
     public static final int DEFAULT_FIGURE_NUM_CELLS = 3;
 
+    /**
+     * Номер формы у фигуры не из каталога.
+     */
+    public static final int NO_SHAPE = -1;
+
+    /**
+     * Каталог: экземпляр фигуры для каждой формы из {@link JigsawFiguresSeeder}.
+     */
+    private static final JigsawFigure[] CATALOG = new JigsawFigure[JigsawFiguresSeeder.getFigureImagesCount()];
+
+    static {
+        for (int shapeId = 0; shapeId < CATALOG.length; shapeId++) {
+            CATALOG[shapeId] = new JigsawFigure(shapeId);
+        }
+    }
+
+    /**
+     * Номер формы в каталоге или {@link #NO_SHAPE}.
+     */
+    private final int shapeId;
+
     /**
      * Двумерный массив (изображение) - показывает, какие клетки фигура занимает, а какие - нет.
      */
@@ -47,7 +73,68 @@ public class JigsawFigure implements Serializable {
     public JigsawFigure(int verticalSize, int horizontalSize) {
         this.verticalSize = verticalSize;
         this.horizontalSize = horizontalSize;
-        image = JigsawFiguresSeeder.getRandomFigureImage();
+        shapeId = ThreadLocalRandom.current().nextInt(CATALOG.length);
+        image = JigsawFiguresSeeder.getFigureImage(shapeId);
+    }
+
+    /**
+     * Конструктор экземпляра каталога.
+     */
+    private JigsawFigure(int shapeId) {
+        this.verticalSize = DEFAULT_FIGURE_NUM_CELLS;
+        this.horizontalSize = DEFAULT_FIGURE_NUM_CELLS;
+        this.shapeId = shapeId;
+        image = JigsawFiguresSeeder.getFigureImage(shapeId);
+    }
+
+    /**
+     * Фигура из каталога по номеру формы.
+     * @param shapeId номер формы
+     * @return общий экземпляр фигуры
+     * @throws IllegalArgumentException если такой формы нет
+     */
+    public static JigsawFigure ofShape(int shapeId) {
+        if (shapeId < 0 || shapeId >= CATALOG.length) {
+            throw new IllegalArgumentException("JigsawFigure: Нет формы с номером " + shapeId + ".");
+        }
+        return CATALOG[shapeId];
+    }
+
+    /**
+     * Количество форм в каталоге.
+     */
+    public static int getShapesCount() {
+        return CATALOG.length;
+    }
+
+    /**
+     * Получить номер формы в каталоге.
+     * @return Номер формы или {@link #NO_SHAPE}, если фигура не из каталога.
+     */
+    public int getShapeId() {
+        return shapeId;
+    }
+
+    /**
+     * Фигура с номером {@code n} в последовательности, заданной зерном {@code seed}.
+     * Для одинаковых seed и n всегда получается одна и та же фигура.
+     * @param seed зерно последовательности
+     * @param n номер фигуры в последовательности
+     * @return фигура
+     */
+    public static JigsawFigure fromSequence(long seed, long n) {
+        return CATALOG[JigsawFiguresSeeder.getFigureImageIndex(seed, n)];
+    }
+
+    /**
+     * Конструктор - создает фигуру с заданным изображением (например, полученным из сети).
+     * @param image изображение: image[y][x] - занимает ли фигура клетку
+     */
+    public JigsawFigure(boolean[][] image) {
+        this.verticalSize = image.length;
+        this.horizontalSize = image.length == 0 ? 0 : image[0].length;
+        this.shapeId = NO_SHAPE;
+        this.image = image;
     }
 
     /**
@@ -61,4 +148,27 @@ public class JigsawFigure implements Serializable {
     public boolean has(int x, int y) {
         return image[y][x];
     }
+
+    /**
+     * При сериализации фигура из каталога заменяется номером формы.
+     */
+    private Object writeReplace() {
+        return shapeId == NO_SHAPE ? this : new ShapeReference(shapeId);
+    }
+
+    /**
+     * Сериализованная фигура из каталога: только номер формы.
+     * При чтении заменяется общим экземпляром из каталога.
+     */
+    private static class ShapeReference implements Serializable {
+        private final byte shapeId;
+
+        ShapeReference(int shapeId) {
+            this.shapeId = (byte) shapeId;
+        }
+
+        private Object readResolve() {
+            return ofShape(shapeId);
+        }
+    }
 }
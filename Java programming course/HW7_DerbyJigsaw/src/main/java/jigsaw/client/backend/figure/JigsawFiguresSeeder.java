@@ -1,6 +1,6 @@
 package jigsaw.client.backend.figure;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Класс для генерации фигур по ТЗ.
@@ -15,10 +15,46 @@ public class JigsawFiguresSeeder {
      * @return Случайное изображение фигуры из существующих.
      */
     public static boolean[][] getRandomFigureImage() {
-        int randomIndex = new Random().nextInt(figureImages.length);
+        int randomIndex = ThreadLocalRandom.current().nextInt(figureImages.length);
         return figureImages[randomIndex];
     }
 
+    /**
+     * Шаг последовательности SplitMix64 (золотое сечение, как в java.util.SplittableRandom).
+     */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Номер изображения фигуры с номером {@code n} в последовательности, заданной {@code seed}.
+     * <p>
+     * Значение вычисляется сразу по номеру (перемешивание SplitMix64 от seed + (n + 1) * gamma),
+     * без перебора предыдущих: любую фигуру партии можно получить или проверить за O(1),
+     * не храня уже выданные фигуры.
+     *
+     * @param seed зерно последовательности (своё у каждой партии)
+     * @param n    номер фигуры в последовательности (с нуля)
+     * @return номер изображения в [0, {@link #getFigureImagesCount()})
+     */
+    public static int getFigureImageIndex(long seed, long n) {
+        long z = seed + (n + 1) * GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        // Старшие 31 бит, равномерно сведенные к диапазону умножением вместо деления.
+        return (int) (((z >>> 33) * figureImages.length) >>> 31);
+    }
+
+    /**
+     * Изображение фигуры по номеру.
+     */
+    public static boolean[][] getFigureImage(int index) {
+        return figureImages[index];
+    }
+
+    public static int getFigureImagesCount() {
+        return figureImages.length;
+    }
+
     /**
      * Изображения для фигур, описанные в ТЗ.
      */
@@ -23,6 +23,7 @@ import jigsaw.client.backend.board.BoardCell;
 import jigsaw.client.backend.OneVoidMethod;
 import jigsaw.client.backend.board.BoardSkeleton;
 import jigsaw.client.backend.GameStatistics;
+import jigsaw.client.backend.ServerConnection;
 import jigsaw.client.backend.figure.JigsawFigure;
 import jigsaw.packagemodels.*;
 import jigsaw.server.ormmodels.GameStatModel;
@@ -83,17 +84,23 @@ public class MainGameController {
 
     /**
      * Переменная для определения некорректного выхода партнера.
+     * Устанавливается по событию от сервера.
      */
     private boolean isUnexpectedExit;
 
+    /**
+     * Идет ли сейчас игра (таймер запущен, результаты еще не отправлены).
+     */
+    private boolean isGameRunning;
+
     // Переменные для подключения к сокету.
     String serverHost = "localHost";
     int serverPort = 5000;
     Socket socket = null;
-    OutputStream outStream = null;
-    InputStream inStream = null;
-    ObjectInputStream objIn = null;
-    ObjectOutputStream objOut = null;
+    /**
+     * Подключение к серверу; события партии приходят слушателю без опроса.
+     */
+    ServerConnection connection = null;
 
     /**
      * Новый тип кнопки.
@@ -186,8 +193,7 @@ public class MainGameController {
         // Запрос имени и отправка его на сервер.
         askName();
         try {
-            objOut.writeObject(new NamePackage(meLabel.getText()));
-            objOut.flush();
+            connection.send(new NamePackage(meLabel.getText()));
         } catch (SocketException e) {
             // Исключение возникает при падении сервера.
             // А таймер на проверку активности сервера еще не запущен.
@@ -242,10 +248,18 @@ public class MainGameController {
     private void connectSocket() throws IOException {
         try {
             socket = new Socket(serverHost, serverPort);
-            outStream = socket.getOutputStream();
-            inStream = socket.getInputStream();
-            objOut = new ObjectOutputStream(outStream);
-            objIn = new ObjectInputStream(inStream);
+            connection = ServerConnection.connect(socket);
+            connection.addListener(new ServerConnection.Listener() {
+                @Override
+                public void onEvent(EventPackage event) {
+                    Platform.runLater(() -> onServerEvent(event));
+                }
+
+                @Override
+                public void onClosed() {
+                    Platform.runLater(() -> onServerClosed());
+                }
+            });
 
         } catch (UnknownHostException e) {
             System.err.println("Don't know about host: " + serverHost);
@@ -261,9 +275,10 @@ public class MainGameController {
      */
     public void startNewGame() {
         // Сначала на сервер посылается запрос о начале игры.
+        // Фигуры прошлой партии больше не нужны.
+        connection.figures().reset();
         try {
-            objOut.writeObject(new GeneralPackage("begin"));
-            objOut.flush();
+            connection.send(new GeneralPackage("begin"));
         } catch (SocketException e) {
             // Исключение возникает при падении сервера.
             // Так как таймер еще не запущен, нужно самому вызывать сообщение о падении сервера.
@@ -279,7 +294,7 @@ public class MainGameController {
         final String[] opponentName = new String[1];
         new Thread(() -> {
             try {
-                BeginToClientPackage response = ((BeginToClientPackage) objIn.readObject());
+                BeginToClientPackage response = ((BeginToClientPackage) connection.receive());
                 opponentName[0] = response.name;
                 GameStatistics.setMaxSeconds(response.maxSeconds);
             } catch (EOFException e) {
@@ -302,6 +317,8 @@ public class MainGameController {
                 clearMainBoard();
                 getNewFigureFromServer();
                 GameStatistics.setMovesCount(0);
+                isUnexpectedExit = false;
+                isGameRunning = true;
                 timer.start();
                 closeOpponentBeginAlert();
 
@@ -321,12 +338,11 @@ public class MainGameController {
      */
     private void getNewFigureFromServer() {
         try {
-            // Запрос на сервер.
-            objOut.writeObject(new GeneralPackage("figure"));
-            objOut.flush();
+            // Фигура из очереди заранее запрошенных: обычно без ожидания сервера.
+            // Очередь сама дозапрашивает следующие фигуры.
+            currentFigure = connection.figures().next();
             // Постановка полученной фигуры на поле.
             currentFigureBoard.getChildren().clear();
-            currentFigure = (JigsawFigure) objIn.readObject();
             IntStream.range(0, currentFigure.getHorizontalSize()).boxed().forEach(i ->
                     IntStream.range(0, currentFigure.getVerticalSize()).boxed().forEach(j -> {
                         Rectangle cell = new Rectangle(i * CELL_SIZE, j * CELL_SIZE, CELL_SIZE, CELL_SIZE);
@@ -340,8 +356,8 @@ public class MainGameController {
             );
         } catch (EOFException | SocketException ignored) {
             // Исключение возникает при падении сервера
-            // - максимум через секунду активируется соответствующее сообщение.
-        } catch (IOException | ClassNotFoundException e) {
+            // - сообщение о нем показывается по закрытию подключения (onServerClosed).
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
@@ -355,11 +371,8 @@ public class MainGameController {
 
     /**
      * Метод, выполняющийся по прошествии каждой секунды.
-     * Важный метод в задаче с сокетами.
-     * Проверяет каждую секунду:
-     * 1) не закончилось ли время;
-     * 2) доступность сервера;
-     * 3) доступность партнера по игре через сервер;
+     * Проверяет, не закончилось ли время.
+     * Выход партнера и падение сервера приходят событиями (onServerEvent, onServerClosed).
      */
     private void onTimerChange() {
         // Меняет текст на таймере.
@@ -368,25 +381,45 @@ public class MainGameController {
         if (GameStatistics.getElapsedSeconds() >= GameStatistics.getMaxSeconds()) {
             Platform.runLater(this::onEndGameButtonClick);
         }
-        // Запрос к сокету, не случилось ли преждевременного выхода из игры другого игрока?
-        try {
-            objOut.writeObject(new GeneralPackage("is unexpected exit"));
-            objOut.flush();
-            isUnexpectedExit = ((BoolPackage) objIn.readObject()).value;
-            if (isUnexpectedExit) {
-                Platform.runLater(this::onEndGameButtonClick);
+    }
+
+    /**
+     * Событие партии от сервера (выполняется в потоке JavaFX).
+     *
+     * @param event событие
+     */
+    private void onServerEvent(EventPackage event) {
+        if (!isGameRunning) {
+            return;
+        }
+        switch (event.event) {
+            // Партнер некорректно вышел - игра сразу завершается.
+            case EventPackage.OPPONENT_LEFT -> {
+                isUnexpectedExit = true;
+                onEndGameButtonClick();
             }
-        } catch (SocketException se) {
-            // Ошибка "Connection reset by peer" - прекращение работы сервера.
-            // Или ошибка "Программа на вашем хост-компьютере разорвала установленное подключение".
-            timer.stop();
-            // В этом случае игра завершается.
-            Platform.runLater(this::showServerDownAlert);
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+            case EventPackage.OPPONENT_FINISHED -> opponentLabel.setText(opponentLabel.getText() + " (finished)");
+            // Сервер завершил партию по своим часам (например, таймер клиента отстал).
+            case EventPackage.TIME_IS_UP -> onEndGameButtonClick();
         }
     }
 
+    /**
+     * Сервер закрыл подключение (выполняется в потоке JavaFX).
+     */
+    private void onServerClosed() {
+        if (!isGameRunning) {
+            // Вне игры падение сервера обнаруживается при следующем запросе.
+            return;
+        }
+        // Ошибка "Connection reset by peer" - прекращение работы сервера.
+        // Или ошибка "Программа на вашем хост-компьютере разорвала установленное подключение".
+        isGameRunning = false;
+        timer.stop();
+        // В этом случае игра завершается.
+        showServerDownAlert();
+    }
+
     /**
      * Инициализация таймера.
      *
@@ -542,12 +575,16 @@ public class MainGameController {
      */
     @FXML
     protected void onEndGameButtonClick() {
+        // Метод может быть вызван повторно (время вышло и партнер вышел одновременно).
+        if (!isGameRunning) {
+            return;
+        }
+        isGameRunning = false;
         // Первая часть метода: передача финальных данных игры на сервер.
         timer.stop();
         try {
-            objOut.writeObject(new GameStatPackage(GameStatistics.getMovesCount(),
+            connection.send(new GameStatPackage(GameStatistics.getMovesCount(),
                     GameStatistics.getElapsedSeconds(), GameStatistics.getGmtCurrentTimestamp()));
-            objOut.flush();
         } catch (SocketException e) {
             // Исключение возникает при падении сервера.
             // Так как таймер уже остановлен, нужно самому вызывать сообщение о падении сервера.
@@ -564,7 +601,7 @@ public class MainGameController {
         Platform.runLater(() -> {
             String wonOrLose = null;
             try {
-                wonOrLose = ((WonLosePackage) objIn.readObject()).value;
+                wonOrLose = ((WonLosePackage) connection.receive()).value;
                 if (!isUnexpectedExit) {
                     closeOpponentEndAlert();
                 }
@@ -651,9 +688,8 @@ public class MainGameController {
         int rowIndex = 0;
         // Сообщение серверу, чтобы получить ТОП 10 игр.
         try {
-            objOut.writeObject(new GeneralPackage("top"));
-            objOut.flush();
-            List<GameStatModel> games = ((TopGamesPackage) objIn.readObject()).topGames;
+            connection.send(new GeneralPackage("top"));
+            List<GameStatModel> games = ((TopGamesPackage) connection.receive()).topGames;
 
             grid.addRow(rowIndex++, new Label(""), new Label("login"), new Label("moves_done"),
                     new Label("game_length(s.)"), new Label("end_time(UTC+0)"));
@@ -700,8 +736,7 @@ public class MainGameController {
         }
         // Отправляет на сокет сообщение о корректном завершении игры.
         try {
-            objOut.writeObject(new GeneralPackage("exit"));
-            objOut.flush();
+            connection.send(new GeneralPackage("exit"));
         } catch (SocketException ignored) {
             // Если сервер упал, появляется исключение SocketException, посылать сообщение не нужно.
             Platform.exit();
@@ -715,10 +750,7 @@ public class MainGameController {
      */
     public void disposeOnClose() {
         try {
-            outStream.close();
-            inStream.close();
-            objIn.close();
-            objOut.close();
+            connection.close();
             socket.close();
         } catch (SocketException e) {
             if (!e.getMessage().contains("Socket closed")) {
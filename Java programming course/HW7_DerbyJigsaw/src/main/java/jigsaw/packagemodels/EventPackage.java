@@ -0,0 +1,30 @@
+package jigsaw.packagemodels;
+
+import java.io.Serializable;
+
+/**
+ * Данные для отправки через сокет.
+ * Момент: событие партии, которое сервер отправляет сам, без запроса клиента.
+ * Отправляется только клиентам, подписавшимся сообщением "events".
+ */
+public class EventPackage extends GeneralPackage implements Serializable {
+    /**
+     * Партнер некорректно вышел из игры.
+     */
+    public static final String OPPONENT_LEFT = "opponent left";
+    /**
+     * Партнер закончил игру и ждет результата.
+     */
+    public static final String OPPONENT_FINISHED = "opponent finished";
+    /**
+     * Время партии истекло по часам сервера: клиент должен завершить игру.
+     */
+    public static final String TIME_IS_UP = "time is up";
+
+    public String event;
+
+    public EventPackage(String event) {
+        type = "event";
+        this.event = event;
+    }
+}
@@ -0,0 +1,19 @@
+package jigsaw.packagemodels;
+
+import jigsaw.client.backend.figure.JigsawFigure;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Данные для отправки через сокет.
+ * Момент: ответ сервера на {@link FiguresRequestPackage} - следующие фигуры партии по порядку.
+ */
+public class FiguresPackage extends GeneralPackage implements Serializable {
+    public List<JigsawFigure> figures;
+
+    public FiguresPackage(List<JigsawFigure> figures) {
+        type = "figures";
+        this.figures = figures;
+    }
+}
@@ -0,0 +1,24 @@
+package jigsaw.packagemodels;
+
+import java.io.Serializable;
+
+/**
+ * Данные для отправки через сокет.
+ * Момент: во время игры клиент заранее запрашивает у сервера сразу несколько следующих фигур.
+ * Заодно клиент сообщает, сколько фигур партии игрок уже поставил:
+ * выданных фигур из-за предзапроса больше, чем поставленных.
+ */
+public class FiguresRequestPackage extends GeneralPackage implements Serializable {
+    public int count;
+    public int placed;
+
+    public FiguresRequestPackage(int count) {
+        this(count, 0);
+    }
+
+    public FiguresRequestPackage(int count, int placed) {
+        type = "figures";
+        this.count = count;
+        this.placed = placed;
+    }
+}
@@ -0,0 +1,53 @@
+package jigsaw.packagemodels;
+
+import java.io.Serializable;
+
+/**
+ * Данные для отправки через сокет.
+ * Момент: событие партии для зрителя (см. {@link SpectatePackage})
+ * или место игрока в его собственной партии ({@link #RANK}, {@link #FINAL_RANK}).
+ */
+public class MatchEventPackage extends GeneralPackage implements Serializable {
+    /**
+     * Игрок партии; value - сколько фигур он уже получил. Приходит сразу после подписки.
+     */
+    public static final String PLAYER = "player";
+    /**
+     * Игрок получил очередную фигуру; value - сколько фигур он уже получил.
+     * Сервер может пропускать такие события для медленного зрителя: важно только последнее.
+     */
+    public static final String FIGURE = "figure";
+    /**
+     * Игрок закончил игру; value - количество поставленных фигур.
+     */
+    public static final String FINISHED = "finished";
+    /**
+     * Партия завершена; player - победитель (пустая строка, если партнер вышел из игры).
+     */
+    public static final String RESULT = "result";
+    /**
+     * Запрошенной партии нет (не началась или уже завершена).
+     */
+    public static final String NOT_FOUND = "not found";
+    /**
+     * Игроку: его место среди уже приславших результат (value, с 1). Может измениться.
+     */
+    public static final String RANK = "rank";
+    /**
+     * Игроку: окончательное место в завершенной партии (value, с 1).
+     */
+    public static final String FINAL_RANK = "final rank";
+
+    public long matchId;
+    public String kind;
+    public String player;
+    public int value;
+
+    public MatchEventPackage(long matchId, String kind, String player, int value) {
+        type = "match event";
+        this.matchId = matchId;
+        this.kind = kind;
+        this.player = player;
+        this.value = value;
+    }
+}
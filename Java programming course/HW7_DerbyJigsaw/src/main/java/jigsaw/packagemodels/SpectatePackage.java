@@ -0,0 +1,22 @@
+package jigsaw.packagemodels;
+
+import java.io.Serializable;
+
+/**
+ * Данные для отправки через сокет.
+ * Момент: клиент хочет наблюдать за идущей партией (не играя в ней).
+ * В ответ сервер присылает {@link MatchEventPackage}: сначала состояние партии, затем ее события.
+ */
+public class SpectatePackage extends GeneralPackage implements Serializable {
+    /**
+     * Любая идущая партия (сервер выберет ту, за которой наблюдает больше всего зрителей).
+     */
+    public static final long ANY_MATCH = 0;
+
+    public long matchId;
+
+    public SpectatePackage(long matchId) {
+        type = "spectate";
+        this.matchId = matchId;
+    }
+}
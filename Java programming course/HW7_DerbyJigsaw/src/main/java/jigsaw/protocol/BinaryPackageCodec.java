@@ -0,0 +1,289 @@
+package jigsaw.protocol;
+
+import jigsaw.client.backend.figure.JigsawFigure;
+import jigsaw.packagemodels.*;
+import jigsaw.server.ormmodels.GameStatModel;
+
+import java.io.*;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Кодек версии {@link WireProtocol#VERSION_BINARY}: сообщения кодируются вручную.
+ * <p>
+ * Первый байт кадра - код сообщения, далее только значения полей:
+ * без описаний классов, без рефлексии и без таблицы ссылок.
+ * Команды без данных (begin, figure, top...) занимают два байта,
+ * фигура из каталога - тоже два (код и номер формы, см. {@link JigsawFigure#ofShape(int)}).
+ */
+public class BinaryPackageCodec implements PackageCodec {
+    // Коды сообщений (первый байт кадра).
+    static final byte OP_COMMAND = 1;
+    static final byte OP_CUSTOM_COMMAND = 2;
+    static final byte OP_NAME = 3;
+    static final byte OP_GAME_STAT = 4;
+    static final byte OP_BEGIN_TO_CLIENT = 5;
+    static final byte OP_WON_LOSE = 6;
+    static final byte OP_BOOL = 7;
+    static final byte OP_TOP_GAMES = 8;
+    static final byte OP_FIGURE = 9;
+    static final byte OP_EVENT = 10;
+    static final byte OP_FIGURES_REQUEST = 11;
+    static final byte OP_FIGURES = 12;
+    static final byte OP_SHAPE = 13;
+    static final byte OP_SPECTATE = 14;
+    static final byte OP_MATCH_EVENT = 15;
+
+    /**
+     * Номер формы в пачке фигур, после которого идет изображение фигуры не из каталога.
+     */
+    private static final int NO_SHAPE_MARK = 0xFF;
+
+    /**
+     * Команды клиента без данных: в кадре передается номер команды в этом массиве.
+     * Новые команды добавляются только в конец.
+     */
+    private static final String[] COMMANDS = {"begin", "figure", "top", "exit", "events", "is unexpected exit"};
+
+    /**
+     * События сервера: в кадре передается номер события в этом массиве.
+     */
+    private static final String[] EVENTS = {EventPackage.OPPONENT_LEFT, EventPackage.OPPONENT_FINISHED,
+            EventPackage.TIME_IS_UP};
+
+    /**
+     * Виды событий для зрителей: в кадре передается номер вида в этом массиве.
+     */
+    private static final String[] MATCH_EVENTS = {MatchEventPackage.PLAYER, MatchEventPackage.FIGURE,
+            MatchEventPackage.FINISHED, MatchEventPackage.RESULT, MatchEventPackage.NOT_FOUND,
+            MatchEventPackage.RANK, MatchEventPackage.FINAL_RANK};
+
+    @Override
+    public byte[] encode(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (message instanceof JigsawFigure figure) {
+            if (figure.getShapeId() != JigsawFigure.NO_SHAPE) {
+                out.writeByte(OP_SHAPE);
+                out.writeByte(figure.getShapeId());
+            } else {
+                out.writeByte(OP_FIGURE);
+                writeFigure(out, figure);
+            }
+        } else if (message instanceof NamePackage name) {
+            out.writeByte(OP_NAME);
+            out.writeUTF(name.name == null ? "" : name.name);
+        } else if (message instanceof GameStatPackage stat) {
+            out.writeByte(OP_GAME_STAT);
+            out.writeInt(stat.numberOfFigures);
+            out.writeLong(stat.elapsedSeconds);
+            writeTimestamp(out, stat.endTime);
+        } else if (message instanceof BeginToClientPackage begin) {
+            out.writeByte(OP_BEGIN_TO_CLIENT);
+            // Имя партнера без name - пустая строка, как и в событиях партии.
+            out.writeUTF(begin.name == null ? "" : begin.name);
+            out.writeLong(begin.maxSeconds);
+        } else if (message instanceof WonLosePackage wonLose) {
+            out.writeByte(OP_WON_LOSE);
+            out.writeBoolean("WON".equals(wonLose.value));
+        } else if (message instanceof BoolPackage bool) {
+            out.writeByte(OP_BOOL);
+            out.writeBoolean(bool.value);
+        } else if (message instanceof TopGamesPackage top) {
+            out.writeByte(OP_TOP_GAMES);
+            writeTopGames(out, top.topGames);
+        } else if (message instanceof FiguresRequestPackage request) {
+            out.writeByte(OP_FIGURES_REQUEST);
+            out.writeShort(request.count);
+            out.writeInt(request.placed);
+        } else if (message instanceof FiguresPackage batch) {
+            out.writeByte(OP_FIGURES);
+            out.writeShort(batch.figures.size());
+            for (JigsawFigure figure : batch.figures) {
+                if (figure.getShapeId() != JigsawFigure.NO_SHAPE) {
+                    out.writeByte(figure.getShapeId());
+                } else {
+                    out.writeByte(NO_SHAPE_MARK);
+                    writeFigure(out, figure);
+                }
+            }
+        } else if (message instanceof SpectatePackage spectate) {
+            out.writeByte(OP_SPECTATE);
+            out.writeLong(spectate.matchId);
+        } else if (message instanceof MatchEventPackage event) {
+            out.writeByte(OP_MATCH_EVENT);
+            out.writeLong(event.matchId);
+            out.writeByte(indexOf(MATCH_EVENTS, event.kind, "событие партии"));
+            out.writeUTF(event.player == null ? "" : event.player);
+            out.writeInt(event.value);
+        } else if (message instanceof EventPackage event) {
+            out.writeByte(OP_EVENT);
+            out.writeByte(indexOf(EVENTS, event.event, "событие"));
+        } else if (message != null && message.getClass() == GeneralPackage.class) {
+            String type = ((GeneralPackage) message).type;
+            int command = indexOf(COMMANDS, type);
+            if (command >= 0) {
+                out.writeByte(OP_COMMAND);
+                out.writeByte(command);
+            } else {
+                out.writeByte(OP_CUSTOM_COMMAND);
+                out.writeUTF(type);
+            }
+        } else {
+            throw new IOException("BinaryPackageCodec: Сообщение "
+                    + (message == null ? null : message.getClass().getName()) + " не поддерживается.");
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] frame, int offset, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame, offset, length));
+        try {
+            byte opcode = in.readByte();
+            return switch (opcode) {
+                case OP_COMMAND -> new GeneralPackage(fromTable(COMMANDS, in.readUnsignedByte()));
+                case OP_CUSTOM_COMMAND -> new GeneralPackage(in.readUTF());
+                case OP_NAME -> new NamePackage(in.readUTF());
+                case OP_GAME_STAT -> new GameStatPackage(in.readInt(), in.readLong(), readTimestamp(in));
+                case OP_BEGIN_TO_CLIENT -> new BeginToClientPackage(in.readUTF(), in.readLong());
+                case OP_WON_LOSE -> new WonLosePackage(in.readBoolean() ? "WON" : "LOSE");
+                case OP_BOOL -> new BoolPackage(in.readBoolean());
+                case OP_TOP_GAMES -> new TopGamesPackage(readTopGames(in));
+                case OP_FIGURE -> readFigure(in);
+                case OP_SHAPE -> readShape(in.readUnsignedByte());
+                case OP_EVENT -> new EventPackage(fromTable(EVENTS, in.readUnsignedByte()));
+                case OP_FIGURES_REQUEST -> new FiguresRequestPackage(in.readUnsignedShort(), in.readInt());
+                case OP_FIGURES -> new FiguresPackage(readFigures(in));
+                case OP_SPECTATE -> new SpectatePackage(in.readLong());
+                case OP_MATCH_EVENT -> new MatchEventPackage(in.readLong(),
+                        fromTable(MATCH_EVENTS, in.readUnsignedByte()), in.readUTF(), in.readInt());
+                default -> throw new IOException("BinaryPackageCodec: Неизвестный код сообщения " + opcode + ".");
+            };
+        } catch (EOFException e) {
+            throw new IOException("BinaryPackageCodec: Кадр короче, чем нужно для сообщения.", e);
+        }
+    }
+
+    private static int indexOf(String[] table, String value) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(String[] table, String value, String what) throws IOException {
+        int index = indexOf(table, value);
+        if (index < 0) {
+            throw new IOException("BinaryPackageCodec: Неизвестное " + what + " " + value + ".");
+        }
+        return index;
+    }
+
+    private static String fromTable(String[] table, int index) throws IOException {
+        if (index >= table.length) {
+            throw new IOException("BinaryPackageCodec: Неизвестный номер " + index + ".");
+        }
+        return table[index];
+    }
+
+    /**
+     * Фигура: размеры (по байту) и изображение по битам, строка за строкой.
+     */
+    private static void writeFigure(DataOutputStream out, JigsawFigure figure) throws IOException {
+        int vertical = figure.getVerticalSize();
+        int horizontal = figure.getHorizontalSize();
+        out.writeByte(vertical);
+        out.writeByte(horizontal);
+        byte[] bits = new byte[(vertical * horizontal + 7) / 8];
+        for (int y = 0; y < vertical; y++) {
+            for (int x = 0; x < horizontal; x++) {
+                if (figure.has(x, y)) {
+                    int bit = y * horizontal + x;
+                    bits[bit / 8] |= 1 << (bit % 8);
+                }
+            }
+        }
+        out.write(bits);
+    }
+
+    private static JigsawFigure readFigure(DataInputStream in) throws IOException {
+        int vertical = in.readUnsignedByte();
+        int horizontal = in.readUnsignedByte();
+        byte[] bits = new byte[(vertical * horizontal + 7) / 8];
+        in.readFully(bits);
+        boolean[][] image = new boolean[vertical][horizontal];
+        for (int y = 0; y < vertical; y++) {
+            for (int x = 0; x < horizontal; x++) {
+                int bit = y * horizontal + x;
+                image[y][x] = (bits[bit / 8] & (1 << (bit % 8))) != 0;
+            }
+        }
+        return new JigsawFigure(image);
+    }
+
+    private static JigsawFigure readShape(int shapeId) throws IOException {
+        if (shapeId >= JigsawFigure.getShapesCount()) {
+            throw new IOException("BinaryPackageCodec: Неизвестная форма фигуры " + shapeId + ".");
+        }
+        return JigsawFigure.ofShape(shapeId);
+    }
+
+    private static List<JigsawFigure> readFigures(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        List<JigsawFigure> figures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int shapeId = in.readUnsignedByte();
+            figures.add(shapeId == NO_SHAPE_MARK ? readFigure(in) : readShape(shapeId));
+        }
+        return figures;
+    }
+
+    /**
+     * Момент времени: миллисекунды и наносекунды (Timestamp хранит их отдельно).
+     * Отрицательное число наносекунд означает null.
+     */
+    private static void writeTimestamp(DataOutputStream out, Timestamp timestamp) throws IOException {
+        if (timestamp == null) {
+            out.writeLong(0);
+            out.writeInt(-1);
+            return;
+        }
+        out.writeLong(timestamp.getTime());
+        out.writeInt(timestamp.getNanos());
+    }
+
+    private static Timestamp readTimestamp(DataInputStream in) throws IOException {
+        long millis = in.readLong();
+        int nanos = in.readInt();
+        if (nanos < 0) {
+            return null;
+        }
+        Timestamp timestamp = new Timestamp(millis);
+        timestamp.setNanos(nanos);
+        return timestamp;
+    }
+
+    private static void writeTopGames(DataOutputStream out, List<GameStatModel> games) throws IOException {
+        out.writeShort(games.size());
+        for (GameStatModel game : games) {
+            out.writeUTF(game.login);
+            writeTimestamp(out, game.endTime);
+            out.writeInt(game.movesDone);
+            out.writeLong(game.gameLength);
+        }
+    }
+
+    private static List<GameStatModel> readTopGames(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        List<GameStatModel> games = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            games.add(new GameStatModel(in.readUTF(), readTimestamp(in), in.readInt(), in.readLong()));
+        }
+        return games;
+    }
+}
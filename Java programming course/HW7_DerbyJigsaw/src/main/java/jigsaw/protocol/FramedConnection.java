@@ -0,0 +1,155 @@
+package jigsaw.protocol;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Блокирующее соединение с кадрами поверх обычного сокета.
+ * Используется клиентом и блокирующим сервером.
+ */
+public class FramedConnection implements Closeable {
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final PackageCodec codec;
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    /**
+     * @param in    поток ввода (приветствие уже прочитано)
+     * @param out   поток вывода
+     * @param codec кодек версии протокола
+     */
+    public FramedConnection(InputStream in, OutputStream out, PackageCodec codec) {
+        this.in = new DataInputStream(in);
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.codec = codec;
+    }
+
+    /**
+     * Подключение со стороны клиента: отправляет приветствие с версией протокола.
+     *
+     * @param socket  подключенный сокет
+     * @param version версия протокола
+     * @return соединение
+     * @throws IOException в случае ошибки ввода-вывода
+     */
+    public static FramedConnection connect(Socket socket, byte version) throws IOException {
+        PackageCodec codec = WireProtocol.codecFor(version);
+        if (codec == null) {
+            throw new IOException("FramedConnection: Неизвестная версия протокола " + version + ".");
+        }
+        FramedConnection connection = new FramedConnection(
+                new BufferedInputStream(socket.getInputStream()), socket.getOutputStream(), codec);
+        WireProtocol.writeHello(connection.out, version);
+        return connection;
+    }
+
+    /**
+     * Отправка одного сообщения одним кадром.
+     */
+    public void send(Object message) throws IOException {
+        byte[] payload = codec.encode(message);
+        // ReentrantLock, а не synchronized: не закрепляет виртуальный поток за носителем.
+        sendLock.lock();
+        try {
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Запись кадра в буфер без отправки: несколько сообщений уходят одной записью при {@link #flush()}.
+     * Отправка из другого потока (через {@link #send(Object)}) заодно отправит и накопленное.
+     */
+    public void sendWithoutFlush(Object message) throws IOException {
+        byte[] payload = codec.encode(message);
+        sendLock.lock();
+        try {
+            out.writeInt(payload.length);
+            out.write(payload);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Отправка накопленных кадров.
+     */
+    public void flush() throws IOException {
+        sendLock.lock();
+        try {
+            out.flush();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Кодирование кадра целиком (длина и содержимое) для отправки позже,
+     * через {@link #sendEncoded(byte[])} или {@link #sendEncodedWithoutFlush(byte[])}.
+     */
+    public byte[] encode(Object message) throws IOException {
+        byte[] payload = codec.encode(message);
+        return ByteBuffer.allocate(Integer.BYTES + payload.length).putInt(payload.length).put(payload).array();
+    }
+
+    /**
+     * Запись уже закодированного кадра в буфер без отправки (см. {@link #flush()}).
+     */
+    public void sendEncodedWithoutFlush(byte[] frame) throws IOException {
+        sendLock.lock();
+        try {
+            out.write(frame);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Отправка уже закодированного кадра (длина и содержимое), например общего для многих получателей.
+     */
+    public void sendEncoded(byte[] frame) throws IOException {
+        sendLock.lock();
+        try {
+            out.write(frame);
+            out.flush();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Чтение следующего сообщения.
+     * ClassNotFoundException оставлен в сигнатуре для совместимости с кодом,
+     * написанным под ObjectInputStream.readObject.
+     *
+     * @throws EOFException если соединение закрыто другой стороной
+     */
+    public Object receive() throws IOException, ClassNotFoundException {
+        int length = in.readInt();
+        WireProtocol.checkFrameLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return codec.decode(payload, 0, length);
+    }
+
+    /**
+     * Есть ли уже пришедшие, но не прочитанные байты.
+     */
+    public boolean hasPendingInput() throws IOException {
+        return in.available() > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package jigsaw.protocol;
+
+import java.io.IOException;
+
+/**
+ * Кодирование одного сообщения (пакета или фигуры) в содержимое кадра и обратно.
+ */
+public interface PackageCodec {
+    /**
+     * Кодирует сообщение в байты содержимого кадра (без длины).
+     *
+     * @param message сообщение
+     * @return содержимое кадра
+     * @throws IOException если сообщение нельзя закодировать
+     */
+    byte[] encode(Object message) throws IOException;
+
+    /**
+     * Декодирует сообщение из содержимого кадра.
+     *
+     * @param frame  массив, в котором лежит кадр
+     * @param offset начало содержимого кадра
+     * @param length длина содержимого кадра
+     * @return сообщение
+     * @throws IOException если кадр испорчен
+     */
+    Object decode(byte[] frame, int offset, int length) throws IOException;
+}
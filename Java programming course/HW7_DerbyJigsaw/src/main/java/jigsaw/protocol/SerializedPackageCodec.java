@@ -0,0 +1,28 @@
+package jigsaw.protocol;
+
+import java.io.*;
+
+/**
+ * Кодек версии {@link WireProtocol#VERSION_SERIALIZED}: каждое сообщение сериализуется отдельно.
+ * В отличие от одного ObjectOutputStream на все соединение,
+ * таблица ссылок не растет с каждым отправленным объектом.
+ */
+public class SerializedPackageCodec implements PackageCodec {
+    @Override
+    public byte[] encode(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] frame, int offset, int length) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(frame, offset, length))) {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("SerializedPackageCodec: Неизвестный класс сообщения.", e);
+        }
+    }
+}
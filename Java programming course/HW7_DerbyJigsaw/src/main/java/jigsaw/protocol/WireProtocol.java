@@ -0,0 +1,90 @@
+package jigsaw.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Константы протокола с кадрами (frames).
+ * <p>
+ * Подключение начинается с приветствия клиента: 4 байта MAGIC и 1 байт версии.
+ * Далее в обе стороны идут кадры: длина (int) и содержимое, закодированное {@link PackageCodec}.
+ * Старые клиенты без приветствия сразу начинают поток ObjectOutputStream (первые байты 0xACED).
+ */
+public class WireProtocol {
+    /**
+     * "JIGS" - первые байты приветствия.
+     */
+    public static final int MAGIC = 0x4A494753;
+
+    /**
+     * Первые два байта потока ObjectOutputStream.
+     * По ним сервер узнает старых клиентов, подключающихся без приветствия.
+     */
+    public static final int JAVA_STREAM_MAGIC = 0xACED;
+
+    /**
+     * Версия: каждый кадр - отдельно сериализованный объект (Java serialization).
+     */
+    public static final byte VERSION_SERIALIZED = 1;
+
+    /**
+     * Версия: первый байт кадра - код сообщения, далее поля в двоичном виде (см. {@link BinaryPackageCodec}).
+     */
+    public static final byte VERSION_BINARY = 2;
+
+    /**
+     * Длина приветствия в байтах.
+     */
+    public static final int HELLO_LENGTH = 5;
+
+    /**
+     * Максимальная длина одного кадра. Кадр длиннее - признак испорченного потока.
+     */
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    /**
+     * Кодек для версии протокола.
+     *
+     * @param version версия из приветствия
+     * @return кодек или null, если версия не поддерживается
+     */
+    public static PackageCodec codecFor(byte version) {
+        return switch (version) {
+            case VERSION_SERIALIZED -> new SerializedPackageCodec();
+            case VERSION_BINARY -> new BinaryPackageCodec();
+            default -> null;
+        };
+    }
+
+    /**
+     * Запись приветствия клиента.
+     */
+    public static void writeHello(DataOutputStream out, byte version) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(version);
+        out.flush();
+    }
+
+    /**
+     * Чтение приветствия клиента.
+     *
+     * @return версия протокола
+     * @throws IOException если приветствие некорректно
+     */
+    public static byte readHello(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("WireProtocol: Некорректное приветствие клиента.");
+        }
+        return in.readByte();
+    }
+
+    /**
+     * Проверка длины кадра.
+     */
+    public static void checkFrameLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("WireProtocol: Некорректная длина кадра " + length + ".");
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package jigsaw.router;
+
+import jigsaw.server.log.ServerLog;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Входной маршрутизатор: принимает подключения клиентов и распределяет их
+ * по нескольким процессам {@code MultithreadedGameServer}.
+ * <p>
+ * Игровые серверы сами подключаются к управляющему порту маршрутизатора (параметр router=host:port сервера)
+ * и раз в секунду присылают строку {@code LOAD <порт для клиентов> <клиентов> <партий>}.
+ * Сервер, закрывший управляющее подключение, больше не получает клиентов.
+ * <p>
+ * Партии набираются на каждом сервере отдельно, поэтому клиенты направляются группами
+ * по playersPerMatch подряд на один сервер - так каждая новая партия целиком попадает на один процесс.
+ * Для новой группы выбирается наименее нагруженный сервер.
+ * <p>
+ * Маршрутизатор не разбирает протокол и считает, что каждое подключение - игрок, который начнет партию.
+ * Клиент, отключившийся, пока его группа еще текущая (следующая группа не начата), возвращает свое место:
+ * следующий клиент попадет на тот же сервер. Зритель (spectate) остается подключенным и занимает место в группе,
+ * поэтому после него группы сдвигаются на одно подключение - партнеры ближайшей партии дождутся
+ * следующих игроков на своих серверах.
+ * Байты клиента пересылаются как есть, протокол маршрутизатору не важен.
+ * Пересылкой занимаются несколько потоков с Selector-ом ({@link ProxyLoop}), а не потоки на каждого клиента.
+ * Общие данные (таблица лучших игр) хранятся в БД, см. {@code DbConnUtils}.
+ * <p>
+ * Запуск: {@code java -cp server.jar jigsaw.router.FrontRouter port=5000 controlPort=5100 playersPerMatch=2 proxyLoops=2},
+ * серверы: {@code java -jar server.jar port=5001 router=localhost:5100 ...}.
+ */
+public class FrontRouter implements Closeable {
+    static final String LOG_SOURCE = "FrontRouter";
+
+    private final int port;
+    private final int controlPort;
+    private final int playersPerMatch;
+    private final ProxyLoop[] proxyLoops;
+    private int nextProxyLoop;
+    private ServerSocketChannel clientChannel;
+    private ServerSocket controlSocket;
+
+    private final Map<InetSocketAddress, WorkerInfo> workers = new ConcurrentHashMap<>();
+
+    /**
+     * Сервер, выбранный для клиента, и номер группы, в которую клиент попал.
+     */
+    record Placement(WorkerInfo worker, long group) {
+    }
+
+    // Текущая группа клиентов (будущая партия), ее номер и сервер.
+    private final ReentrantLock placementLock = new ReentrantLock();
+    private WorkerInfo groupWorker;
+    private int groupRemaining;
+    private long group;
+
+    public FrontRouter(int port, int controlPort, int playersPerMatch) throws IOException {
+        this(port, controlPort, playersPerMatch, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param proxyLoops число потоков пересылки
+     */
+    public FrontRouter(int port, int controlPort, int playersPerMatch, int proxyLoops) throws IOException {
+        this.port = port;
+        this.controlPort = controlPort;
+        this.playersPerMatch = playersPerMatch;
+        this.proxyLoops = new ProxyLoop[Math.max(1, proxyLoops)];
+        for (int i = 0; i < this.proxyLoops.length; i++) {
+            this.proxyLoops[i] = new ProxyLoop();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = 5000;
+        int controlPort = 5100;
+        int playersPerMatch = 2;
+        int proxyLoops = Runtime.getRuntime().availableProcessors();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            String key = separator == -1 ? arg : arg.substring(0, separator);
+            String value = arg.substring(separator + 1);
+            try {
+                switch (key) {
+                    case "port" -> port = Integer.parseInt(value);
+                    case "controlPort" -> controlPort = Integer.parseInt(value);
+                    case "playersPerMatch" -> playersPerMatch = Integer.parseInt(value);
+                    case "proxyLoops" -> proxyLoops = Integer.parseInt(value);
+                    default -> {
+                        System.out.println("FrontRouter: Неизвестный параметр " + arg + ".");
+                        return;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("FrontRouter: Параметр " + key + " должен быть числом.");
+                return;
+            }
+        }
+        try (FrontRouter router = new FrontRouter(port, controlPort, playersPerMatch, proxyLoops)) {
+            router.start();
+            System.out.println("FrontRouter: Введите \"stop\" для остановки, \"workers\" для списка серверов.");
+            Scanner in = new Scanner(System.in);
+            String input;
+            do {
+                input = in.nextLine();
+                if (input.equals("workers")) {
+                    router.workers.values().forEach(System.out::println);
+                }
+            } while (!input.equals("stop"));
+        }
+    }
+
+    /**
+     * Открытие портов и запуск потоков приема.
+     *
+     * @throws IOException если порт нельзя открыть
+     */
+    public void start() throws IOException {
+        controlSocket = new ServerSocket(controlPort);
+        clientChannel = ServerSocketChannel.open().bind(new InetSocketAddress(port));
+        for (int i = 0; i < proxyLoops.length; i++) {
+            startDaemon(proxyLoops[i], "router-proxy-" + i);
+        }
+        startDaemon(this::acceptWorkers, "router-control");
+        startDaemon(this::acceptClients, "router-clients");
+        System.out.println("FrontRouter: Клиенты - порт " + getPort() + ", серверы - порт " + getControlPort() + ".");
+    }
+
+    public int getPort() {
+        return clientChannel.socket().getLocalPort();
+    }
+
+    public int getControlPort() {
+        return controlSocket.getLocalPort();
+    }
+
+    /**
+     * Серверы, приславшие отчет о нагрузке и не отключившиеся.
+     */
+    public List<InetSocketAddress> getWorkers() {
+        return new ArrayList<>(workers.keySet());
+    }
+
+    private static Thread startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void acceptWorkers() {
+        try {
+            while (true) {
+                Socket worker = controlSocket.accept();
+                startDaemon(() -> readReports(worker), "router-worker-" + worker.getRemoteSocketAddress());
+            }
+        } catch (IOException e) {
+            // Порт закрыт из close().
+        }
+    }
+
+    /**
+     * Чтение отчетов одного сервера, пока он не отключится.
+     */
+    private void readReports(Socket control) {
+        WorkerInfo worker = null;
+        try (control; BufferedReader in = new BufferedReader(
+                new InputStreamReader(control.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length != 4 || !parts[0].equals("LOAD")) {
+                    ServerLog.get().warn(LOG_SOURCE, "Некорректный отчет сервера: {}", line);
+                    return;
+                }
+                int clients = Integer.parseInt(parts[2]);
+                int matches = Integer.parseInt(parts[3]);
+                if (worker == null) {
+                    InetSocketAddress address = new InetSocketAddress(control.getInetAddress(), Integer.parseInt(parts[1]));
+                    worker = new WorkerInfo(address);
+                    // Сервер получает клиентов только с уже известной нагрузкой.
+                    worker.report(clients, matches);
+                    workers.put(address, worker);
+                    ServerLog.get().info(LOG_SOURCE, "Подключен сервер {}.", address);
+                } else {
+                    worker.report(clients, matches);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Сервер отключился или прислал некорректные данные.
+        } finally {
+            if (worker != null) {
+                workers.remove(worker.getAddress(), worker);
+                ServerLog.get().info(LOG_SOURCE, "Сервер {} отключен.", worker.getAddress());
+            }
+        }
+    }
+
+    private void acceptClients() {
+        try {
+            while (true) {
+                SocketChannel client = clientChannel.accept();
+                Placement placement = place();
+                if (placement == null) {
+                    ServerLog.get().warn(LOG_SOURCE, "Нет доступных серверов, подключение клиента закрыто.");
+                    client.close();
+                    continue;
+                }
+                // Клиенты распределяются по потокам пересылки по очереди.
+                proxyLoops[nextProxyLoop].proxy(client, placement.worker().getAddress(), () -> released(placement));
+                nextProxyLoop = (nextProxyLoop + 1) % proxyLoops.length;
+            }
+        } catch (IOException e) {
+            // Порт закрыт из close().
+        }
+    }
+
+    /**
+     * Выбор сервера для нового клиента: сервер текущей группы или,
+     * если группа набрана (или ее сервер отключился), наименее нагруженный.
+     *
+     * @return сервер и группа клиента или null, если ни один сервер не подключен
+     */
+    Placement place() {
+        placementLock.lock();
+        try {
+            if (groupRemaining == 0 || groupWorker == null || workers.get(groupWorker.getAddress()) != groupWorker) {
+                groupWorker = workers.values().stream().min(Comparator.comparingInt(WorkerInfo::load)).orElse(null);
+                groupRemaining = playersPerMatch;
+                group++;
+            }
+            if (groupWorker == null) {
+                return null;
+            }
+            groupRemaining--;
+            groupWorker.assigned();
+            return new Placement(groupWorker, group);
+        } finally {
+            placementLock.unlock();
+        }
+    }
+
+    /**
+     * Клиент отключился (вызывается из потока пересылки). Если его группа все еще текущая,
+     * место возвращается группе, иначе на сервере группы партнеры ждали бы клиента, который не придет.
+     */
+    private void released(Placement placement) {
+        placementLock.lock();
+        try {
+            if (placement.group() == group && groupRemaining < playersPerMatch) {
+                groupRemaining++;
+                if (groupRemaining == playersPerMatch) {
+                    // Из группы не осталось никого: следующий клиент начнет новую на наименее нагруженном сервере.
+                    groupRemaining = 0;
+                }
+            }
+        } finally {
+            placementLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (clientChannel != null) {
+                clientChannel.close();
+            }
+        } finally {
+            if (controlSocket != null) {
+                controlSocket.close();
+            }
+            for (ProxyLoop loop : proxyLoops) {
+                loop.shutdown();
+            }
+        }
+    }
+}
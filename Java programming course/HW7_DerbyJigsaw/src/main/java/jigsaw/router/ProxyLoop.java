@@ -0,0 +1,224 @@
+package jigsaw.router;
+
+import jigsaw.server.log.ServerLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Один поток с Selector-ом, пересылающий байты для множества пар "клиент - игровой сервер".
+ * <p>
+ * У каждой стороны пары свой буфер для прочитанного, но еще не записанного в другую сторону.
+ * Если другая сторона приняла не все, чтение приостанавливается (снимается OP_READ)
+ * до ее готовности к записи (OP_WRITE). Поэтому на подключение приходится два буфера, а не два потока,
+ * и медленный клиент тормозит только свою пару.
+ * Конец потока одной стороны передается другой (shutdownOutput), ошибка закрывает обе.
+ */
+final class ProxyLoop implements Runnable {
+    private static final int BUFFER_BYTES = 16 * 1024;
+
+    /**
+     * Одна сторона пары.
+     */
+    private static final class Side {
+        private final SocketChannel channel;
+        /**
+         * Адрес игрового сервера (null у стороны клиента).
+         */
+        private final InetSocketAddress worker;
+        /**
+         * Прочитанное из этой стороны и еще не записанное в другую (в режиме заполнения).
+         */
+        private final ByteBuffer inbound = ByteBuffer.allocate(BUFFER_BYTES);
+        private SelectionKey key;
+        private Side peer;
+        private boolean endOfStream;
+        private boolean endForwarded;
+        /**
+         * Вызывается один раз, когда клиент отключился (только у стороны клиента).
+         */
+        private Runnable onClientGone;
+
+        private Side(SocketChannel channel, InetSocketAddress worker) {
+            this.channel = channel;
+            this.worker = worker;
+        }
+    }
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    ProxyLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Передача циклу принятого клиента и адреса выбранного сервера.
+     * Подключение к серверу неблокирующее: пересылка начинается, когда оно установлено.
+     *
+     * @param onClientGone вызывается в потоке цикла, когда клиент закрыл подключение
+     *                     (или пара закрыта из-за ошибки)
+     */
+    void proxy(SocketChannel client, InetSocketAddress worker, Runnable onClientGone) {
+        execute(() -> {
+            Side clientSide = new Side(client, null);
+            clientSide.onClientGone = onClientGone;
+            try {
+                client.configureBlocking(false);
+                client.socket().setTcpNoDelay(true);
+                Side serverSide = new Side(SocketChannel.open(), worker);
+                clientSide.peer = serverSide;
+                serverSide.peer = clientSide;
+                serverSide.channel.configureBlocking(false);
+                serverSide.channel.socket().setTcpNoDelay(true);
+                // До подключения к серверу клиент не читается.
+                clientSide.key = client.register(selector, 0, clientSide);
+                serverSide.key = serverSide.channel.register(selector, 0, serverSide);
+                if (serverSide.channel.connect(worker)) {
+                    connected(serverSide);
+                } else {
+                    serverSide.key.interestOps(SelectionKey.OP_CONNECT);
+                }
+            } catch (IOException e) {
+                ServerLog.get().warn(FrontRouter.LOG_SOURCE, "Не удалось подключиться к серверу {}. {}",
+                        worker, e.getMessage());
+                close(clientSide);
+            }
+        });
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Side side = (Side) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) {
+                            side.channel.finishConnect();
+                            connected(side);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            transfer(side.peer);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            if (side.channel.read(side.inbound) == -1) {
+                                side.endOfStream = true;
+                                if (side.worker == null) {
+                                    clientGone(side);
+                                }
+                            }
+                            transfer(side);
+                        }
+                    } catch (IOException e) {
+                        if (side.worker != null && !side.channel.isConnected()) {
+                            ServerLog.get().warn(FrontRouter.LOG_SOURCE, "Не удалось подключиться к серверу {}. {}",
+                                    side.worker, e.getMessage());
+                        }
+                        close(side);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            ServerLog.get().error(FrontRouter.LOG_SOURCE, "Цикл пересылки остановлен из-за ошибки.", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(((Side) key.attachment()).channel);
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void connected(Side server) {
+        updateInterest(server);
+        updateInterest(server.peer);
+    }
+
+    /**
+     * Запись прочитанного из {@code from} в другую сторону, насколько она принимает.
+     */
+    private void transfer(Side from) throws IOException {
+        Side to = from.peer;
+        from.inbound.flip();
+        to.channel.write(from.inbound);
+        from.inbound.compact();
+        if (from.endOfStream && from.inbound.position() == 0 && !from.endForwarded) {
+            from.endForwarded = true;
+            to.channel.shutdownOutput();
+        }
+        if (from.endForwarded && to.endForwarded) {
+            close(from);
+            return;
+        }
+        updateInterest(from);
+        updateInterest(to);
+    }
+
+    /**
+     * Сторона читается, пока в ее буфере есть место, и ждет записи, пока у другой стороны есть неотправленное.
+     */
+    private static void updateInterest(Side side) {
+        int ops = 0;
+        if (!side.endOfStream && side.inbound.hasRemaining()) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (side.peer.inbound.position() > 0) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        side.key.interestOps(ops);
+    }
+
+    private static void close(Side side) {
+        closeQuietly(side.channel);
+        if (side.peer != null) {
+            closeQuietly(side.peer.channel);
+        }
+        Side clientSide = side.worker == null ? side : side.peer;
+        if (clientSide != null) {
+            clientGone(clientSide);
+        }
+    }
+
+    private static void clientGone(Side clientSide) {
+        Runnable callback = clientSide.onClientGone;
+        clientSide.onClientGone = null;
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Уже закрыт.
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package jigsaw.router;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Рабочий процесс (игровой сервер) с точки зрения маршрутизатора: адрес и последняя присланная нагрузка.
+ */
+final class WorkerInfo {
+    private final InetSocketAddress address;
+    private volatile int reportedClients;
+    private volatile int reportedMatches;
+    /**
+     * Подключения, направленные на сервер после его последнего отчета:
+     * пока отчет не пришел, они учитываются здесь, чтобы не отправлять всех на один сервер.
+     */
+    private final AtomicInteger assignedSinceReport = new AtomicInteger();
+
+    WorkerInfo(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    void report(int clients, int matches) {
+        reportedClients = clients;
+        reportedMatches = matches;
+        assignedSinceReport.set(0);
+    }
+
+    void assigned() {
+        assignedSinceReport.incrementAndGet();
+    }
+
+    /**
+     * Оценка нагрузки: подключенные клиенты по отчету и направленные после него.
+     */
+    int load() {
+        return reportedClients + assignedSinceReport.get();
+    }
+
+    int getReportedMatches() {
+        return reportedMatches;
+    }
+
+    @Override
+    public String toString() {
+        return address.getHostString() + ":" + address.getPort()
+                + " (клиентов " + reportedClients + ", партий " + reportedMatches + ")";
+    }
+}
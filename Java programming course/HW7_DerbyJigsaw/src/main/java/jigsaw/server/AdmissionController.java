@@ -0,0 +1,103 @@
+package jigsaw.server;
+
+import jigsaw.server.metrics.GameServerMetrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Контроль допуска подключений: защищает сервер от наплыва переподключений
+ * и от клиентов, которые подключаются и молчат или не читают ответы.
+ * <p>
+ * Подключение принимается, только если не превышены оба лимита: общий
+ * и лимит подключений, еще не приславших приветствие (такие подключения дешево открыть тысячами).
+ * Сверх лимита подключение сразу закрывается, без потока и без сессии.
+ * Остальные ограничения (время молчания, объем неотправленных ответов)
+ * проверяются самими подключениями по значениям отсюда.
+ */
+final class AdmissionController {
+    private final int maxConnections;
+    private final int maxHandshakes;
+    private final long handshakeNanos;
+    private final long idleNanos;
+    private final int maxOutboundBytes;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger handshakes = new AtomicInteger();
+
+    AdmissionController(ServerConfig config) {
+        maxConnections = config.getMaxConnections();
+        maxHandshakes = config.getMaxHandshakes();
+        handshakeNanos = TimeUnit.SECONDS.toNanos(config.getHandshakeSeconds());
+        idleNanos = TimeUnit.SECONDS.toNanos(config.getIdleSeconds());
+        maxOutboundBytes = config.getMaxOutboundBytes();
+    }
+
+    /**
+     * Попытка принять новое подключение. Принятое подключение считается ожидающим приветствия,
+     * пока не вызван {@link #handshakeCompleted()}, и должно быть освобождено {@link #released(boolean)}.
+     *
+     * @return false, если подключение нужно сразу закрыть
+     */
+    boolean tryAdmit() {
+        // Счетчик сначала увеличивается, потом проверяется: лимит может быть превышен
+        // на несколько подключений на время проверки, зато без блокировки.
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            GameServerMetrics.get().connectionRejected();
+            return false;
+        }
+        if (handshakes.incrementAndGet() > maxHandshakes) {
+            handshakes.decrementAndGet();
+            connections.decrementAndGet();
+            GameServerMetrics.get().connectionRejected();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Клиент прислал приветствие.
+     */
+    void handshakeCompleted() {
+        handshakes.decrementAndGet();
+    }
+
+    /**
+     * Подключение закрыто (вызывается один раз для каждого принятого подключения).
+     *
+     * @param handshakeCompleted был ли уже вызван {@link #handshakeCompleted()}
+     */
+    void released(boolean handshakeCompleted) {
+        if (!handshakeCompleted) {
+            handshakes.decrementAndGet();
+        }
+        connections.decrementAndGet();
+    }
+
+    int getConnections() {
+        return connections.get();
+    }
+
+    int getPendingHandshakes() {
+        return handshakes.get();
+    }
+
+    /**
+     * Сколько ждать приветствия клиента (0 - без ограничения).
+     */
+    long getHandshakeNanos() {
+        return handshakeNanos;
+    }
+
+    /**
+     * Сколько клиент может ничего не присылать после приветствия (0 - без ограничения).
+     */
+    long getIdleNanos() {
+        return idleNanos;
+    }
+
+    int getMaxOutboundBytes() {
+        return maxOutboundBytes;
+    }
+}
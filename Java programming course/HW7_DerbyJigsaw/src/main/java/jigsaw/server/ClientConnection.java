@@ -0,0 +1,31 @@
+package jigsaw.server;
+
+import java.io.IOException;
+
+/**
+ * Подключение клиента, не зависящее от способа обработки (поток на клиента или Selector).
+ * Через него {@link GameSession} отправляет ответы.
+ */
+interface ClientConnection {
+    /**
+     * Отправка сообщения клиенту.
+     *
+     * @param message пакет или фигура
+     * @throws IOException в случае ошибки ввода-вывода
+     */
+    void send(Object message) throws IOException;
+
+    /**
+     * Отправка сообщения, закодированного один раз для многих получателей.
+     * Сообщение с {@link SharedFrame#conflatable} может быть пропущено, если клиент не успевает читать.
+     *
+     * @param frame сообщение
+     * @throws IOException в случае ошибки ввода-вывода
+     */
+    void sendShared(SharedFrame frame) throws IOException;
+
+    /**
+     * Закрытие подключения.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,67 @@
+package jigsaw.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Подбор партнеров по очереди.
+ * <p>
+ * Игроки, отправившие begin, попадают в набирающуюся партию;
+ * когда она заполнена, она начинается, а следующие игроки попадают в новую.
+ * Блокировка берется только на время begin и отмены ожидания,
+ * сама игра (фигуры, результаты) идет без общих блокировок.
+ */
+final class FifoMatchMaker implements MatchMaker {
+    private final int playersPerMatch;
+    private final int maxSeconds;
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Набирающаяся партия (null, если ни один игрок не ждет).
+     */
+    private Match forming;
+
+    FifoMatchMaker(int playersPerMatch, int maxSeconds) {
+        this.playersPerMatch = playersPerMatch;
+        this.maxSeconds = maxSeconds;
+    }
+
+    /**
+     * Добавление игрока в набирающуюся партию.
+     * Если игрок был последним, партия начинается в этом же вызове.
+     */
+    @Override
+    public CompletableFuture<Match> join(GameSession player) {
+        Match match;
+        boolean full;
+        lock.lock();
+        try {
+            if (forming == null) {
+                forming = new Match(playersPerMatch, maxSeconds);
+            }
+            match = forming;
+            full = match.addPlayer(player);
+            if (full) {
+                forming = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (full) {
+            match.start();
+        }
+        return match.started.thenApply(ignored -> match);
+    }
+
+    @Override
+    public void leave(GameSession player) {
+        lock.lock();
+        try {
+            // Игрок может быть только в набирающейся партии: начатые партии уже не меняются.
+            if (forming != null) {
+                forming.removePlayer(player);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,517 @@
+package jigsaw.server;
+
+import jigsaw.client.backend.figure.JigsawFigure;
+import jigsaw.packagemodels.*;
+import jigsaw.server.dbconn.DbConnUtils;
+import jigsaw.server.log.ServerLog;
+import jigsaw.server.metrics.GameServerMetrics;
+import jigsaw.server.ormmodels.GameStatModel;
+import jigsaw.server.ormmodels.InvalidGameStatException;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static jigsaw.server.MultithreadedGameServer.*;
+
+/**
+ * Один игрок на сервере: хранит информацию о параметрах игрока и результате игры
+ * и обрабатывает команды клиента.
+ * <p>
+ * Сессия не знает, как устроено подключение, и сама никогда не блокируется:
+ * ответы на begin и end подписаны на завершение future-ов партии ({@link Match})
+ * и отправляются тем потоком, который их завершил. Поэтому одна и та же логика работает
+ * и в потоке на клиента, и в цикле Selector-а.
+ */
+class GameSession {
+    /**
+     * Максимум фигур в ответе на один запрос "figures".
+     */
+    static final int MAX_FIGURES_PER_REQUEST = 16;
+
+    /**
+     * Команды, которые считаются в метриках по отдельности. Тип сообщения присылает клиент,
+     * поэтому остальные типы считаются вместе, под {@link #UNKNOWN_COMMAND}.
+     */
+    private static final Set<String> KNOWN_COMMANDS = Set.of("top", "name", "begin", "end", "figure", "figures",
+            "events", "spectate", "is unexpected exit", "exit");
+    private static final String UNKNOWN_COMMAND = "unknown";
+
+    // Параметры пользователя.
+    private final int playerIndex;
+    private String playerName;
+    /**
+     * Номер следующей фигуры партии для этого игрока (он же - количество выданных фигур).
+     * Меняется только в потоке игрока, читается зрителями.
+     */
+    private volatile int nextFigureIndex;
+    /**
+     * Сколько фигур партии игрок уже поставил. Из-за предзапроса (figures) выданных фигур больше,
+     * поэтому зрителям и в запись партии публикуется это число, а не {@link #nextFigureIndex}.
+     * Меняется только в потоке игрока, читается зрителями.
+     */
+    private volatile int figuresPlaced;
+
+    private final ClientConnection connection;
+
+    /**
+     * Партия, в которой участвует игрок (null, если игрок не в игре).
+     */
+    private volatile Match match;
+
+    /**
+     * Ждет ли игрок партнера. Сбрасывается при отмене поиска,
+     * чтобы ответ на begin не ушел после отмены.
+     */
+    private final AtomicBoolean waitingForOpponent = new AtomicBoolean();
+
+    /**
+     * Подписан ли клиент на события партии ({@link EventPackage}).
+     * Старые клиенты не подписываются и узнают о выходе партнера опросом "is unexpected exit".
+     */
+    private volatile boolean receivesEvents;
+
+    /**
+     * Партия, за которой игрок наблюдает как зритель (null, если не наблюдает).
+     */
+    private volatile Match spectating;
+
+    // Поля - результаты игры.
+    // Нужны для определения победителя.
+    // До получения end - значения "нет результата", проигрывающие любому результату.
+    private volatile int finalNumberOfFigures = -1;
+    private volatile long finalElapsedSeconds = Long.MAX_VALUE;
+    private volatile boolean finished;
+
+    /**
+     * Рейтинг игрока для {@link RankedMatchMaker}. Читается из БД в потоке БД после name
+     * и после записи результата новой игры; до этого - 0, как у новичка.
+     */
+    private volatile int rating;
+
+    /**
+     * Конструирование сессии.
+     *
+     * @param playerIndex
+     * @param connection
+     */
+    GameSession(int playerIndex, ClientConnection connection) {
+        this.playerIndex = playerIndex;
+        this.connection = connection;
+    }
+
+    int getPlayerIndex() {
+        return playerIndex;
+    }
+
+    String getPlayerName() {
+        return playerName;
+    }
+
+    int getFinalNumberOfFigures() {
+        return finalNumberOfFigures;
+    }
+
+    long getFinalElapsedSeconds() {
+        return finalElapsedSeconds;
+    }
+
+    /**
+     * Прислал ли игрок результат текущей партии.
+     */
+    boolean hasFinished() {
+        return finished;
+    }
+
+    int getFiguresPlaced() {
+        return figuresPlaced;
+    }
+
+    /**
+     * Рейтинг игрока по истории его игр (см. {@link DbConnUtils#getPlayerRating(String)}).
+     * Не обращается к БД: возвращает последний прочитанный рейтинг.
+     */
+    int getRating() {
+        return rating;
+    }
+
+    /**
+     * Чтение рейтинга в потоке БД. Если игрок уже ждет партнера, подбор узнает о новом рейтинге.
+     */
+    private void loadRating(String name) {
+        if (name == null) {
+            return;
+        }
+        dbExecutor.execute(() -> {
+            try {
+                rating = DbConnUtils.getPlayerRating(name);
+            } catch (SQLException e) {
+                // Без рейтинга игрок все равно может играть: он подбирается как новичок.
+                ServerLog.get().warn(LOG_SOURCE, "Не удалось прочитать рейтинг игрока {}. {}", name, e.getMessage());
+                return;
+            }
+            matchMaker.ratingChanged(this);
+        });
+    }
+
+    /**
+     * Обработка одного сообщения от клиента.
+     *
+     * @param clientMessage сообщение
+     * @throws IOException в случае ошибки отправки ответа
+     */
+    void onMessage(GeneralPackage clientMessage) throws IOException {
+        // Игрок может перестать искать партнера и выйти (или отправить любую другую команду).
+        if (waitingForOpponent.getAndSet(false)) {
+            cancelWaiting();
+        }
+        // Любая команда, кроме повторной подписки, прекращает наблюдение за партией.
+        if (spectating != null && !clientMessage.type.equals("spectate")) {
+            stopSpectating();
+        }
+        long startNanos = System.nanoTime();
+        GameServerMetrics.get().recordMessage(
+                KNOWN_COMMANDS.contains(clientMessage.type) ? clientMessage.type : UNKNOWN_COMMAND);
+        // Все сообщения (от клиента и от сервера) - производные от класса GeneralPackage.
+        switch (clientMessage.type) {
+            case "top" -> topGamesCommand();
+            case "name" -> {
+                playerName = ((NamePackage) clientMessage).name;
+                loadRating(playerName);
+            }
+            case "begin" -> beginCommand();
+            case "end" -> endCommand((GameStatPackage) clientMessage);
+            case "figure" -> figureCommand();
+            case "figures" -> figuresCommand((FiguresRequestPackage) clientMessage);
+            case "events" -> receivesEvents = true;
+            case "spectate" -> spectateCommand((SpectatePackage) clientMessage);
+            // Это ежесекундный вопрос от старого клиента (не подписанного на события)
+            // для проверки некорректного выхода другого пользователя из игры.
+            case "is unexpected exit" -> {
+                Match playerMatch = match;
+                connection.send(new BoolPackage(playerMatch != null && playerMatch.isAbandoned()));
+            }
+            // Это сообщение отправляется в случае корректного выхода клиента.
+            // Если игра еще идет, партнер не должен ждать результата.
+            case "exit" -> {
+                Match playerMatch = match;
+                match = null;
+                if (playerMatch != null) {
+                    playerMatch.playerLeft(this);
+                }
+                allClients.remove(this);
+            }
+        }
+        // Для begin и end это только обработка в сессии: ответ может ждать партнеров
+        // (ожидание ответа на begin - "opponentWait"). Задержка top записывается при отправке ответа.
+        switch (clientMessage.type) {
+            case "begin", "end", "figure", "figures" ->
+                    GameServerMetrics.get().recordLatency(clientMessage.type, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Отмена ожидания партнера. Если партия успела набраться,
+     * выход засчитывается как некорректный (см. {@link #beginCommand()}).
+     */
+    private void cancelWaiting() {
+        matchMaker.leave(this);
+    }
+
+    /**
+     * Отправка события партии, если клиент на них подписан.
+     * Вызывается из потока другого игрока.
+     */
+    void pushEvent(String event) {
+        if (receivesEvents) {
+            sendQuietly(new EventPackage(event));
+        }
+    }
+
+    /**
+     * Отправка события своей партии (место в таблице), если клиент подписан на события.
+     */
+    void pushMatchEvent(MatchEventPackage event) {
+        if (receivesEvents) {
+            sendQuietly(event);
+        }
+    }
+
+    /**
+     * Отправка события зрителю (состояние партии при подписке).
+     */
+    void sendMatchEvent(MatchEventPackage event) {
+        sendQuietly(event);
+    }
+
+    /**
+     * Отправка общего для всех зрителей события (из потока игрока партии).
+     */
+    void sendShared(SharedFrame frame) {
+        try {
+            connection.sendShared(frame);
+        } catch (IOException e) {
+            GameServerMetrics.get().socketError();
+            try {
+                stop();
+            } catch (IOException ignored) {
+                // Подключение уже закрыто.
+            }
+        }
+    }
+
+    private void stopSpectating() {
+        Match watched = spectating;
+        spectating = null;
+        if (watched != null) {
+            watched.removeSpectator(this);
+        }
+    }
+
+    /**
+     * Пришел запрос spectate - клиент хочет наблюдать за партией.
+     * Без номера выбирается партия, за которой наблюдает больше всего зрителей.
+     */
+    private void spectateCommand(SpectatePackage request) throws IOException {
+        stopSpectating();
+        Match target = request.matchId == SpectatePackage.ANY_MATCH
+                ? runningMatches.values().stream()
+                .max(Comparator.comparingInt(Match::getSpectatorsCount).thenComparingLong(Match::getId))
+                .orElse(null)
+                : runningMatches.get(request.matchId);
+        if (target == null || !target.addSpectator(this)) {
+            connection.send(new MatchEventPackage(request.matchId, MatchEventPackage.NOT_FOUND, "", 0));
+            return;
+        }
+        spectating = target;
+    }
+
+    /**
+     * Отправка ответа из потока, завершившего future партии.
+     * Ошибка отправки означает, что клиент отключился: подключение закрывается.
+     */
+    private void sendQuietly(Object message) {
+        try {
+            connection.send(message);
+        } catch (IOException e) {
+            GameServerMetrics.get().socketError();
+            try {
+                stop();
+            } catch (IOException ignored) {
+                // Подключение уже закрыто.
+            }
+        }
+    }
+
+    /**
+     * Останавливает клиента: закрывает подключение.
+     *
+     * @throws IOException
+     */
+    void stop() throws IOException {
+        connection.close();
+    }
+
+    /**
+     * Вызывается один раз после закрытия подключения.
+     */
+    void onDisconnect() {
+        try {
+            stop();
+        } catch (IOException e) {
+            ServerLog.get().error(LOG_SOURCE, "Не удалось закрыть подключение игрока {}.", playerName, e);
+        }
+        allClients.remove(this);
+        stopSpectating();
+        if (waitingForOpponent.getAndSet(false)) {
+            cancelWaiting();
+        }
+        Match playerMatch = match;
+        match = null;
+        if (playerMatch != null) {
+            if (playerName != null) {
+                ServerLog.get().info(LOG_SOURCE, "Игрок {} некорректно завершил игру.", playerName);
+            }
+            // Партнер, ожидающий результата, сразу становится победителем.
+            playerMatch.playerLeft(this);
+        } else {
+            if (playerName != null) {
+                ServerLog.get().info(LOG_SOURCE, "Игрок {} вышел.", playerName);
+            }
+        }
+    }
+
+    /**
+     * Пришел запрос top - запрос на получение ТОП 10 игр.
+     * Запрос к БД выполняется в потоке БД, ответ отправляется оттуда же
+     * (в цикле Selector-а подключение само передает его своему циклу).
+     */
+    private void topGamesCommand() {
+        long startNanos = System.nanoTime();
+        dbExecutor.execute(() -> {
+            try {
+                List<GameStatModel> topGames = DbConnUtils.getTopTenGameResults();
+                sendQuietly(new TopGamesPackage(topGames));
+                GameServerMetrics.get().recordLatency("top", System.nanoTime() - startNanos);
+            } catch (SQLException | InvalidGameStatException e) {
+                handleDbException(e);
+            }
+        });
+    }
+
+    /**
+     * Пришел запрос begin - игрок готов начать новую игру.
+     *
+     * @throws IOException
+     */
+    private void beginCommand() {
+        nextFigureIndex = 0;
+        figuresPlaced = 0;
+        finalNumberOfFigures = -1;
+        finalElapsedSeconds = Long.MAX_VALUE;
+        finished = false;
+        waitingForOpponent.set(true);
+        long beginNanos = System.nanoTime();
+        // Ответ уходит, когда партия набрана (возможно, уже набрана).
+        matchMaker.join(this).thenAccept(joinedMatch -> {
+            if (waitingForOpponent.compareAndSet(true, false)) {
+                match = joinedMatch;
+                GameServerMetrics.get().recordLatency("opponentWait", System.nanoTime() - beginNanos);
+                sendQuietly(new BeginToClientPackage(joinedMatch.opponentName(this), joinedMatch.getMaxSeconds()));
+            } else {
+                // Игрок отменил поиск, пока партия набиралась: для партнеров это некорректный выход.
+                joinedMatch.playerLeft(this);
+            }
+        });
+    }
+
+    /**
+     * Пришел запрос end - игрок нажал на кнопку "END GAME"
+     * и хочет получить результаты игры.
+     *
+     * @param clientMessage
+     * @throws IOException
+     */
+    private void endCommand(GameStatPackage clientMessage) throws IOException {
+        // В любом случае добавляется новая запись о результатах игры в БД (в потоке БД).
+        String name = playerName;
+        dbExecutor.execute(() -> {
+            try {
+                DbConnUtils.insertGameResults(
+                        new GameStatModel(name,
+                                clientMessage.endTime,
+                                clientMessage.numberOfFigures,
+                                clientMessage.elapsedSeconds));
+            } catch (SQLException | InvalidGameStatException e) {
+                handleDbException(e);
+            }
+        });
+        // Поток БД один, поэтому рейтинг читается уже с новой игрой.
+        loadRating(name);
+
+        Match playerMatch = match;
+        if (playerMatch != null) {
+            replayLog.playerFinished(playerMatch.getId(), playerIndex,
+                    clientMessage.numberOfFigures, clientMessage.elapsedSeconds);
+            playerMatch.publish(MatchEventPackage.FINISHED, playerName, clientMessage.numberOfFigures, false);
+        }
+        if (playerMatch == null || playerMatch.getCapacity() == 1) {
+            // Один человек всегда выигрывает.
+            match = null;
+            if (playerMatch != null) {
+                // Останавливает часы партии.
+                playerMatch.result.complete(playerIndex);
+            }
+            connection.send(new WonLosePackage("WON"));
+            return;
+        }
+        finalNumberOfFigures = clientMessage.numberOfFigures;
+        finalElapsedSeconds = clientMessage.elapsedSeconds;
+        finished = true;
+
+        if (!playerMatch.playerFinished(this)) {
+            // Завершивший игру ждет партнеров, но не дольше срока партии.
+            // В это время партнер может закрыть приложение, тогда результат известен без партнера.
+            if (playerMatch.getCapacity() == 2) {
+                playerMatch.notifyOthers(this, EventPackage.OPPONENT_FINISHED);
+            }
+        } else if (playerMatch.result.complete(playerMatch.resolveWinner())) {
+            // Последний завершивший игру определяет победителя,
+            // если партия не была завершена раньше (выходом партнера или по времени).
+            ServerLog.get().info(LOG_SOURCE, "Партия {} завершена за {} с.",
+                    playerMatch.getId(), playerMatch.elapsedSeconds());
+        }
+        // Ответ отправляется при завершении future (возможно, уже завершенного).
+        playerMatch.result.thenAccept(this::sendResult);
+    }
+
+    /**
+     * Ответ о результате, когда результаты всех игроков известны
+     * (или партнер вышел из игры).
+     */
+    private void sendResult(int winnerIndex) {
+        match = null;
+        sendQuietly(new WonLosePackage(
+                winnerIndex == playerIndex || winnerIndex == Match.OPPONENT_LEFT ? "WON" : "LOSE"));
+    }
+
+    /**
+     * Пришел запрос figure - запрос на получение новой фигуры.
+     *
+     * @throws IOException
+     */
+    private void figureCommand() throws IOException {
+        Match playerMatch = match;
+        JigsawFigure figure;
+        if (playerMatch != null) {
+            // Старый клиент запрашивает фигуру, когда поставил все выданные раньше.
+            placed(playerMatch, nextFigureIndex);
+            replayLog.figuresIssued(playerMatch.getId(), playerIndex, nextFigureIndex, 1);
+            figure = playerMatch.figure(nextFigureIndex++);
+        } else {
+            figure = new JigsawFigure(JigsawFigure.DEFAULT_FIGURE_NUM_CELLS, JigsawFigure.DEFAULT_FIGURE_NUM_CELLS);
+        }
+        connection.send(figure);
+    }
+
+    /**
+     * Пришел запрос figures - клиент заранее запрашивает несколько следующих фигур.
+     * Фигуры берутся из той же последовательности партии, что и для запроса figure.
+     *
+     * @throws IOException
+     */
+    private void figuresCommand(FiguresRequestPackage request) throws IOException {
+        int count = Math.max(1, Math.min(request.count, MAX_FIGURES_PER_REQUEST));
+        Match playerMatch = match;
+        List<JigsawFigure> batch;
+        if (playerMatch != null) {
+            // Поставить больше, чем выдано, нельзя; число поставленных не уменьшается.
+            placed(playerMatch, Math.max(figuresPlaced, Math.min(request.placed, nextFigureIndex)));
+            replayLog.figuresIssued(playerMatch.getId(), playerIndex, nextFigureIndex, count);
+            batch = playerMatch.figures(nextFigureIndex, count);
+            nextFigureIndex += count;
+        } else {
+            batch = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                batch.add(new JigsawFigure(JigsawFigure.DEFAULT_FIGURE_NUM_CELLS, JigsawFigure.DEFAULT_FIGURE_NUM_CELLS));
+            }
+        }
+        connection.send(new FiguresPackage(batch));
+    }
+
+    /**
+     * Обновление числа поставленных фигур: событие зрителям и запись партии, только если оно изменилось.
+     */
+    private void placed(Match playerMatch, int placed) {
+        if (placed == figuresPlaced) {
+            return;
+        }
+        figuresPlaced = placed;
+        replayLog.figuresPlaced(playerMatch.getId(), playerIndex, placed);
+        playerMatch.publish(MatchEventPackage.FIGURE, playerName, placed, true);
+    }
+}
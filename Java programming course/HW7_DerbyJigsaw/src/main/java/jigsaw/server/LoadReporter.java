@@ -0,0 +1,112 @@
+package jigsaw.server;
+
+import jigsaw.server.log.ServerLog;
+import jigsaw.server.metrics.GameServerMetrics;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отчеты о нагрузке сервера для входного маршрутизатора ({@link jigsaw.router.FrontRouter}).
+ * <p>
+ * Раз в секунду отправляет по управляющему подключению строку
+ * {@code LOAD <порт для клиентов> <клиентов> <партий>}.
+ * Если маршрутизатор недоступен, подключение повторяется каждую секунду;
+ * игра на сервере от этого не зависит.
+ */
+final class LoadReporter implements Runnable {
+    private static final long REPORT_INTERVAL_MILLIS = 1000;
+
+    private final InetSocketAddress router;
+    private final int clientPort;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+
+    LoadReporter(InetSocketAddress router, int clientPort) {
+        this.router = router;
+        this.clientPort = clientPort;
+    }
+
+    /**
+     * Разбор адреса вида host:port.
+     *
+     * @throws IllegalArgumentException если адрес некорректен
+     */
+    static InetSocketAddress parseAddress(String address) {
+        int separator = address.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("LoadReporter: Адрес маршрутизатора должен иметь вид host:port.");
+        }
+        try {
+            return new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("LoadReporter: Порт маршрутизатора должен быть числом.");
+        }
+    }
+
+    /**
+     * Запуск в отдельном потоке-демоне.
+     */
+    LoadReporter start() {
+        Thread thread = new Thread(this, "load-reporter");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    @Override
+    public void run() {
+        boolean announced = false;
+        while (running) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(router);
+                if (!announced) {
+                    ServerLog.get().info("LoadReporter", "Сервер подключен к маршрутизатору {}.", router);
+                    announced = true;
+                }
+                Writer out = new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8);
+                while (running) {
+                    GameServerMetrics metrics = GameServerMetrics.get();
+                    out.write("LOAD " + clientPort + " " + MultithreadedGameServer.allClients.size()
+                            + " " + metrics.getActiveMatches() + "\n");
+                    out.flush();
+                    TimeUnit.MILLISECONDS.sleep(REPORT_INTERVAL_MILLIS);
+                }
+            } catch (IOException e) {
+                announced = false;
+                sleepBeforeRetry();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(REPORT_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+
+    /**
+     * Остановка отчетов: маршрутизатор сразу перестает направлять клиентов на этот сервер.
+     */
+    void stop() {
+        running = false;
+        Socket connection = socket;
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+                // Уже закрыто.
+            }
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package jigsaw.server;
+
+import jigsaw.client.backend.figure.JigsawFigure;
+import jigsaw.packagemodels.EventPackage;
+import jigsaw.packagemodels.MatchEventPackage;
+import jigsaw.server.log.ServerLog;
+import jigsaw.server.metrics.GameServerMetrics;
+import jigsaw.server.replay.ReplayLog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Одна партия (комната): свои игроки, свой набор фигур, свои часы и свой победитель.
+ * <p>
+ * Партии независимы друг от друга, поэтому на одном сервере их может идти сколько угодно.
+ * Вместо активного ожидания игрок подписывается на завершение {@link CompletableFuture},
+ * и ответ отправляется тем потоком, который завершил future:
+ * последним подключившимся игроком, последним завершившим игру или отключившимся партнером.
+ * <p>
+ * Время партии отсчитывает сервер: при начале партии ее срок ставится в общее колесо таймеров
+ * ({@link MultithreadedGameServer#matchClock}), и если к сроку не все игроки прислали результат,
+ * партия завершается принудительно.
+ * <p>
+ * За идущей партией могут наблюдать зрители: каждое событие партии кодируется один раз
+ * ({@link SharedFrame}) и раздается всем зрителям.
+ * <p>
+ * В партии может быть до {@link #MAX_CAPACITY} игроков с общей последовательностью фигур.
+ * Результаты попадают в {@link MatchRanking} по мере прихода: игрок сразу узнает свое текущее место,
+ * а при завершении партии все игроки получают окончательные места.
+ * В партии больше чем на двоих выход игрока не завершает ее для остальных.
+ */
+final class Match {
+    /**
+     * Результат партии, если партнер некорректно вышел из игры.
+     */
+    static final int OPPONENT_LEFT = -1;
+
+    /**
+     * Результат партии, если никто не прислал результат до срока.
+     */
+    static final int NO_WINNER = -2;
+
+    /**
+     * Максимальное число игроков в партии.
+     */
+    static final int MAX_CAPACITY = 64;
+
+    /**
+     * Запас ко времени партии на доставку результата клиента по сети.
+     */
+    static final int DEADLINE_GRACE_SECONDS = 2;
+
+    /**
+     * Имя вместо отсутствующего имени партнера.
+     */
+    static final String NO_NAME = "----";
+
+    private static final AtomicLong nextMatchId = new AtomicLong(1);
+
+    private final long id = nextMatchId.getAndIncrement();
+
+    /**
+     * Продолжение нумерации партий после номеров, уже записанных в журнал партий предыдущими запусками.
+     */
+    static void continueMatchIds(long lastMatchId) {
+        nextMatchId.accumulateAndGet(lastMatchId + 1, Math::max);
+    }
+    private final int capacity;
+    private final int maxSeconds;
+
+    /**
+     * Игроки партии. Меняется только в {@link MatchMaker} под его блокировкой, пока партия набирается;
+     * после {@link #started} список больше не меняется.
+     */
+    private final List<GameSession> players;
+
+    /**
+     * Зерно последовательности фигур партии: все игроки получают одну и ту же последовательность.
+     * Фигура с любым номером вычисляется по зерну, поэтому выданные фигуры не хранятся
+     * и блокировка не нужна.
+     */
+    private final long figureSeed;
+
+    /**
+     * Завершается, когда подключились все игроки.
+     */
+    final CompletableFuture<Void> started = new CompletableFuture<>();
+
+    /**
+     * Завершается номером победителя, {@link #OPPONENT_LEFT} или {@link #NO_WINNER}.
+     */
+    final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+    /**
+     * Игроки, которые больше не играют: прислали результат или (в большой партии) вышли.
+     */
+    private final Set<GameSession> donePlayers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger doneCount = new AtomicInteger();
+
+    /**
+     * Места игроков, приславших результат.
+     */
+    private final MatchRanking ranking = new MatchRanking();
+
+    /**
+     * Вышел ли кто-то из игроков некорректно (не через кнопку "END GAME").
+     */
+    private final AtomicBoolean abandoned = new AtomicBoolean();
+
+    /**
+     * Зрители партии. Подписываются редко, а события рассылаются часто,
+     * поэтому список копируется при изменении и читается без блокировок.
+     */
+    private final List<GameSession> spectators = new CopyOnWriteArrayList<>();
+
+    private volatile long startNanos;
+
+    Match(int capacity, int maxSeconds) {
+        this(capacity, maxSeconds, ThreadLocalRandom.current().nextLong());
+    }
+
+    Match(int capacity, int maxSeconds, long figureSeed) {
+        this.capacity = capacity;
+        this.maxSeconds = maxSeconds;
+        this.figureSeed = figureSeed;
+        players = new ArrayList<>(capacity);
+    }
+
+    long getId() {
+        return id;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getMaxSeconds() {
+        return maxSeconds;
+    }
+
+    /**
+     * Добавление игрока (вызывается {@link MatchMaker} под блокировкой).
+     *
+     * @return true, если партия набрана
+     */
+    boolean addPlayer(GameSession player) {
+        players.add(player);
+        return players.size() == capacity;
+    }
+
+    /**
+     * Удаление игрока, передумавшего ждать (вызывается {@link MatchMaker} под блокировкой).
+     */
+    void removePlayer(GameSession player) {
+        players.remove(player);
+    }
+
+    /**
+     * Начало партии: запускаются часы, ожидающим игрокам уходит begin.
+     */
+    void start() {
+        startNanos = System.nanoTime();
+        GameServerMetrics.get().matchStarted();
+        ReplayLog replayLog = MultithreadedGameServer.replayLog;
+        replayLog.matchStarted(id, capacity, maxSeconds, figureSeed);
+        for (GameSession player : players) {
+            replayLog.playerJoined(id, player.getPlayerIndex(), player.getPlayerName());
+        }
+        TimingWheel.Timeout deadline = MultithreadedGameServer.matchClock.schedule(
+                this::timeIsUp, maxSeconds + DEADLINE_GRACE_SECONDS, TimeUnit.SECONDS);
+        MultithreadedGameServer.runningMatches.put(id, this);
+        result.whenComplete((winner, error) -> {
+            deadline.cancel();
+            GameServerMetrics.get().matchFinished();
+            MultithreadedGameServer.replayLog.matchFinished(id, winner != null ? winner : OPPONENT_LEFT);
+            MultithreadedGameServer.runningMatches.remove(id);
+            publish(MatchEventPackage.RESULT, winnerName(winner), winner != null ? winner : OPPONENT_LEFT, false);
+            spectators.clear();
+            pushFinalRanks();
+        });
+        started.complete(null);
+    }
+
+    /**
+     * Срок партии истек (вызывается в потоке колеса таймеров).
+     * Игроки, не приславшие результат, считаются не поставившими ни одной фигуры;
+     * они получают событие об окончании времени и узнают результат в ответ на свой end.
+     */
+    private void timeIsUp() {
+        if (!result.complete(resolveWinner())) {
+            return;
+        }
+        ServerLog.get().info(MultithreadedGameServer.LOG_SOURCE, "Партия {} завершена сервером по времени.", id);
+        for (GameSession player : players) {
+            if (!player.hasFinished()) {
+                player.pushEvent(EventPackage.TIME_IS_UP);
+            }
+        }
+    }
+
+    /**
+     * Сколько секунд прошло с начала партии по часам сервера.
+     */
+    long elapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1_000_000_000L;
+    }
+
+    /**
+     * Имя партнера для сообщения begin ({@link #NO_NAME}, если игрок один или партнер не прислал имя).
+     * В партии больше чем на двоих - имя одного из партнеров и число остальных ("alice +6").
+     */
+    String opponentName(GameSession player) {
+        for (GameSession other : players) {
+            if (other != player) {
+                String name = other.getPlayerName() == null ? NO_NAME : other.getPlayerName();
+                return capacity > 2 ? name + " +" + (capacity - 2) : name;
+            }
+        }
+        return NO_NAME;
+    }
+
+    /**
+     * Фигура с номером {@code index} из последовательности партии.
+     */
+    JigsawFigure figure(int index) {
+        return JigsawFigure.fromSequence(figureSeed, index);
+    }
+
+    /**
+     * Фигуры с номерами [{@code from}, {@code from + count}) из последовательности партии.
+     */
+    List<JigsawFigure> figures(int from, int count) {
+        List<JigsawFigure> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(figure(from + i));
+        }
+        return batch;
+    }
+
+    /**
+     * Игрок прислал результат (его поля final* уже заполнены): результат занимает место в таблице,
+     * игроку уходит его текущее место среди приславших результат.
+     *
+     * @return true, если это был последний игрок, от которого ждали результат
+     */
+    boolean playerFinished(GameSession player) {
+        if (!donePlayers.add(player)) {
+            return false;
+        }
+        int place = ranking.add(player.getPlayerIndex(), player.getPlayerName(),
+                player.getFinalNumberOfFigures(), player.getFinalElapsedSeconds());
+        player.pushMatchEvent(new MatchEventPackage(id, MatchEventPackage.RANK, player.getPlayerName(), place));
+        return doneCount.incrementAndGet() == capacity;
+    }
+
+    /**
+     * Победитель - лучший по таблице мест.
+     * Первостепенный критерий: количество расставленных фигур (максимизация).
+     * Второстепенный критерий: количество потраченного времени (минимизация).
+     * Игрок без результата (срок истек) проигрывает любому приславшему результат.
+     */
+    int resolveWinner() {
+        MatchRanking.Entry leader = ranking.leader();
+        return leader != null ? leader.playerIndex() : NO_WINNER;
+    }
+
+    /**
+     * Окончательные места при завершении партии. Игроки без результата делят последнее место.
+     */
+    private void pushFinalRanks() {
+        if (capacity == 1) {
+            return;
+        }
+        List<MatchRanking.Entry> standings = ranking.standings();
+        Map<Integer, Integer> places = new HashMap<>();
+        for (int i = 0; i < standings.size(); i++) {
+            places.put(standings.get(i).playerIndex(), i + 1);
+        }
+        for (GameSession player : players) {
+            int place = places.getOrDefault(player.getPlayerIndex(), standings.size() + 1);
+            player.pushMatchEvent(new MatchEventPackage(id, MatchEventPackage.FINAL_RANK, player.getPlayerName(), place));
+        }
+    }
+
+    /**
+     * Некорректный выход игрока из начавшейся партии:
+     * партнер, ожидающий результата, сразу становится победителем,
+     * а еще играющий партнер сразу получает событие о выходе.
+     * В партии больше чем на двоих игрок просто выбывает без результата.
+     */
+    void playerLeft(GameSession player) {
+        if (capacity > 2) {
+            if (donePlayers.add(player) && doneCount.incrementAndGet() == capacity) {
+                result.complete(resolveWinner());
+            }
+            return;
+        }
+        if (capacity > 1 && !abandoned.getAndSet(true)) {
+            notifyOthers(player, EventPackage.OPPONENT_LEFT);
+        }
+        result.complete(OPPONENT_LEFT);
+    }
+
+    /**
+     * Отправка события всем игрокам партии, кроме {@code player}.
+     */
+    void notifyOthers(GameSession player, String event) {
+        for (GameSession other : players) {
+            if (other != player) {
+                other.pushEvent(event);
+            }
+        }
+    }
+
+    boolean isAbandoned() {
+        return abandoned.get();
+    }
+
+    private String winnerName(Integer winnerIndex) {
+        for (GameSession player : players) {
+            if (winnerIndex != null && player.getPlayerIndex() == winnerIndex) {
+                return player.getPlayerName();
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Подписка зрителя: он сразу получает состояние партии, затем все ее события.
+     *
+     * @return false, если партия уже завершена
+     */
+    boolean addSpectator(GameSession spectator) {
+        spectators.add(spectator);
+        if (result.isDone()) {
+            // Партия успела завершиться: итог зритель уже не получит.
+            spectators.remove(spectator);
+            return false;
+        }
+        for (GameSession player : players) {
+            spectator.sendMatchEvent(new MatchEventPackage(id, MatchEventPackage.PLAYER,
+                    player.getPlayerName(), player.getFiguresPlaced()));
+        }
+        return true;
+    }
+
+    void removeSpectator(GameSession spectator) {
+        spectators.remove(spectator);
+    }
+
+    int getSpectatorsCount() {
+        return spectators.size();
+    }
+
+    /**
+     * Рассылка события всем зрителям. Сообщение создается и кодируется один раз на событие
+     * (и только если зрители есть).
+     *
+     * @param conflatable можно ли пропустить событие для медленного зрителя
+     */
+    void publish(String kind, String player, int value, boolean conflatable) {
+        if (spectators.isEmpty()) {
+            return;
+        }
+        SharedFrame frame = new SharedFrame(new MatchEventPackage(id, kind, player, value), conflatable);
+        for (GameSession spectator : spectators) {
+            spectator.sendShared(frame);
+        }
+    }
+}
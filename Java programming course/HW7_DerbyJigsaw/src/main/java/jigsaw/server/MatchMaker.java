@@ -0,0 +1,42 @@
+package jigsaw.server;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Распределение игроков по партиям.
+ * <p>
+ * Игрок, отправивший begin, встает в очередь и получает future своей партии.
+ * Future завершается уже начатой партией (тем потоком, который ее набрал),
+ * поэтому сессия игрока нигде не ждет.
+ */
+interface MatchMaker {
+    /**
+     * Постановка игрока в очередь.
+     *
+     * @return future партии игрока; завершается, когда партия набрана и начата
+     */
+    CompletableFuture<Match> join(GameSession player);
+
+    /**
+     * Отмена ожидания партнера. Если партия уже набрана, ничего не делает:
+     * тогда future из {@link #join(GameSession)} завершится (или уже завершился) этой партией.
+     */
+    void leave(GameSession player);
+
+    /**
+     * Рейтинг игрока прочитан из БД (возможно, пока игрок ждет партнера). Вызывается из потока БД.
+     */
+    default void ratingChanged(GameSession player) {
+    }
+
+    /**
+     * Подбор партнеров, выбранный в параметрах запуска.
+     */
+    static MatchMaker create(ServerConfig config, int playersPerMatch, int maxSeconds) {
+        if (config.getMatchmaking() == ServerConfig.Matchmaking.RANKED) {
+            return new RankedMatchMaker(playersPerMatch, maxSeconds,
+                    config.getRatingBucket(), config.getRankWidenSeconds());
+        }
+        return new FifoMatchMaker(playersPerMatch, maxSeconds);
+    }
+}
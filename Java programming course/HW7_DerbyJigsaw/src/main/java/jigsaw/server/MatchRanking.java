@@ -0,0 +1,58 @@
+package jigsaw.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Таблица мест партии, которая заполняется по мере того, как игроки присылают результаты.
+ * <p>
+ * Результат вставляется в упорядоченное множество за O(log n), поэтому в конце партии
+ * не нужно перебирать всех игроков: победитель - первый элемент, места уже расставлены.
+ * Текущее место при вставке считается по headSet за O(n): в партии не больше
+ * {@link Match#MAX_CAPACITY} игроков, и дерево порядковых статистик здесь не окупается.
+ * Порядок: больше фигур - выше, при равенстве - меньше времени, затем - кто раньше прислал результат.
+ */
+final class MatchRanking {
+    /**
+     * Результат одного игрока.
+     */
+    record Entry(int playerIndex, String playerName, int figures, long seconds, int order) {
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt(Entry::figures).reversed()
+            .thenComparingLong(Entry::seconds)
+            .thenComparingInt(Entry::order);
+
+    private final TreeSet<Entry> entries = new TreeSet<>(ORDER);
+
+    /**
+     * Добавление результата.
+     *
+     * @return текущее место игрока среди приславших результат (с 1)
+     */
+    synchronized int add(int playerIndex, String playerName, int figures, long seconds) {
+        Entry entry = new Entry(playerIndex, playerName, figures, seconds, entries.size());
+        entries.add(entry);
+        return entries.headSet(entry).size() + 1;
+    }
+
+    /**
+     * @return лучший результат или null, если результатов нет
+     */
+    synchronized Entry leader() {
+        return entries.isEmpty() ? null : entries.first();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Результаты по местам.
+     */
+    synchronized List<Entry> standings() {
+        return new ArrayList<>(entries);
+    }
+}
@@ -1,70 +1,128 @@
 package jigsaw.server;
 
-import jigsaw.client.backend.figure.JigsawFigure;
-import jigsaw.packagemodels.*;
+import jigsaw.packagemodels.GeneralPackage;
+import jigsaw.protocol.FramedConnection;
+import jigsaw.protocol.PackageCodec;
+import jigsaw.protocol.WireProtocol;
 import jigsaw.server.dbconn.DbConnUtils;
-import jigsaw.server.ormmodels.GameStatModel;
-import jigsaw.server.ormmodels.InvalidGameStatException;
+import jigsaw.server.log.ServerLog;
+import jigsaw.server.metrics.GameServerMetrics;
+import jigsaw.server.replay.ReplayLog;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Разобранный на лекции сервер, создающий для каждого сокета свой, отдельный поток.
  */
 public class MultithreadedGameServer {
+    static final String LOG_SOURCE = "MultithreadedGameServer";
     /**
-     * Список использованных фигур.
+     * Сколько ждать вывода журнала перед прямым выводом в консоль.
      */
-    private static final List<JigsawFigure> figures = new ArrayList<>();
+    private static final long LOG_FLUSH_MILLIS = 1000;
+    /**
+     * Множество всех подключенных клиентов.
+     * Нужно только для корректного завершения сервера, чтобы закрывать все сокеты.
+     * Set создается через ConcurrentHashMap.newKeySet().
+     */
+    static Set<GameSession> allClients;
 
     /**
-     * Словарь-отображение номеров клиентов с самими клиентами (потоками).
-     * Служит для хранения информации по текущим игрокам в системе.
-     * Игроки, начиная игру, добавляются в словарь.
-     * Игроки, заканчивая игру, удаляются из словаря.
-     * (Словарь синхронизирован для многопоточного кода)
+     * Количество игроков в одной партии (по ТЗ это 1 или 2).
+     * Одновременно может идти сколько угодно партий.
      */
-    private static final ConcurrentMap<Integer, ThreadedClientHandler> activeClients = new ConcurrentHashMap<>();
+    static int maxPlayers;
 
     /**
-     * Множество всех подключенных клиентов.
-     * Нужно только для корректного завершения сервера, чтобы закрывать все сокеты.
-     * Set создается через ConcurrentHashMap.newKeySet().
+     * Максимальное количество времени на одну игру.
+     * По истечении времени игра автоматически закачивается.
      */
-    private static Set<ThreadedClientHandler> allClients;
+    static int maxSeconds;
 
     /**
-     * Переменная для определения некорректного завершения игры (не через кнопку "END GAME").
+     * Распределение игроков по партиям.
      */
-    public static final AtomicBoolean isUnexpectedGameEnd = new AtomicBoolean(false);
+    static MatchMaker matchMaker;
 
     /**
-     * Максимальное количество игроков (по ТЗ это 1 или 2).
+     * Часы всех партий сервера: один поток на все сроки, тик - 100 мс.
      */
-    private static int maxPlayers;
+    static final TimingWheel matchClock = new TimingWheel(100, TimeUnit.MILLISECONDS, 512, "match-clock");
 
     /**
-     * Максимальное количество времени на одну игру.
-     * По истечении времени игра автоматически закачивается.
+     * Часы проверки молчащих подключений: точности в секунду достаточно.
+     */
+    static final TimingWheel connectionClock = new TimingWheel(1, TimeUnit.SECONDS, 1024, "connection-clock");
+
+    /**
+     * Лимиты подключений.
+     */
+    static AdmissionController admission;
+
+    /**
+     * Идущие партии по номерам (для зрителей).
+     */
+    static Map<Long, Match> runningMatches;
+
+    /**
+     * Журнал партий (по умолчанию выключен; открывается в main).
+     */
+    static volatile ReplayLog replayLog = ReplayLog.disabled();
+
+    /**
+     * Поток работы с БД. Запросы к Derby не выполняются в потоках игроков и циклах Selector-а
+     * и идут строго по одному: подготовленные запросы в DbConnUtils общие.
+     */
+    static final ExecutorService dbExecutor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "db-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Задачи записи ответов из чужих потоков при engine=threads (при engine=virtual - {@link #handlerExecutor}).
      */
-    private static int maxSeconds;
+    private static final ExecutorService clientWriters = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "client-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
-     * Вспомогательная переменная для определения номера победителя.
+     * Номер следующего подключившегося игрока.
      */
-    private static final AtomicInteger winnerIndex = new AtomicInteger();
+    static final AtomicInteger nextPlayerIndex = new AtomicInteger(1);
 
     private static ServerSocket serverSocket;
 
+    /**
+     * Сервер на Selector-ах (если выбран engine=nio).
+     */
+    private static NioGameServer nioServer;
+
+    /**
+     * Отчеты о нагрузке для маршрутизатора (null, если сервер работает сам по себе).
+     */
+    private static LoadReporter loadReporter;
+
+    /**
+     * Исполнитель обработчиков при engine=virtual (null - поток на каждого клиента).
+     */
+    private static ExecutorService handlerExecutor;
+
     /**
      * Метод для парсинга строки в число.
      *
@@ -83,11 +141,13 @@ public class MultithreadedGameServer {
      * Метод для ввода максимального количества игроков через консольный диалог.
      */
     private static void readMaxPlayers() {
-        System.out.println("MultithreadedGameServer: Введите максимальное число одновременно играющих игроков (1 или 2):");
+        System.out.println("MultithreadedGameServer: Введите число игроков в одной партии (от 1 до "
+                + Match.MAX_CAPACITY + "):");
         Scanner in = new Scanner(System.in);
         Integer parsedMaxPlayers = parseIntOrNull(in.nextLine());
-        while (parsedMaxPlayers == null || parsedMaxPlayers < 1 || parsedMaxPlayers > 2) {
-            System.out.println("MultithreadedGameServer: Некорректный ввод. Введите число 1 или 2.");
+        while (parsedMaxPlayers == null || parsedMaxPlayers < 1 || parsedMaxPlayers > Match.MAX_CAPACITY) {
+            System.out.println("MultithreadedGameServer: Некорректный ввод. Введите число от 1 до "
+                    + Match.MAX_CAPACITY + ".");
             parsedMaxPlayers = parseIntOrNull(in.nextLine());
         }
         maxPlayers = parsedMaxPlayers;
@@ -109,94 +169,215 @@ public class MultithreadedGameServer {
 
     private static void initializeConcurrentFields() {
         allClients = ConcurrentHashMap.newKeySet();
+        runningMatches = new ConcurrentHashMap<>();
     }
 
     /**
-     * Основной метод сервера.
-     * Здесь для каждого сокета создается отдельный поток.
+     * Применение параметров запуска.
+     * Не заданные параметры запрашиваются через консольный диалог.
      *
-     * @param args
+     * @param config параметры запуска
      */
-    public static void main(String[] args) {
+    static void configure(ServerConfig config) {
         initializeConcurrentFields();
-        readMaxPlayers();
-        readMaxSeconds();
+        if (config.getMaxPlayers() != null && config.getMaxPlayers() >= 1
+                && config.getMaxPlayers() <= Match.MAX_CAPACITY) {
+            maxPlayers = config.getMaxPlayers();
+        } else {
+            readMaxPlayers();
+        }
+        if (config.getMaxSeconds() != null) {
+            maxSeconds = config.getMaxSeconds();
+        } else {
+            readMaxSeconds();
+        }
+        matchMaker = MatchMaker.create(config, maxPlayers, maxSeconds);
+        ServerLog.get().setLevel(config.getLogLevel());
+        admission = new AdmissionController(config);
+    }
 
+    /**
+     * Основной метод сервера.
+     * Здесь для каждого сокета создается отдельный поток
+     * (при engine=virtual - виртуальный поток,
+     * при engine=nio подключения обслуживаются несколькими потоками с Selector).
+     *
+     * @param args параметры вида ключ=значение, см. {@link ServerConfig}
+     */
+    public static void main(String[] args) {
         // Порт 5000, как в ТЗ.
         // Его можно изменять через параметры консольной команды.
-        int serverPort = 5000;
-        if (args.length > 0) {
-            serverPort = Integer.parseInt(args[0]);
+        ServerConfig config;
+        try {
+            config = ServerConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            ServerLog.get().warn(LOG_SOURCE, "{}", e.getMessage());
+            ServerLog.get().flush(LOG_FLUSH_MILLIS);
+            return;
         }
+        configure(config);
+        int serverPort = config.getPort();
+        GameServerMetrics.get().setConnectedClients(() -> allClients.size());
+        GameServerMetrics.get().register();
 
         try {
             // Секция настройки базы данных.
             DbConnUtils.initializeConnection();
+            openReplayLog(config);
+
+            ServerLog.get().info(LOG_SOURCE, "Ожидание клиентов на порт {} ...", serverPort);
+
+            if (config.getEngine() == ServerConfig.Engine.NIO) {
+                nioServer = new NioGameServer(config);
+                nioServer.start();
+                startLoadReporter(config, nioServer.getPort());
+                // Запускается отдельный поток, слушающий команду для остановки сервера.
+                new Thread(new ServerStopper()).start();
+                nioServer.awaitTermination();
+                return;
+            }
 
-            System.out.println("MultithreadedGameServer: Ожидание клиентов на порт " + serverPort + " ...");
-            int i = 1;
             serverSocket = new ServerSocket(serverPort);
+            startLoadReporter(config, serverSocket.getLocalPort());
+            if (config.getEngine() == ServerConfig.Engine.VIRTUAL) {
+                handlerExecutor = VirtualThreads.newPerTaskExecutor();
+            }
 
             // Запускается отдельный поток, слушающий команду для остановки сервера.
             new Thread(new ServerStopper()).start();
 
-            // Бесконечный цикл приема клиентов.
-            while (true) {
-                Socket incoming = serverSocket.accept();
-                // Для каждого клиента создается свой поток.
-                if (activeClients.size() == maxPlayers) {
-                    System.out.println("MultithreadedGameServer: Максимальное количество игроков достигнуто, " +
-                            "игрок не будет включен.");
-                    incoming.close();
-                } else {
-                    ThreadedClientHandler client = new ThreadedClientHandler(i, incoming);
-                    allClients.add(client);
-                    Thread t = new Thread(client);
-                    t.start();
-                    i++;
-                }
-            }
+            acceptClients(serverSocket, config);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (SocketException e) {
             // Здесь SocketException игнорируется при вызове close из ServerStopper.
             if (!e.getMessage().contains("closed")) {
-                e.printStackTrace();
+                ServerLog.get().error(LOG_SOURCE, "Ошибка приема подключений.", e);
             }
         } catch (SQLException e) {
             handleDbException(e);
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLog.get().error(LOG_SOURCE, "Ошибка приема подключений.", e);
         } finally {
             // После остановки сервера нужно:
             // Отключить всех клиентов, закрыть все сокеты.
             disconnectClients();
+            if (handlerExecutor != null) {
+                handlerExecutor.shutdown();
+            }
             // Закрыть подключение к БД.
             cleanResources();
+            ServerLog.get().flush(LOG_FLUSH_MILLIS);
             System.out.println("MultithreadedGameServer: Введите любое сообщение для выхода...");
             new Scanner(System.in).nextLine();
         }
     }
 
+    /**
+     * Бесконечный цикл приема клиентов при engine=threads и engine=virtual.
+     * Завершается исключением SocketException, когда серверный сокет закрыт.
+     *
+     * @param socket серверный сокет
+     * @param config параметры запуска
+     * @throws IOException в случае ошибки приема подключения
+     */
+    static void acceptClients(ServerSocket socket, ServerConfig config) throws IOException {
+        while (true) {
+            Socket incoming = socket.accept();
+            if (!admission.tryAdmit()) {
+                rejectConnection(incoming);
+                continue;
+            }
+            configureSocket(incoming, config);
+            // Для каждого клиента создается свой поток.
+            ThreadedClientHandler client = new ThreadedClientHandler(nextPlayerIndex.getAndIncrement(), incoming);
+            if (handlerExecutor != null) {
+                handlerExecutor.execute(client);
+            } else {
+                Thread t = new Thread(client);
+                t.start();
+            }
+        }
+    }
+
+    /**
+     * Закрытие подключения сверх лимита: сразу сбросом (RST), без ожидания в TIME_WAIT,
+     * чтобы при наплыве переподключений отказ стоил как можно меньше.
+     */
+    static void rejectConnection(Socket socket) {
+        try {
+            socket.setSoLinger(true, 0);
+            socket.close();
+        } catch (IOException ignored) {
+            // Клиент уже отключился.
+        }
+    }
+
+    /**
+     * Параметры сокета клиента из конфигурации (TCP_NODELAY и размеры буферов).
+     */
+    static void configureSocket(Socket socket, ServerConfig config) throws IOException {
+        socket.setTcpNoDelay(config.isTcpNoDelay());
+        if (config.getSendBufferBytes() > 0) {
+            socket.setSendBufferSize(config.getSendBufferBytes());
+        }
+        if (config.getReceiveBufferBytes() > 0) {
+            socket.setReceiveBufferSize(config.getReceiveBufferBytes());
+        }
+    }
+
+    private static void startLoadReporter(ServerConfig config, int clientPort) {
+        if (config.getRouter() == null) {
+            return;
+        }
+        try {
+            loadReporter = new LoadReporter(LoadReporter.parseAddress(config.getRouter()), clientPort).start();
+        } catch (IllegalArgumentException e) {
+            ServerLog.get().warn(LOG_SOURCE, "{} Сервер работает без маршрутизатора.", e.getMessage());
+        }
+    }
+
+    private static void openReplayLog(ServerConfig config) {
+        if (config.getReplayDir() == null) {
+            return;
+        }
+        try {
+            replayLog = ReplayLog.open(Path.of(config.getReplayDir()), ReplayLog.DEFAULT_SEGMENT_BYTES);
+            Match.continueMatchIds(replayLog.getLastMatchId());
+            ServerLog.get().info(LOG_SOURCE, "Партии записываются в каталог {}.", config.getReplayDir());
+        } catch (IOException e) {
+            ServerLog.get().warn(LOG_SOURCE, "Не удалось открыть журнал партий, партии не записываются. {}",
+                    e.getMessage());
+        }
+    }
+
     public static void handleDbException(Exception e) {
-        // Для дебага можно использовать e.printStackTrace();
-        // В игре все ошибки будут выводиться на консоль еще в классе DbConnUtils.
-        System.out.println("MultithreadedGameServer: Ошибка при работе с базой данных. Сервер будет остановлен.");
+        ServerLog.get().error(LOG_SOURCE, "Ошибка при работе с базой данных. Сервер будет остановлен.", e);
         stopServer();
-        System.out.println("MultithreadedGameServer: Выполните инструкции от DbConnUtils, описанные выше " +
-                "и перезапустите сервер.");
+        ServerLog.get().warn(LOG_SOURCE, "Выполните инструкции от DbConnUtils, описанные выше "
+                + "и перезапустите сервер.");
     }
 
     /**
      * Останавливает работу сервера.
      */
     public static void stopServer() {
+        if (loadReporter != null) {
+            loadReporter.stop();
+        }
         try {
             if (serverSocket != null) {
                 serverSocket.close();
             }
+            if (nioServer != null) {
+                nioServer.close();
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLog.get().error(LOG_SOURCE, "Ошибка при остановке сервера.", e);
         }
-        System.out.println("MultithreadedGameServer: Остановлен.");
+        ServerLog.get().info(LOG_SOURCE, "Остановлен.");
+        // Журнал выводится до следующих подсказок в консоли.
+        ServerLog.get().flush(LOG_FLUSH_MILLIS);
     }
 
     /**
@@ -205,13 +386,13 @@ public class MultithreadedGameServer {
     public static void disconnectClients() {
         allClients.forEach(client -> {
             try {
-                client.stopClient();
+                client.stop();
             } catch (IOException e) {
-                e.printStackTrace();
+                ServerLog.get().error(LOG_SOURCE, "Не удалось отключить клиента.", e);
             }
         });
         allClients.clear();
-        System.out.println("MultithreadedGameServer: Все клиенты отключены.");
+        ServerLog.get().info(LOG_SOURCE, "Все клиенты отключены.");
     }
 
     /**
@@ -219,25 +400,42 @@ public class MultithreadedGameServer {
      * Закрывает подключение к БД.
      */
     private static void cleanResources() {
+        // Уже принятые запросы к БД дописываются до закрытия подключения.
+        dbExecutor.shutdown();
+        try {
+            dbExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         DbConnUtils.closeConnection();
-        System.out.println("MultithreadedGameServer: Все ресурсы очищены.");
+        try {
+            replayLog.close();
+        } catch (IOException e) {
+            ServerLog.get().error(LOG_SOURCE, "Не удалось закрыть журнал партий.", e);
+        }
+        ServerLog.get().info(LOG_SOURCE, "Все ресурсы очищены.");
     }
 
     /**
      * Класс, представляющий собой одно подключение серверного сокета.
-     * На деле используется еще и как сам пользователь: хранит информацию о параметрах игрока и результате игры.
+     * Читает сообщения клиента в своем потоке и передает их в {@link GameSession}.
+     * <p>
+     * Поддерживает два формата подключения: старый (один ObjectOutputStream на все соединение)
+     * и новый, с приветствием и кадрами (см. {@link WireProtocol}).
+     * Формат определяется по первым байтам от клиента.
+     * <p>
+     * Ответы своему клиенту поток чтения пишет в сокет сам. Сообщения из других потоков
+     * (ответ на begin от партнера, итог партии по часам, ответы потока БД, события для зрителей)
+     * только ставятся в очередь, а отправляет ее задача записи: так клиент, который не читает ответы,
+     * не останавливает чужие потоки. Очередь ограничена maxOutboundBytes, как и в engine=nio.
      */
-    private static class ThreadedClientHandler implements Runnable {
-
+    private static class ThreadedClientHandler implements Runnable, ClientConnection {
         /**
-         * Объект для блокировки списка фигур для синхронизации доступа.
+         * Оценка размера сообщения старого клиента в очереди: его размер в ObjectOutputStream заранее неизвестен.
          */
-        private final Object figuresLock = new Object();
+        private static final int LEGACY_MESSAGE_BYTES = 256;
 
-        // Параметры пользователя.
-        private final int playerIndex;
-        private String playerName;
-        private int nextFigureIndex;
+        private final GameSession session;
 
         private final Socket incoming;
         // Потоки ввода-вывода.
@@ -245,11 +443,33 @@ public class MultithreadedGameServer {
         OutputStream outStream;
         ObjectInputStream objIn;
         ObjectOutputStream objOut;
-
-        // Поля - результаты игры.
-        // Нужны для определения победителя.
-        private int finalNumberOfFigures;
-        private long finalElapsedSeconds;
+        /**
+         * Подключение с кадрами (null для старых клиентов).
+         */
+        FramedConnection framed;
+        byte version;
+        private final ReentrantLock sendLock = new ReentrantLock();
+        private boolean handshakeCompleted;
+        /**
+         * Поток чтения этого клиента. Пока он обрабатывает пачку сообщений (batching),
+         * его ответы только пишутся в буфер и уходят одной записью в конце пачки.
+         * Сравнивается с текущим потоком в чужих потоках, поэтому volatile:
+         * все, что отправляет не он, идет через очередь.
+         */
+        private volatile Thread reader;
+        private boolean batching;
+        private boolean batched;
+        /**
+         * Очередь сообщений из других потоков: кадры (byte[]) или, для старых клиентов, сами сообщения.
+         */
+        private final ArrayDeque<Object> outbound = new ArrayDeque<>();
+        private final ReentrantLock outboundLock = new ReentrantLock();
+        /**
+         * Объем очереди вместе с сообщениями, которые задача записи уже взяла, но еще не отправила.
+         */
+        private long outboundBytes;
+        private boolean writerScheduled;
+        private volatile boolean closed;
 
         /**
          * Конструирование обработчика.
@@ -258,233 +478,320 @@ public class MultithreadedGameServer {
          * @param socket
          */
         ThreadedClientHandler(int playerIndex, Socket socket) {
-            this.playerIndex = playerIndex;
             incoming = socket;
-            nextFigureIndex = figures.size();
+            session = new GameSession(playerIndex, this);
+            allClients.add(session);
         }
 
         /**
-         * Основной метод для прослушивания запросов от клиента.
+         * Первоначальная настройка потоков ввода-вывода.
+         * Старый клиент сразу начинает поток ObjectOutputStream (0xACED),
+         * новый - присылает приветствие с версией протокола.
          */
-        public void run() {
-            try {
-                try {
-                    // Первоначальная настройка потоков ввода-вывода.
-                    inStream = incoming.getInputStream();
-                    outStream = incoming.getOutputStream();
-                    objOut = new ObjectOutputStream(outStream);
-                    objIn = new ObjectInputStream(inStream);
-
-                    GeneralPackage clientMessage;
-                    while (true) {
-                        clientMessage = (GeneralPackage) objIn.readObject();
-                        // Все сообщения (от клиента и от сервера) - производные от класса GeneralPackage.
-                        switch (clientMessage.type) {
-                            case "top" -> topGamesCommand();
-                            case "name" -> playerName = ((NamePackage) clientMessage).name;
-                            case "begin" -> beginCommand();
-                            case "end" -> endCommand((GameStatPackage) clientMessage);
-                            case "figure" -> figureCommand();
-                            // Это ежесекундный вопрос от клиента
-                            // для проверки некорректного выхода другого пользователя из игры.
-                            case "is unexpected exit" -> {
-                                if (isUnexpectedGameEnd.get() && maxPlayers == 2) {
-                                    objOut.writeObject(new BoolPackage(true));
-                                    objOut.flush();
-                                } else {
-                                    objOut.writeObject(new BoolPackage(false));
-                                    objOut.flush();
-                                }
-                            }
-                            // Это сообщение отправляется в случае корректного выхода клиента.
-                            case "exit" -> {
-                                isUnexpectedGameEnd.set(false);
-                                activeClients.remove(playerIndex);
-                                allClients.remove(this);
-                            }
-                        }
-                    }
+        private void openStreams() throws IOException {
+            // Молчащий клиент не держит поток дольше времени ожидания (SocketTimeoutException).
+            incoming.setSoTimeout((int) TimeUnit.NANOSECONDS.toMillis(admission.getHandshakeNanos()));
+            inStream = new BufferedInputStream(incoming.getInputStream());
+            outStream = incoming.getOutputStream();
+            inStream.mark(2);
+            int first = inStream.read();
+            int second = inStream.read();
+            inStream.reset();
+            if (first == -1 || second == -1) {
+                throw new EOFException();
+            }
+            if ((first << 8 | second) == WireProtocol.JAVA_STREAM_MAGIC) {
+                objOut = new ObjectOutputStream(outStream);
+                objIn = new ObjectInputStream(inStream);
+            } else {
+                version = WireProtocol.readHello(new DataInputStream(inStream));
+                PackageCodec codec = WireProtocol.codecFor(version);
+                if (codec == null) {
+                    throw new IOException("MultithreadedGameServer: Неизвестная версия протокола " + version + ".");
+                }
+                framed = new FramedConnection(inStream, outStream, codec);
+            }
+            handshakeCompleted = true;
+            admission.handshakeCompleted();
+            incoming.setSoTimeout((int) TimeUnit.NANOSECONDS.toMillis(admission.getIdleNanos()));
+        }
+
+        private Object receive() throws IOException, ClassNotFoundException {
+            return framed != null ? framed.receive() : objIn.readObject();
+        }
 
-                } catch (EOFException ignored) {
-                    // Исключение возникает, когда в потоке больше не осталось информации.
-                    // Это нормально. Если бы я использовал BufferedStream,
-                    // я бы мог воспользоваться in.hasNextLine() или подобным без исключений.
-                } catch (SocketException e) {
-                    // Если сокет был закрыт - это сделал сам сервер, все нормально.
-                    // Также пользователь может убить свое приложение (task kill).
-                    if (!(e.getMessage().contains("Socket closed") || e.getMessage().contains("Connection reset"))) {
-                        e.printStackTrace();
+        /**
+         * Отправка из потока чтения - сразу (или в конце пачки),
+         * из других потоков - через очередь (см. {@link #enqueue(Object, boolean)}).
+         */
+        @Override
+        public void send(Object message) throws IOException {
+            if (Thread.currentThread() != reader) {
+                enqueue(framed != null ? framed.encode(message) : message, false);
+                return;
+            }
+            boolean deferFlush = batching;
+            if (framed != null) {
+                if (deferFlush) {
+                    framed.sendWithoutFlush(message);
+                } else {
+                    framed.send(message);
+                }
+            } else {
+                sendLock.lock();
+                try {
+                    objOut.writeObject(message);
+                    if (!deferFlush) {
+                        objOut.flush();
                     }
-                } catch (ClassNotFoundException e) {
-                    e.printStackTrace();
                 } finally {
-                    stopClient();
-                    allClients.remove(this);
-                    if (activeClients.containsKey(playerIndex)) {
-                        activeClients.remove(playerIndex);
-                        if (playerName != null) {
-                            System.out.println("MultithreadedGameServer: Игрок " + playerName
-                                    + " некорректно завершил игру.");
-                        }
-                        isUnexpectedGameEnd.set(true);
-                    } else {
-                        if (playerName != null) {
-                            System.out.println("MultithreadedGameServer: Игрок " + playerName + " вышел.");
-                        }
-                    }
+                    sendLock.unlock();
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+            }
+            if (deferFlush) {
+                batched = true;
+            } else {
+                GameServerMetrics.get().socketWrite();
             }
         }
 
         /**
-         * Останавливает клиента: закрывает сокет и все открытые потоки.
-         *
-         * @throws IOException
+         * Остались ли уже пришедшие от клиента байты (следующие сообщения пачки).
+         * Для старых клиентов ObjectInputStream мог забрать их в свой буфер,
+         * тогда ответы просто уходят после каждого сообщения, как раньше.
          */
-        private void stopClient() throws IOException {
-            try {
-                inStream.close();
-                outStream.close();
-                objIn.close();
-                objOut.close();
-                incoming.close();
-            } catch (SocketException e) {
-                if (!e.getMessage().contains("closed")) {
-                    throw e;
-                }
-            }
+        private boolean hasPendingInput() throws IOException {
+            return framed != null ? framed.hasPendingInput() : inStream.available() > 0;
         }
 
         /**
-         * Пришел запрос top - запрос на получение ТОП 10 игр.
-         *
-         * @throws IOException
+         * Конец пачки: накопленные ответы уходят одной записью.
          */
-        private void topGamesCommand() throws IOException {
-            try {
-                List<GameStatModel> topGames = DbConnUtils.getTopTenGameResults();
-                objOut.writeObject(new TopGamesPackage(topGames));
-                objOut.flush();
-            } catch (SQLException | InvalidGameStatException e) {
-                handleDbException(e);
+        private void flushBatch() throws IOException {
+            batching = false;
+            if (!batched) {
+                return;
             }
+            batched = false;
+            if (framed != null) {
+                framed.flush();
+            } else {
+                sendLock.lock();
+                try {
+                    objOut.flush();
+                } finally {
+                    sendLock.unlock();
+                }
+            }
+            GameServerMetrics.get().socketWrite();
         }
 
         /**
-         * Пришел запрос begin - игрок готов начать новую игру.
-         *
-         * @throws IOException
+         * Общий кадр ставится в очередь как есть, без копирования.
+         * Пропускаемое событие не ставится, если у клиента уже есть неотправленные сообщения.
          */
-        private void beginCommand() throws IOException {
-            nextFigureIndex = figures.size();
-            winnerIndex.set(-2);
-            // Поставить игрока в список текущих активных игроков.
-            activeClients.put(playerIndex, this);
-            // Игрок может перестать искать партнера и выйти.
-            while (activeClients.size() != maxPlayers && inStream.available() == 0) {
-                Thread.yield();
-            }
-            if (inStream.available() > 0) {
+        @Override
+        public void sendShared(SharedFrame frame) throws IOException {
+            if (Thread.currentThread() == reader) {
+                if (framed != null) {
+                    framed.sendEncoded(frame.frame(version));
+                } else {
+                    send(frame.message);
+                }
                 return;
             }
-            Optional<Integer> opponent = activeClients.keySet().stream().filter(c -> c != playerIndex).findFirst();
-            String name = opponent.isPresent() ? activeClients.get(opponent.get()).playerName : "----";
-            objOut.writeObject(new BeginToClientPackage(name, maxSeconds));
-            objOut.flush();
+            enqueue(framed != null ? frame.frame(version) : frame.message, frame.conflatable);
+        }
+
+        private static int sizeOf(Object item) {
+            return item instanceof byte[] frame ? frame.length : LEGACY_MESSAGE_BYTES;
         }
 
         /**
-         * Пришел запрос end - игрок нажал на кнопку "END GAME"
-         * и хочет получить результаты игры.
-         *
-         * @param clientMessage
-         * @throws IOException
+         * Постановка сообщения из другого потока в очередь. Поток не ждет записи в сокет:
+         * ее выполняет задача записи, которая запускается, если еще не запущена.
+         * Если очередь превысила лимит, клиент не читает ответы и подключение закрывается.
          */
-        private void endCommand(GameStatPackage clientMessage) throws IOException {
-            // В любом случае добавляется новая запись о результатах игры в БД.
+        private void enqueue(Object item, boolean conflatable) {
+            int size = sizeOf(item);
+            boolean evict = false;
+            boolean schedule = false;
+            outboundLock.lock();
             try {
-                DbConnUtils.insertGameResults(
-                        new GameStatModel(playerName,
-                                clientMessage.endTime,
-                                clientMessage.numberOfFigures,
-                                clientMessage.elapsedSeconds));
-            } catch (SQLException | InvalidGameStatException e) {
-                handleDbException(e);
+                if (closed) {
+                    return;
+                }
+                if (conflatable && outboundBytes > 0) {
+                    GameServerMetrics.get().frameConflated();
+                    return;
+                }
+                if (outboundBytes + size > admission.getMaxOutboundBytes()) {
+                    evict = true;
+                } else {
+                    outbound.add(item);
+                    outboundBytes += size;
+                    schedule = !writerScheduled;
+                    writerScheduled = true;
+                }
+            } finally {
+                outboundLock.unlock();
+            }
+            if (evict) {
+                GameServerMetrics.get().slowConsumerEvicted();
+                ServerLog.get().warn(LOG_SOURCE, "Клиент не успевает читать ответы, подключение закрыто.");
+                closeQuietly();
+            } else if (schedule) {
+                (handlerExecutor != null ? handlerExecutor : clientWriters).execute(this::drainOutbound);
             }
+        }
 
-            if (maxPlayers == 1) {
-                // Один человек всегда выигрывает.
-                objOut.writeObject(new WonLosePackage("WON"));
-                objOut.flush();
-            } else if (maxPlayers == 2) {
-                finalNumberOfFigures = clientMessage.numberOfFigures;
-                finalElapsedSeconds = clientMessage.elapsedSeconds;
-
-                if (winnerIndex.get() == -2) {
-                    winnerIndex.set(-1);
-                    // Первый завершивший игру ждет партнера.
-                    // В это время партнер может закрыть приложение,
-                    // тогда первый автоматически становится победителем.
-                    while (winnerIndex.get() == -1 && !(isUnexpectedGameEnd.get())) {
-                        Thread.yield();
-                    }
-                    if (isUnexpectedGameEnd.get()) {
-                        isUnexpectedGameEnd.set(false);
-                        objOut.writeObject(new WonLosePackage("WON"));
-                        objOut.flush();
+        /**
+         * Задача записи: отправляет очередь пачками (одна запись в сокет на пачку), пока она не опустеет.
+         * Объем пачки освобождается только после записи, поэтому зависшая запись
+         * не дает очереди расти: следующие сообщения упрутся в лимит.
+         */
+        private void drainOutbound() {
+            List<Object> batch = new ArrayList<>();
+            while (true) {
+                outboundLock.lock();
+                try {
+                    if (outbound.isEmpty() || closed) {
+                        outbound.clear();
+                        writerScheduled = false;
                         return;
                     }
-                    // В этот момент второй завершивший уже вычислил победителя.
-                    objOut.writeObject(new WonLosePackage(winnerIndex.get() == playerIndex ? "WON" : "LOSE"));
-                    objOut.flush();
-
-                } else if (winnerIndex.get() == -1) {
-                    // Второй завершивший игру определяет победителя.
-                    int maxFinalFigures = -1;
-                    long minFinalSeconds = Long.MAX_VALUE;
-                    int winnerIndexProbably = 666;
-                    // Проход по всем пользователям.
-                    // Первостепенный критерий: количество расставленных фигур (максимизация).
-                    // Второстепенный критерий: количество потраченного времени (минимизация).
-                    for (int i : activeClients.keySet()) {
-                        if (activeClients.get(i).finalNumberOfFigures > maxFinalFigures
-                                || (activeClients.get(i).finalNumberOfFigures == maxFinalFigures
-                                && activeClients.get(i).finalElapsedSeconds < minFinalSeconds)) {
-                            maxFinalFigures = activeClients.get(i).finalNumberOfFigures;
-                            minFinalSeconds = activeClients.get(i).finalElapsedSeconds;
-                            winnerIndexProbably = i;
+                    batch.addAll(outbound);
+                    outbound.clear();
+                } finally {
+                    outboundLock.unlock();
+                }
+                long written = 0;
+                try {
+                    if (framed != null) {
+                        for (Object frame : batch) {
+                            framed.sendEncodedWithoutFlush((byte[]) frame);
+                        }
+                        framed.flush();
+                    } else {
+                        sendLock.lock();
+                        try {
+                            for (Object message : batch) {
+                                objOut.writeObject(message);
+                            }
+                            objOut.flush();
+                        } finally {
+                            sendLock.unlock();
                         }
                     }
-                    winnerIndex.set(winnerIndexProbably);
-                    objOut.writeObject(new WonLosePackage(winnerIndex.get() == playerIndex ? "WON" : "LOSE"));
-                    objOut.flush();
+                    GameServerMetrics.get().socketWrite();
+                    for (Object item : batch) {
+                        written += sizeOf(item);
+                    }
+                } catch (IOException e) {
+                    if (!closed) {
+                        GameServerMetrics.get().socketError();
+                    }
+                    closeQuietly();
+                    return;
+                }
+                batch.clear();
+                outboundLock.lock();
+                try {
+                    outboundBytes -= written;
+                } finally {
+                    outboundLock.unlock();
+                }
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                close();
+            } catch (IOException ignored) {
+                // Подключение уже закрыто.
+            }
+        }
+
+        /**
+         * Основной метод для прослушивания запросов от клиента.
+         */
+        public void run() {
+            reader = Thread.currentThread();
+            try {
+                openStreams();
+                while (true) {
+                    // Ответы на begin и end могут быть отправлены позже из другого потока,
+                    // а этот поток сразу продолжает читать: так отмена поиска партнера
+                    // (следующее сообщение клиента) обрабатывается немедленно.
+                    GeneralPackage message = (GeneralPackage) receive();
+                    batching = true;
+                    session.onMessage(message);
+                    // Если клиент уже прислал следующие команды, ответы копятся до конца пачки.
+                    if (!hasPendingInput()) {
+                        flushBatch();
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                GameServerMetrics.get().idleEvicted();
+                ServerLog.get().info(LOG_SOURCE, "Клиент {} слишком долго молчит, подключение закрыто.",
+                        incoming.getRemoteSocketAddress());
+            } catch (EOFException ignored) {
+                // Исключение возникает, когда в потоке больше не осталось информации.
+                // Это нормально. Если бы я использовал BufferedStream,
+                // я бы мог воспользоваться in.hasNextLine() или подобным без исключений.
+            } catch (SocketException e) {
+                // Если сокет был закрыт - это сделал сам сервер, все нормально.
+                // Также пользователь может убить свое приложение (task kill).
+                if (!e.getMessage().contains("Socket closed")) {
+                    GameServerMetrics.get().socketError();
                 }
+                if (!(e.getMessage().contains("Socket closed") || e.getMessage().contains("Connection reset"))) {
+                    ServerLog.get().error(LOG_SOURCE, "Ошибка подключения клиента {}.",
+                            incoming.getRemoteSocketAddress(), e);
+                }
+            } catch (ClassCastException e) {
+                // Клиент прислал объект, который не является командой.
+                GameServerMetrics.get().socketError();
+                ServerLog.get().warn(LOG_SOURCE, "Некорректные данные от клиента {}, подключение закрыто. {}",
+                        incoming.getRemoteSocketAddress(), e.getMessage());
+            } catch (IOException | ClassNotFoundException e) {
+                GameServerMetrics.get().socketError();
+                ServerLog.get().error(LOG_SOURCE, "Ошибка подключения клиента {}.",
+                        incoming.getRemoteSocketAddress(), e);
+            } finally {
+                admission.released(handshakeCompleted);
+                session.onDisconnect();
             }
-            // При завершении одного раунда словарь clients должен быть пуст.
-            activeClients.remove(playerIndex);
         }
 
         /**
-         * Пришел запрос figure - запрос на получение новой фигуры.
+         * Останавливает клиента: закрывает сокет и все открытые потоки.
          *
          * @throws IOException
          */
-        private void figureCommand() throws IOException {
-            synchronized (figuresLock) {
-                // Если фигур не хватает - добавляем еще 5 штук.
-                // Больше, чем 1, меньше, чем 20.
-                if (MultithreadedGameServer.figures.size() == nextFigureIndex) {
-                    for (int i = 0; i < 5; i++) {
-                        MultithreadedGameServer.figures.add(new JigsawFigure(JigsawFigure.DEFAULT_FIGURE_NUM_CELLS, JigsawFigure.DEFAULT_FIGURE_NUM_CELLS));
-                    }
+        @Override
+        public void close() throws IOException {
+            // Закрытие сокета прерывает и зависшую запись задачи записи.
+            closed = true;
+            try {
+                if (inStream != null) {
+                    inStream.close();
+                }
+                if (outStream != null) {
+                    outStream.close();
+                }
+                if (objIn != null) {
+                    objIn.close();
+                }
+                if (objOut != null) {
+                    objOut.close();
+                }
+                incoming.close();
+            } catch (SocketException e) {
+                if (!e.getMessage().contains("closed")) {
+                    throw e;
                 }
-            }
-            synchronized (figuresLock) {
-                objOut.writeObject(MultithreadedGameServer.figures.get(nextFigureIndex++));
-                objOut.flush();
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,321 @@
+package jigsaw.server;
+
+import jigsaw.packagemodels.GeneralPackage;
+import jigsaw.protocol.PackageCodec;
+import jigsaw.protocol.WireProtocol;
+import jigsaw.server.log.ServerLog;
+import jigsaw.server.metrics.GameServerMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Одно подключение в {@link NioEventLoop}: разбирает кадры из неблокирующего канала
+ * и передает сообщения в {@link GameSession}, ответы ставит в очередь на запись.
+ * <p>
+ * Все методы, кроме {@link #send(Object)} и {@link #close()}, вызываются только в потоке цикла.
+ * <p>
+ * Подключение само следит за лимитами {@link AdmissionController}: молчащий клиент
+ * закрывается по часам {@link MultithreadedGameServer#connectionClock},
+ * а клиент, у которого скопилось слишком много неотправленных ответов, - сразу при отправке.
+ */
+final class NioConnection implements ClientConnection {
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final GameSession session;
+
+    /**
+     * Кодек версии протокола из приветствия (null, пока приветствие не получено).
+     */
+    private PackageCodec codec;
+    private byte version;
+    /**
+     * Пришедшие байты неполного кадра (null, если таких нет).
+     */
+    private ByteBuffer pending;
+    /**
+     * Кадры, ожидающие записи в канал.
+     */
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    /**
+     * Объем кадров в очереди на запись.
+     */
+    private int outboundBytes;
+    /**
+     * Подключение уже стоит в очереди цикла на отправку.
+     */
+    private boolean flushScheduled;
+    private volatile boolean closed;
+
+    // Проверка молчания выполняется в потоке часов, поэтому поля volatile.
+    private final AdmissionController admission = MultithreadedGameServer.admission;
+    private volatile long lastReadNanos = System.nanoTime();
+    private volatile boolean handshakeCompleted;
+    private volatile TimingWheel.Timeout idleCheck;
+
+    NioConnection(NioEventLoop loop, SocketChannel channel, SelectionKey key, int playerIndex) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        session = new GameSession(playerIndex, this);
+        MultithreadedGameServer.allClients.add(session);
+        long firstCheckNanos = admission.getHandshakeNanos() > 0
+                ? admission.getHandshakeNanos() : admission.getIdleNanos();
+        if (firstCheckNanos > 0) {
+            scheduleIdleCheck(firstCheckNanos);
+        }
+    }
+
+    private void scheduleIdleCheck(long delayNanos) {
+        idleCheck = MultithreadedGameServer.connectionClock.schedule(this::checkIdle, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Проверка молчания (в потоке часов). Сроки не переставляются на каждом сообщении:
+     * при срабатывании проверяется время последнего чтения, и если клиент что-то присылал,
+     * проверка ставится заново на оставшееся время.
+     */
+    private void checkIdle() {
+        if (closed) {
+            return;
+        }
+        long limit = handshakeCompleted ? admission.getIdleNanos() : admission.getHandshakeNanos();
+        long idle = System.nanoTime() - lastReadNanos;
+        if (limit > 0 && idle >= limit) {
+            GameServerMetrics.get().idleEvicted();
+            ServerLog.get().info(NioGameServer.LOG_SOURCE, "Клиент слишком долго молчит, подключение закрыто.");
+            close();
+            return;
+        }
+        // Без ограничения на текущем этапе проверка ждет следующего этапа.
+        scheduleIdleCheck(limit > 0 ? limit - idle : Math.max(admission.getHandshakeNanos(), admission.getIdleNanos()));
+    }
+
+    void onReadable() {
+        ByteBuffer buffer = loop.readBuffer();
+        buffer.clear();
+        try {
+            if (channel.read(buffer) == -1) {
+                closeQuietly();
+                return;
+            }
+        } catch (IOException e) {
+            // Клиент мог убить свое приложение (Connection reset).
+            GameServerMetrics.get().socketError();
+            closeQuietly();
+            return;
+        }
+        buffer.flip();
+        lastReadNanos = System.nanoTime();
+
+        ByteBuffer input = buffer;
+        if (pending != null) {
+            input = ByteBuffer.allocate(pending.remaining() + buffer.remaining());
+            input.put(pending).put(buffer).flip();
+        }
+        try {
+            decodeFrames(input);
+        } catch (IOException | ClassCastException e) {
+            GameServerMetrics.get().socketError();
+            ServerLog.get().warn(NioGameServer.LOG_SOURCE, "Некорректные данные от клиента, подключение закрыто. {}",
+                    e.getMessage());
+            closeQuietly();
+            return;
+        }
+        // Остаток неполного кадра сохраняется до следующего чтения.
+        if (closed || !input.hasRemaining()) {
+            pending = null;
+        } else {
+            pending = ByteBuffer.allocate(input.remaining());
+            pending.put(input).flip();
+        }
+    }
+
+    private void decodeFrames(ByteBuffer input) throws IOException {
+        while (!closed) {
+            if (codec == null) {
+                // Старый клиент присылает только 4 байта заголовка ObjectOutputStream и ждет,
+                // поэтому он узнается по первым двум байтам, не дожидаясь полного приветствия.
+                if (input.remaining() >= Short.BYTES
+                        && (input.getShort(input.position()) & 0xFFFF) == WireProtocol.JAVA_STREAM_MAGIC) {
+                    throw new IOException("Старый формат подключения (ObjectOutputStream) не поддерживается engine=nio.");
+                }
+                if (input.remaining() < WireProtocol.HELLO_LENGTH) {
+                    return;
+                }
+                if (input.getInt() != WireProtocol.MAGIC) {
+                    throw new IOException("Некорректное приветствие клиента.");
+                }
+                version = input.get();
+                codec = WireProtocol.codecFor(version);
+                if (codec == null) {
+                    throw new IOException("Неизвестная версия протокола " + version + ".");
+                }
+                handshakeCompleted = true;
+                admission.handshakeCompleted();
+                continue;
+            }
+            if (input.remaining() < Integer.BYTES) {
+                return;
+            }
+            int length = input.getInt(input.position());
+            WireProtocol.checkFrameLength(length);
+            if (input.remaining() < Integer.BYTES + length) {
+                return;
+            }
+            input.position(input.position() + Integer.BYTES);
+            byte[] frame = new byte[length];
+            input.get(frame);
+            session.onMessage((GeneralPackage) codec.decode(frame, 0, length));
+        }
+    }
+
+    @Override
+    public void send(Object message) throws IOException {
+        byte[] payload = codec.encode(message);
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + payload.length);
+        frame.putInt(payload.length).put(payload).flip();
+        if (loop.inEventLoop()) {
+            enqueue(frame);
+        } else {
+            loop.execute(() -> {
+                try {
+                    enqueue(frame);
+                } catch (IOException e) {
+                    closeQuietly();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void sendShared(SharedFrame shared) {
+        // Поток цикла - единственный, кто меняет очередь, поэтому решение о пропуске принимается в нем.
+        loop.execute(() -> {
+            if (closed) {
+                return;
+            }
+            if (shared.conflatable && !outbound.isEmpty()) {
+                GameServerMetrics.get().frameConflated();
+                return;
+            }
+            try {
+                enqueue(ByteBuffer.wrap(shared.frame(version)).asReadOnlyBuffer());
+            } catch (IOException e) {
+                GameServerMetrics.get().socketError();
+                closeQuietly();
+            }
+        });
+    }
+
+    private void enqueue(ByteBuffer frame) throws IOException {
+        if (closed) {
+            return;
+        }
+        if (outboundBytes + frame.remaining() > admission.getMaxOutboundBytes()) {
+            // Клиент не читает ответы: очередь не должна расти без предела.
+            GameServerMetrics.get().slowConsumerEvicted();
+            ServerLog.get().warn(NioGameServer.LOG_SOURCE, "Клиент не успевает читать ответы, подключение закрыто.");
+            closeQuietly();
+            return;
+        }
+        outboundBytes += frame.remaining();
+        outbound.add(frame);
+        if (!flushScheduled) {
+            // Запись откладывается до конца итерации цикла, чтобы ответы на пачку команд ушли вместе.
+            flushScheduled = true;
+            loop.scheduleFlush(this);
+        }
+    }
+
+    /**
+     * Отправка накопленного за итерацию цикла (вызывается циклом).
+     */
+    void flushScheduled() {
+        flushScheduled = false;
+        if (closed || (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+            // Канал заполнен: очередь допишется по готовности.
+            return;
+        }
+        onWritable();
+    }
+
+    /**
+     * Запись очереди в канал, пока он принимает данные: до {@link NioEventLoop#gatherBuffers()} кадров
+     * за один вызов. Если канал заполнен, запись продолжится по готовности (OP_WRITE).
+     */
+    private void flush() throws IOException {
+        ByteBuffer[] gather = loop.gatherBuffers();
+        try {
+            while (!outbound.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer frame : outbound) {
+                    if (count == gather.length) {
+                        break;
+                    }
+                    gather[count++] = frame;
+                }
+                channel.write(gather, 0, count);
+                GameServerMetrics.get().socketWrite();
+                while (!outbound.isEmpty() && !outbound.peek().hasRemaining()) {
+                    outboundBytes -= outbound.poll().capacity();
+                }
+                if (gather[count - 1].hasRemaining()) {
+                    // Канал принял не все: остаток допишется по готовности.
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } finally {
+            Arrays.fill(gather, 0, gather.length, null);
+        }
+    }
+
+    void onWritable() {
+        try {
+            flush();
+        } catch (IOException e) {
+            GameServerMetrics.get().socketError();
+            closeQuietly();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (loop.inEventLoop()) {
+            closeQuietly();
+        } else {
+            loop.execute(this::closeQuietly);
+        }
+    }
+
+    void closeQuietly() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        outbound.clear();
+        outboundBytes = 0;
+        // Подключение может остаться в очереди цикла на отправку: flushScheduled() проверит closed.
+        pending = null;
+        TimingWheel.Timeout check = idleCheck;
+        if (check != null) {
+            check.cancel();
+        }
+        admission.released(handshakeCompleted);
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Канал уже закрыт.
+        }
+        session.onDisconnect();
+    }
+}
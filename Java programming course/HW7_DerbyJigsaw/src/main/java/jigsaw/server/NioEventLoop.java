@@ -0,0 +1,169 @@
+package jigsaw.server;
+
+import jigsaw.server.log.ServerLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Один поток с Selector-ом, обслуживающий множество подключений.
+ * <p>
+ * Все действия с подключениями этого цикла (чтение, запись, обработка команд) выполняются
+ * только в его потоке, поэтому сами подключения не синхронизируются.
+ * Другие потоки передают работу через {@link #execute(Runnable)}.
+ * <p>
+ * Ответы не пишутся в канал сразу: подключение ставится в очередь на отправку,
+ * и в конце итерации цикла все, что накопилось за нее, уходит одной записью на подключение.
+ */
+final class NioEventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /**
+     * Общий буфер чтения: неполный кадр копируется в подключение,
+     * так что простаивающие подключения не держат собственных буферов.
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    /**
+     * Подключения, которым за текущую итерацию поставлены ответы.
+     */
+    private final ArrayDeque<NioConnection> pendingFlushes = new ArrayDeque<>();
+    /**
+     * Общий массив для записи нескольких кадров одним вызовом (gathering write).
+     */
+    private final ByteBuffer[] gatherBuffers = new ByteBuffer[64];
+    private final ServerConfig config;
+    private Thread thread;
+    private volatile boolean running = true;
+
+    NioEventLoop(ServerConfig config) throws IOException {
+        this.config = config;
+        selector = Selector.open();
+    }
+
+    /**
+     * Передача нового подключения этому циклу.
+     */
+    void register(SocketChannel channel, int playerIndex) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                MultithreadedGameServer.configureSocket(channel.socket(), config);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(this, channel, key, playerIndex);
+                key.attach(connection);
+            } catch (IOException e) {
+                ServerLog.get().error(NioGameServer.LOG_SOURCE, "Не удалось зарегистрировать подключение.", e);
+                MultithreadedGameServer.admission.released(false);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Канал уже закрыт.
+                }
+            }
+        });
+    }
+
+    /**
+     * Выполнение задачи в потоке цикла.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    ByteBuffer[] gatherBuffers() {
+        return gatherBuffers;
+    }
+
+    /**
+     * Отправка ответов подключения в конце текущей итерации.
+     */
+    void scheduleFlush(NioConnection connection) {
+        pendingFlushes.add(connection);
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        try {
+            while (running) {
+                // Ответы на begin и end приходят из других потоков через execute(),
+                // поэтому цикл спит до события, без периодической проверки.
+                selector.select();
+                runTasks();
+                processSelectedKeys();
+                flushPending();
+            }
+        } catch (IOException e) {
+            ServerLog.get().error(NioGameServer.LOG_SOURCE, "Цикл обработки остановлен из-за ошибки.", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void flushPending() {
+        NioConnection connection;
+        while ((connection = pendingFlushes.poll()) != null) {
+            connection.flushScheduled();
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            NioConnection connection = (NioConnection) key.attachment();
+            if (connection == null || !key.isValid()) {
+                continue;
+            }
+            if (key.isWritable()) {
+                connection.onWritable();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.onReadable();
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            NioConnection connection = (NioConnection) key.attachment();
+            if (connection != null) {
+                connection.closeQuietly();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            ServerLog.get().error(NioGameServer.LOG_SOURCE, "Не удалось закрыть Selector.", e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package jigsaw.server;
+
+import jigsaw.server.log.ServerLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сервер на неблокирующих каналах: вместо потока на каждого клиента
+ * все подключения обслуживаются небольшим фиксированным набором циклов {@link NioEventLoop}.
+ * <p>
+ * Подключение клиента, который ничего не делает, стоит только буфера сокета и нескольких объектов,
+ * поэтому один процесс может держать десятки тысяч подключенных игроков.
+ * Поддерживается только протокол с кадрами (см. {@link jigsaw.protocol.WireProtocol}).
+ */
+public class NioGameServer implements Closeable {
+    static final String LOG_SOURCE = "NioGameServer";
+
+    private final ServerConfig config;
+    private ServerSocketChannel serverChannel;
+    private NioEventLoop[] loops;
+    private Thread[] loopThreads;
+    private Thread acceptor;
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    public NioGameServer(ServerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Открытие порта и запуск потоков.
+     *
+     * @throws IOException если порт нельзя открыть
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.getPort()));
+
+        loops = new NioEventLoop[config.getEventLoops()];
+        loopThreads = new Thread[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop(config);
+            loopThreads[i] = new Thread(loops[i], "nio-event-loop-" + i);
+            loopThreads[i].setDaemon(true);
+            loopThreads[i].start();
+        }
+
+        // Прием подключений - в отдельном потоке, блокирующим accept.
+        // Новые каналы раздаются циклам по кругу.
+        acceptor = new Thread(this::acceptLoop, "nio-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        ServerLog.get().info(LOG_SOURCE, "Запущено циклов обработки: {}.", loops.length);
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        try {
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                if (!MultithreadedGameServer.admission.tryAdmit()) {
+                    MultithreadedGameServer.rejectConnection(channel.socket());
+                    continue;
+                }
+                loops[next].register(channel, MultithreadedGameServer.nextPlayerIndex.getAndIncrement());
+                next = (next + 1) % loops.length;
+            }
+        } catch (ClosedChannelException ignored) {
+            // Канал закрыт из close() - сервер останавливается.
+        } catch (IOException e) {
+            ServerLog.get().error(LOG_SOURCE, "Ошибка приема подключений.", e);
+        } finally {
+            terminated.countDown();
+        }
+    }
+
+    /**
+     * Порт, на котором сервер принимает подключения (полезно при port=0).
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Ожидание остановки сервера.
+     */
+    public void awaitTermination() throws InterruptedException {
+        terminated.await();
+    }
+
+    /**
+     * Остановка приема подключений и всех циклов.
+     * Подключения закрываются циклами; метод ждет, пока циклы завершатся
+     * (кроме цикла, из которого вызван: он завершится, вернувшись из текущей задачи).
+     */
+    @Override
+    public void close() throws IOException {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (loops == null) {
+            return;
+        }
+        for (NioEventLoop loop : loops) {
+            loop.shutdown();
+        }
+        try {
+            for (Thread loopThread : loopThreads) {
+                if (loopThread == Thread.currentThread()) {
+                    continue;
+                }
+                loopThread.join(TimeUnit.SECONDS.toMillis(5));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
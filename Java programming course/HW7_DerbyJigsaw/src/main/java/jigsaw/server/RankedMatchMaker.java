@@ -0,0 +1,276 @@
+package jigsaw.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Подбор партнеров по рейтингу ({@link GameSession#getRating()}).
+ * <p>
+ * Ожидающие игроки лежат в упорядоченной карте корзин рейтинга (ширина корзины - ratingBucket).
+ * Игроки одной корзины подходят друг другу сразу, а окно поиска каждого игрока
+ * расширяется на одну корзину за каждые rankWidenSeconds ожидания:
+ * два игрока подходят друг другу, если расстояние между их корзинами не больше окна хотя бы одного из них.
+ * <p>
+ * Поиск идет от корзины игрока сразу к ближайшим непустым корзинам (floorEntry/higherEntry в {@link TreeMap})
+ * и останавливается на первой корзине, в которой никто не подходит: дальше подходящих нет,
+ * иначе они подошли бы и этой корзине и партия уже набралась бы. Поэтому поиск стоит O(log n)
+ * на каждую просмотренную корзину, а корзин просматривается не больше, чем игроков в партии (плюс две).
+ * В одной корзине никогда не ждет больше игроков, чем нужно для партии, так что и корзины маленькие.
+ * <p>
+ * Окно игрока расширяется в известный момент, поэтому ожидающие игроки упорядочены еще и по этому сроку:
+ * повторный поиск запускается только для тех, чье окно только что расширилось.
+ * <p>
+ * Рейтинг читается из БД асинхронно, поэтому игрок может встать в очередь с рейтингом 0;
+ * когда рейтинг прочитан, игрок переходит в свою корзину, не теряя времени ожидания.
+ */
+final class RankedMatchMaker implements MatchMaker {
+    /**
+     * Место игрока в очереди.
+     */
+    private static final class Ticket {
+        final GameSession player;
+        final int bucket;
+        final long enqueuedNanos;
+        final CompletableFuture<Match> match;
+        /**
+         * Номер для порядка в {@link #deadlines} при одинаковых сроках.
+         */
+        final long sequence;
+        /**
+         * Когда окно поиска расширится в следующий раз (меняется только вне {@link #deadlines}).
+         */
+        long widenAtNanos;
+
+        Ticket(GameSession player, int bucket, long enqueuedNanos, CompletableFuture<Match> match,
+               long sequence, long widenAtNanos) {
+            this.player = player;
+            this.bucket = bucket;
+            this.enqueuedNanos = enqueuedNanos;
+            this.match = match;
+            this.sequence = sequence;
+            this.widenAtNanos = widenAtNanos;
+        }
+    }
+
+    private final int playersPerMatch;
+    private final int maxSeconds;
+    private final int ratingBucket;
+    private final long widenNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Ожидающие игроки по корзинам рейтинга.
+     */
+    private final TreeMap<Integer, ArrayDeque<Ticket>> buckets = new TreeMap<>();
+    /**
+     * Все ожидающие игроки.
+     */
+    private final Map<GameSession, Ticket> waiting = new HashMap<>();
+    /**
+     * Ожидающие игроки по сроку следующего расширения окна.
+     */
+    private final TreeSet<Ticket> deadlines = new TreeSet<>(Comparator
+            .comparingLong((Ticket ticket) -> ticket.widenAtNanos)
+            .thenComparingLong(ticket -> ticket.sequence));
+    private long nextSequence;
+    private boolean sweepScheduled;
+
+    RankedMatchMaker(int playersPerMatch, int maxSeconds, int ratingBucket, int rankWidenSeconds) {
+        this.playersPerMatch = playersPerMatch;
+        this.maxSeconds = maxSeconds;
+        this.ratingBucket = Math.max(1, ratingBucket);
+        this.widenNanos = TimeUnit.SECONDS.toNanos(Math.max(1, rankWidenSeconds));
+    }
+
+    @Override
+    public CompletableFuture<Match> join(GameSession player) {
+        long now = System.nanoTime();
+        List<Ticket> group;
+        Ticket ticket;
+        lock.lock();
+        try {
+            ticket = new Ticket(player, player.getRating() / ratingBucket, now, new CompletableFuture<>(),
+                    nextSequence++, now + widenNanos);
+            group = collectGroup(ticket, now);
+            if (group == null) {
+                enqueue(ticket);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (group != null) {
+            startMatch(group);
+        }
+        return ticket.match;
+    }
+
+    @Override
+    public void leave(GameSession player) {
+        lock.lock();
+        try {
+            Ticket ticket = waiting.get(player);
+            if (ticket != null) {
+                dequeue(ticket);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Перенос ожидающего игрока в корзину нового рейтинга и подбор партнеров в ней.
+     */
+    @Override
+    public void ratingChanged(GameSession player) {
+        List<Ticket> group;
+        lock.lock();
+        try {
+            Ticket old = waiting.get(player);
+            int bucket = player.getRating() / ratingBucket;
+            if (old == null || old.bucket == bucket) {
+                return;
+            }
+            dequeue(old);
+            // Время ожидания и срок расширения окна сохраняются.
+            Ticket moved = new Ticket(player, bucket, old.enqueuedNanos, old.match, old.sequence, old.widenAtNanos);
+            group = collectGroup(moved, System.nanoTime());
+            if (group == null) {
+                enqueue(moved);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (group != null) {
+            startMatch(group);
+        }
+    }
+
+    /**
+     * Окно поиска игрока в корзинах.
+     */
+    private long window(Ticket ticket, long now) {
+        return (now - ticket.enqueuedNanos) / widenNanos;
+    }
+
+    /**
+     * Подбор партнеров для игрока, которого нет в очереди (под блокировкой): ближайшие по рейтингу
+     * подходящие игроки. Найденные партнеры убираются из очереди.
+     *
+     * @return игроки партии вместе с anchor или null, если подходящих партнеров пока не хватает
+     */
+    private List<Ticket> collectGroup(Ticket anchor, long now) {
+        List<Ticket> group = new ArrayList<>(playersPerMatch);
+        group.add(anchor);
+        if (group.size() == playersPerMatch) {
+            return group;
+        }
+        long anchorWindow = window(anchor, now);
+        Map.Entry<Integer, ArrayDeque<Ticket>> lower = buckets.floorEntry(anchor.bucket);
+        Map.Entry<Integer, ArrayDeque<Ticket>> higher = buckets.higherEntry(anchor.bucket);
+        while (lower != null || higher != null) {
+            boolean takeLower = higher == null
+                    || lower != null && anchor.bucket - lower.getKey() <= higher.getKey() - anchor.bucket;
+            Map.Entry<Integer, ArrayDeque<Ticket>> entry = takeLower ? lower : higher;
+            long distance = Math.abs((long) entry.getKey() - anchor.bucket);
+            boolean matched = false;
+            for (Ticket candidate : entry.getValue()) {
+                if (distance <= Math.max(anchorWindow, window(candidate, now))) {
+                    matched = true;
+                    group.add(candidate);
+                    if (group.size() == playersPerMatch) {
+                        for (int i = 1; i < group.size(); i++) {
+                            dequeue(group.get(i));
+                        }
+                        return group;
+                    }
+                }
+            }
+            // Кто не подошел ближней корзине, не подойдет и дальней:
+            // ни окно anchor, ни окна ожидающих ее не покрывают.
+            boolean exhausted = !matched && distance > anchorWindow;
+            if (takeLower) {
+                lower = exhausted ? null : buckets.lowerEntry(entry.getKey());
+            } else {
+                higher = exhausted ? null : buckets.higherEntry(entry.getKey());
+            }
+        }
+        return null;
+    }
+
+    private void enqueue(Ticket ticket) {
+        buckets.computeIfAbsent(ticket.bucket, bucket -> new ArrayDeque<>()).add(ticket);
+        waiting.put(ticket.player, ticket);
+        deadlines.add(ticket);
+        scheduleSweep();
+    }
+
+    private void dequeue(Ticket ticket) {
+        waiting.remove(ticket.player);
+        deadlines.remove(ticket);
+        ArrayDeque<Ticket> queue = buckets.get(ticket.bucket);
+        queue.remove(ticket);
+        if (queue.isEmpty()) {
+            buckets.remove(ticket.bucket);
+        }
+    }
+
+    private void startMatch(List<Ticket> group) {
+        Match match = new Match(playersPerMatch, maxSeconds);
+        for (Ticket ticket : group) {
+            match.addPlayer(ticket.player);
+        }
+        match.start();
+        for (Ticket ticket : group) {
+            ticket.match.complete(match);
+        }
+    }
+
+    /**
+     * Запуск проверки к ближайшему сроку расширения окна (под блокировкой).
+     */
+    private void scheduleSweep() {
+        if (!sweepScheduled && !deadlines.isEmpty()) {
+            sweepScheduled = true;
+            long delay = Math.max(0, deadlines.first().widenAtNanos - System.nanoTime());
+            MultithreadedGameServer.matchClock.schedule(this::sweep, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Повторный подбор (в потоке часов) только для игроков, чье окно поиска расширилось.
+     */
+    private void sweep() {
+        List<List<Ticket>> groups = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            while (!deadlines.isEmpty() && deadlines.first().widenAtNanos <= now) {
+                Ticket ticket = deadlines.first();
+                dequeue(ticket);
+                List<Ticket> group = collectGroup(ticket, now);
+                if (group != null) {
+                    groups.add(group);
+                } else {
+                    ticket.widenAtNanos = ticket.enqueuedNanos + (window(ticket, now) + 1) * widenNanos;
+                    enqueue(ticket);
+                }
+            }
+            // Пока идет проход, enqueue не планирует новых проверок.
+            sweepScheduled = false;
+            scheduleSweep();
+        } finally {
+            lock.unlock();
+        }
+        for (List<Ticket> group : groups) {
+            startMatch(group);
+        }
+    }
+}
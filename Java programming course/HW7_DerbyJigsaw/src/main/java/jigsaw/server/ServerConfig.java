@@ -0,0 +1,351 @@
+package jigsaw.server;
+
+import jigsaw.server.log.ServerLog;
+
+/**
+ * Параметры запуска сервера.
+ * <p>
+ * Передаются аргументами командной строки вида {@code ключ=значение}, например:
+ * {@code java -jar server.jar port=5000 engine=nio maxPlayers=2 maxSeconds=60}.
+ * Для совместимости первый аргумент может быть просто номером порта.
+ * Не указанные maxPlayers (от 1 до 64) и maxSeconds запрашиваются через консольный диалог.
+ * <p>
+ * Защита от перегрузки: maxConnections и maxHandshakes ограничивают число подключений
+ * и подключений, еще не приславших приветствие; handshakeSeconds и idleSeconds - время молчания клиента
+ * до и после приветствия (0 - без ограничения); maxOutboundBytes - объем неотправленных ответов
+ * одному клиенту (при engine=threads и virtual - сообщений, отправленных ему из чужих потоков).
+ * <p>
+ * replayDir - каталог журнала партий (none - не записывать).
+ * router - управляющий адрес входного маршрутизатора host:port (см. {@link jigsaw.router.FrontRouter}),
+ * которому сервер отправляет отчеты о нагрузке.
+ * <p>
+ * Параметры сокетов клиентов: tcpNoDelay (true/false), sendBufferBytes и receiveBufferBytes
+ * (0 - размер по умолчанию операционной системы).
+ * <p>
+ * matchmaking - подбор партнеров: fifo (по очереди) или ranked (по рейтингу из истории игр,
+ * см. {@link RankedMatchMaker}); ratingBucket - ширина корзины рейтинга,
+ * rankWidenSeconds - через сколько секунд ожидания окно поиска расширяется на одну корзину.
+ * <p>
+ * logLevel - минимальный уровень сообщений журнала сервера: debug, info, warn или error
+ * (см. {@link jigsaw.server.log.ServerLog}).
+ */
+public class ServerConfig {
+    /**
+     * Способ обработки подключений.
+     */
+    public enum Engine {
+        /**
+         * Отдельный поток на каждое подключение (как разбирали на лекции).
+         */
+        THREADS,
+        /**
+         * Несколько потоков с Selector, обслуживающих все подключения.
+         */
+        NIO,
+        /**
+         * Тот же код, что и THREADS, но каждый обработчик работает в виртуальном потоке.
+         */
+        VIRTUAL
+    }
+
+    /**
+     * Способ подбора партнеров.
+     */
+    public enum Matchmaking {
+        /**
+         * Первые ожидающие игроки попадают в одну партию.
+         */
+        FIFO,
+        /**
+         * Партнеры подбираются по рейтингу, с расширением окна поиска со временем ожидания.
+         */
+        RANKED
+    }
+
+    private int port = 5000;
+    private Engine engine = Engine.THREADS;
+    private Integer maxPlayers;
+    private Integer maxSeconds;
+    private int eventLoops = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private int maxConnections = 10_000;
+    private int maxHandshakes = 256;
+    private int handshakeSeconds = 10;
+    private int idleSeconds = 600;
+    private int maxOutboundBytes = 1024 * 1024;
+    private String replayDir = "replay";
+    private String router;
+    private boolean tcpNoDelay = true;
+    private int sendBufferBytes;
+    private int receiveBufferBytes;
+    private Matchmaking matchmaking = Matchmaking.FIFO;
+    private int ratingBucket = 10;
+    private int rankWidenSeconds = 5;
+    private ServerLog.Level logLevel = ServerLog.Level.INFO;
+
+    /**
+     * Разбор аргументов командной строки.
+     *
+     * @param args аргументы
+     * @return параметры
+     * @throws IllegalArgumentException при неизвестном ключе или некорректном значении
+     */
+    public static ServerConfig parse(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            int separator = arg.indexOf('=');
+            if (separator == -1) {
+                if (i == 0) {
+                    config.port = parseInt("port", arg);
+                    continue;
+                }
+                throw new IllegalArgumentException("ServerConfig: Аргумент " + arg + " должен иметь вид ключ=значение.");
+            }
+            config.set(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return config;
+    }
+
+    private void set(String key, String value) {
+        switch (key) {
+            case "port" -> port = parseInt(key, value);
+            case "engine" -> {
+                try {
+                    engine = Engine.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("ServerConfig: Неизвестный способ обработки подключений " + value + ".");
+                }
+            }
+            case "maxPlayers" -> maxPlayers = parseInt(key, value);
+            case "maxSeconds" -> maxSeconds = parseInt(key, value);
+            case "eventLoops" -> eventLoops = parseInt(key, value);
+            case "maxConnections" -> maxConnections = parseInt(key, value);
+            case "maxHandshakes" -> maxHandshakes = parseInt(key, value);
+            case "handshakeSeconds" -> handshakeSeconds = parseInt(key, value);
+            case "idleSeconds" -> idleSeconds = parseInt(key, value);
+            case "maxOutboundBytes" -> maxOutboundBytes = parseInt(key, value);
+            case "replayDir" -> replayDir = value;
+            case "router" -> router = value;
+            case "tcpNoDelay" -> {
+                if (!value.equals("true") && !value.equals("false")) {
+                    throw new IllegalArgumentException("ServerConfig: Параметр " + key + " должен быть true или false.");
+                }
+                tcpNoDelay = Boolean.parseBoolean(value);
+            }
+            case "sendBufferBytes" -> sendBufferBytes = parseInt(key, value);
+            case "receiveBufferBytes" -> receiveBufferBytes = parseInt(key, value);
+            case "matchmaking" -> {
+                try {
+                    matchmaking = Matchmaking.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("ServerConfig: Неизвестный способ подбора партнеров " + value + ".");
+                }
+            }
+            case "ratingBucket" -> ratingBucket = parseInt(key, value);
+            case "rankWidenSeconds" -> rankWidenSeconds = parseInt(key, value);
+            case "logLevel" -> {
+                try {
+                    logLevel = ServerLog.Level.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("ServerConfig: Неизвестный уровень журнала " + value + ".");
+                }
+            }
+            default -> throw new IllegalArgumentException("ServerConfig: Неизвестный параметр " + key + ".");
+        }
+    }
+
+    private static int parseInt(String key, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ServerConfig: Параметр " + key + " должен быть числом.");
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return максимальное число игроков или null, если не задано
+     */
+    public Integer getMaxPlayers() {
+        return maxPlayers;
+    }
+
+    /**
+     * @return длительность партии или null, если не задана
+     */
+    public Integer getMaxSeconds() {
+        return maxSeconds;
+    }
+
+    /**
+     * Количество потоков с Selector для {@link Engine#NIO}.
+     */
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * Максимум одновременных подключений.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Максимум подключений, еще не приславших приветствие.
+     */
+    public int getMaxHandshakes() {
+        return maxHandshakes;
+    }
+
+    /**
+     * Сколько секунд ждать приветствия клиента (0 - без ограничения).
+     */
+    public int getHandshakeSeconds() {
+        return handshakeSeconds;
+    }
+
+    /**
+     * Сколько секунд клиент может ничего не присылать (0 - без ограничения).
+     */
+    public int getIdleSeconds() {
+        return idleSeconds;
+    }
+
+    /**
+     * Максимальный объем неотправленных ответов одному клиенту в байтах.
+     */
+    public int getMaxOutboundBytes() {
+        return maxOutboundBytes;
+    }
+
+    /**
+     * @return каталог журнала партий или null, если журнал выключен
+     */
+    public String getReplayDir() {
+        return "none".equals(replayDir) ? null : replayDir;
+    }
+
+    /**
+     * @return управляющий адрес маршрутизатора или null, если сервер работает сам по себе
+     */
+    public String getRouter() {
+        return router;
+    }
+
+    /**
+     * Отключен ли алгоритм Нейгла для сокетов клиентов.
+     * Ответы и так собираются в одну запись (см. {@link NioEventLoop}), поэтому по умолчанию true.
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Размер буфера отправки сокета клиента (0 - по умолчанию).
+     */
+    public int getSendBufferBytes() {
+        return sendBufferBytes;
+    }
+
+    /**
+     * Размер буфера приема сокета клиента (0 - по умолчанию).
+     */
+    public int getReceiveBufferBytes() {
+        return receiveBufferBytes;
+    }
+
+    public Matchmaking getMatchmaking() {
+        return matchmaking;
+    }
+
+    /**
+     * Ширина корзины рейтинга: игроки одной корзины подходят друг другу сразу.
+     */
+    public int getRatingBucket() {
+        return ratingBucket;
+    }
+
+    /**
+     * Через сколько секунд ожидания окно поиска партнеров расширяется на одну корзину.
+     */
+    public int getRankWidenSeconds() {
+        return rankWidenSeconds;
+    }
+
+    public ServerLog.Level getLogLevel() {
+        return logLevel;
+    }
+
+    public ServerConfig withPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public ServerConfig withEngine(Engine engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    public ServerConfig withMaxPlayers(int maxPlayers) {
+        this.maxPlayers = maxPlayers;
+        return this;
+    }
+
+    public ServerConfig withMaxSeconds(int maxSeconds) {
+        this.maxSeconds = maxSeconds;
+        return this;
+    }
+
+    public ServerConfig withEventLoops(int eventLoops) {
+        this.eventLoops = eventLoops;
+        return this;
+    }
+
+    public ServerConfig withMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public ServerConfig withMaxHandshakes(int maxHandshakes) {
+        this.maxHandshakes = maxHandshakes;
+        return this;
+    }
+
+    public ServerConfig withHandshakeSeconds(int handshakeSeconds) {
+        this.handshakeSeconds = handshakeSeconds;
+        return this;
+    }
+
+    public ServerConfig withIdleSeconds(int idleSeconds) {
+        this.idleSeconds = idleSeconds;
+        return this;
+    }
+
+    public ServerConfig withMaxOutboundBytes(int maxOutboundBytes) {
+        this.maxOutboundBytes = maxOutboundBytes;
+        return this;
+    }
+
+    public ServerConfig withMatchmaking(Matchmaking matchmaking) {
+        this.matchmaking = matchmaking;
+        return this;
+    }
+
+    public ServerConfig withRatingBucket(int ratingBucket) {
+        this.ratingBucket = ratingBucket;
+        return this;
+    }
+
+    public ServerConfig withRankWidenSeconds(int rankWidenSeconds) {
+        this.rankWidenSeconds = rankWidenSeconds;
+        return this;
+    }
+}
@@ -1,14 +1,19 @@
 package jigsaw.server;
 
+import jigsaw.server.metrics.GameServerMetrics;
+
 import java.util.Scanner;
 
 public class ServerStopper implements Runnable {
     public void run() {
         Scanner in = new Scanner(System.in);
-        System.out.println("ServerStopper: Введите \"stop\" для остановки сервера.");
+        System.out.println("ServerStopper: Введите \"stop\" для остановки сервера, \"stats\" для вывода метрик.");
         String input;
         do {
             input = in.nextLine();
+            if (input.equals("stats")) {
+                System.out.println(GameServerMetrics.get().report());
+            }
         } while (!input.equals("stop"));
         MultithreadedGameServer.stopServer();
     }
@@ -0,0 +1,49 @@
+package jigsaw.server;
+
+import jigsaw.protocol.WireProtocol;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Сообщение для многих получателей (зрителей партии), закодированное один раз.
+ * <p>
+ * Кадр (длина и содержимое) кодируется при первой отправке для каждой версии протокола
+ * и дальше только переиспользуется: подключения ставят в очередь сам массив, без копирования.
+ * Массив после кодирования не меняется.
+ */
+final class SharedFrame {
+    final Object message;
+    /**
+     * Можно ли пропустить это сообщение для получателя, у которого уже есть неотправленные данные:
+     * следующее такое же сообщение его заменит.
+     */
+    final boolean conflatable;
+    private final AtomicReferenceArray<byte[]> frames = new AtomicReferenceArray<>(WireProtocol.VERSION_BINARY + 1);
+
+    SharedFrame(Object message, boolean conflatable) {
+        this.message = message;
+        this.conflatable = conflatable;
+    }
+
+    /**
+     * Кадр целиком (длина и содержимое) для версии протокола. Массив нельзя изменять.
+     */
+    byte[] frame(byte version) throws IOException {
+        byte[] frame = frames.get(version);
+        if (frame == null) {
+            byte[] payload = WireProtocol.codecFor(version).encode(message);
+            frame = new byte[Integer.BYTES + payload.length];
+            frame[0] = (byte) (payload.length >>> 24);
+            frame[1] = (byte) (payload.length >>> 16);
+            frame[2] = (byte) (payload.length >>> 8);
+            frame[3] = (byte) payload.length;
+            System.arraycopy(payload, 0, frame, Integer.BYTES, payload.length);
+            // Если два потока закодировали одновременно, используется первый результат.
+            if (!frames.compareAndSet(version, null, frame)) {
+                frame = frames.get(version);
+            }
+        }
+        return frame;
+    }
+}
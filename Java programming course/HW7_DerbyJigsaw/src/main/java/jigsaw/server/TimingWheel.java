@@ -0,0 +1,205 @@
+package jigsaw.server;
+
+import jigsaw.server.log.ServerLog;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Хешированное колесо таймеров: один поток на все сроки партий сервера.
+ * <p>
+ * Колесо - массив ячеек, стрелка переходит на следующую ячейку каждый тик.
+ * Срок попадает в ячейку {@code (тик срока) mod (число ячеек)} и хранит число оставшихся оборотов,
+ * поэтому добавление и отмена стоят O(1) независимо от числа ожидающих сроков,
+ * а за тик просматривается только одна ячейка.
+ * Точность - один тик: для часов партии (секунды) этого достаточно.
+ * <p>
+ * Сроки добавляются и отменяются из любых потоков без блокировок:
+ * новые сроки передаются потоку колеса через очередь, отмененные удаляются им при проходе ячейки.
+ * Задачи выполняются в потоке колеса, поэтому должны быть короткими и не блокироваться.
+ */
+final class TimingWheel {
+    /**
+     * Срок в колесе.
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private long remainingRounds;
+        // Ячейка - двусвязный список, меняется только потоком колеса.
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Отмена срока. Безопасно вызывать из любого потока и несколько раз.
+         *
+         * @return true, если срок был отменен этим вызовом (задача еще не выполнялась)
+         */
+        boolean cancel() {
+            return cancelled.compareAndSet(false, true);
+        }
+
+        boolean isCancelled() {
+            return cancelled.get();
+        }
+    }
+
+    /**
+     * Ячейка колеса.
+     */
+    private static final class Bucket {
+        private Timeout head;
+
+        void add(Timeout timeout) {
+            timeout.next = head;
+            if (head != null) {
+                head.prev = timeout;
+            }
+            head = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final String threadName;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean started = new AtomicBoolean();
+    /**
+     * Начало отсчета тиков. Задается в конструкторе, а не при запуске потока:
+     * иначе {@link #schedule} в другом потоке мог бы прочитать его до записи.
+     */
+    private final long startNanos;
+
+    /**
+     * @param tick       длительность тика
+     * @param unit       единица измерения тика
+     * @param wheelSize  число ячеек (округляется вверх до степени двойки)
+     * @param threadName имя потока колеса
+     */
+    TimingWheel(long tick, TimeUnit unit, int wheelSize, String threadName) {
+        tickNanos = unit.toNanos(tick);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        this.threadName = threadName;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Выполнение задачи через {@code delay}. Поток колеса запускается при первом вызове.
+     *
+     * @return срок, который можно отменить
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        startIfNeeded();
+        long elapsedTicks = (System.nanoTime() - startNanos) / tickNanos;
+        // Срок не раньше следующего тика, иначе задача могла бы выполниться раньше времени.
+        long delayTicks = Math.max(1, (unit.toNanos(delay) + tickNanos - 1) / tickNanos);
+        Timeout timeout = new Timeout(task, elapsedTicks + delayTicks);
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Число добавленных, но еще не выполненных и не удаленных после отмены сроков.
+     */
+    int pendingTimeouts() {
+        return pending.get();
+    }
+
+    private void startIfNeeded() {
+        if (started.compareAndSet(false, true)) {
+            Thread worker = new Thread(this::run, threadName);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void run() {
+        // Колесо могло быть создано задолго до первого срока: тики до запуска потока пропускаются.
+        long tick = (System.nanoTime() - startNanos) / tickNanos;
+        while (true) {
+            long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            tick++;
+            transferAdded(tick);
+            expire(wheel[(int) (tick & mask)]);
+        }
+    }
+
+    /**
+     * Раскладка новых сроков по ячейкам (в потоке колеса).
+     * Уже наступившие сроки ставятся в текущую ячейку и выполняются в этом же тике.
+     */
+    private void transferAdded(long currentTick) {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.isCancelled()) {
+                pending.decrementAndGet();
+                continue;
+            }
+            long targetTick = Math.max(timeout.deadlineTick, currentTick);
+            timeout.remainingRounds = (targetTick - currentTick) / wheel.length;
+            wheel[(int) (targetTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.isCancelled()) {
+                bucket.remove(timeout);
+                pending.decrementAndGet();
+            } else if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                pending.decrementAndGet();
+                // Срок помечается так же, как отмененный: cancel() после выполнения вернет false.
+                if (timeout.cancel()) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        ServerLog.get().error("TimingWheel", "Ошибка в задаче таймера.", e);
+                    }
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+}
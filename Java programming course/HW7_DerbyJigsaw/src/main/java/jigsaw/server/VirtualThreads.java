@@ -0,0 +1,53 @@
+package jigsaw.server;
+
+import jigsaw.server.log.ServerLog;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Исполнитель для обработчиков клиентов в режиме engine=virtual.
+ * <p>
+ * Проект собирается под Java 17, где виртуальных потоков еще нет,
+ * поэтому {@code Executors.newVirtualThreadPerTaskExecutor} ищется через рефлексию.
+ * На JVM без виртуальных потоков используется обычный кэширующий пул потоков.
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /**
+     * Метод newVirtualThreadPerTaskExecutor или null, если JVM его не поддерживает.
+     */
+    private static Method findFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    static boolean isSupported() {
+        return findFactory() != null;
+    }
+
+    /**
+     * Исполнитель, запускающий каждую задачу в своем виртуальном потоке
+     * (или в потоке из кэширующего пула, если виртуальных потоков нет).
+     */
+    static ExecutorService newPerTaskExecutor() {
+        Method factory = findFactory();
+        if (factory != null) {
+            try {
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                ServerLog.get().error(MultithreadedGameServer.LOG_SOURCE,
+                        "Не удалось создать исполнитель на виртуальных потоках.", e);
+            }
+        }
+        ServerLog.get().warn(MultithreadedGameServer.LOG_SOURCE, "Виртуальные потоки недоступны в этой версии Java, "
+                + "используется пул обычных потоков.");
+        return Executors.newCachedThreadPool();
+    }
+}
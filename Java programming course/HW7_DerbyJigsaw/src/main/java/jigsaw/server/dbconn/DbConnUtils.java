@@ -1,5 +1,7 @@
 package jigsaw.server.dbconn;
 
+import jigsaw.server.log.ServerLog;
+import jigsaw.server.metrics.GameServerMetrics;
 import jigsaw.server.ormmodels.GameStatModel;
 import jigsaw.server.ormmodels.InvalidGameStatException;
 
@@ -14,6 +16,7 @@ import java.util.List;
  */
 public class DbConnUtils {
     // Разные названия: название БД, название таблицы, название папки для БД.
+    private static final String LOG_SOURCE = "DbConnUtils";
     private static String tableName = "GAME_RESULTS";
     private static String dbStoringFolder;
     private static String dbName;
@@ -24,15 +27,30 @@ public class DbConnUtils {
     // Поля для подключения к БД.
     private static Connection conn;
     private static PreparedStatement psInsertRow;
+    private static PreparedStatement psPlayerGames;
+
+    /**
+     * Сколько последних игр игрока учитывается в рейтинге.
+     */
+    private static final int RATING_GAMES = 20;
     private static Statement s;
 
+    /**
+     * Системное свойство со строкой подключения к БД.
+     * Несколько процессов сервера (за {@code FrontRouter}) должны использовать одну БД,
+     * например Derby Network Server: {@code -Djigsaw.db.url=jdbc:derby://localhost:1527/derbyJigsawDB;create=true}.
+     */
+    public static final String DB_URL_PROPERTY = "jigsaw.db.url";
+
     /**
      * Инициализация названий и составление строки подключения.
+     * По умолчанию - встроенная БД в папке DERBY (только для одного процесса).
      */
     private static void initializeConnectionUrl() {
         dbStoringFolder = "DERBY";
         dbName = "derbyJigsawDB";
-        connectionUrl = "jdbc:derby:" + dbStoringFolder + File.separator + dbName + ";create=true";
+        connectionUrl = System.getProperty(DB_URL_PROPERTY,
+                "jdbc:derby:" + dbStoringFolder + File.separator + dbName + ";create=true");
     }
 
     /**
@@ -43,17 +61,17 @@ public class DbConnUtils {
     public static void initializeConnection() throws SQLException {
         initializeConnectionUrl();
         try {
-            System.out.println("DbConnUtils: Подключение к базе данных " + dbName + " ...");
+            ServerLog.get().info(LOG_SOURCE, "Подключение к базе данных {} ...", dbName);
             conn = DriverManager.getConnection(connectionUrl);
-            System.out.println("DbConnUtils: Подключение к базе данных " + dbName + " установлено.");
+            ServerLog.get().info(LOG_SOURCE, "Подключение к базе данных {} установлено.", dbName);
         } catch (SQLException e) {
             String sqlState = e.getSQLState();
             if (sqlState.equals("XJ040") && e.getNextException().getSQLState().equals("XSDB6")) {
                 // Another instance of Derby may have already booted the database <databaseName>.
-                System.out.println("DbConnUtils: Отключите все экземпляры DERBY, загрузившие базу данных " + dbName + ".");
+                ServerLog.get().warn(LOG_SOURCE, "Отключите все экземпляры DERBY, загрузившие базу данных {}.", dbName);
                 throw e;
             } else {
-                System.out.println("DbConnUtils: Не удалось подключиться к базе данных " + dbName + ".");
+                ServerLog.get().warn(LOG_SOURCE, "Не удалось подключиться к базе данных {}.", dbName);
                 throw e;
             }
         }
@@ -64,6 +82,8 @@ public class DbConnUtils {
         createTableIfNotExists();
         psInsertRow = conn.prepareStatement("insert into " +
                 tableName + "(LOGIN, END_TIME, MOVES_DONE, GAME_LENGTH) values (?,?,?,?)");
+        psPlayerGames = conn.prepareStatement("select MOVES_DONE, GAME_LENGTH from " + tableName +
+                " where LOGIN = ? order by END_TIME desc fetch first " + RATING_GAMES + " rows only");
     }
 
     /**
@@ -80,12 +100,29 @@ public class DbConnUtils {
                 "GAME_LENGTH BIGINT NOT NULL)";
         if (tableExists(tableName)) {
             checkTableExistsAndCorrectColumns();
-            System.out.println("DbConnUtils: Таблица \"" + tableName + "\" существует и определена корректно.");
+            ServerLog.get().info(LOG_SOURCE, "Таблица \"{}\" существует и определена корректно.", tableName);
         } else {
-            System.out.println("DbConnUtils: Таблица \"" + tableName + "\" не существует.");
-            System.out.println(" . . . . создание таблицы " + tableName);
+            ServerLog.get().info(LOG_SOURCE, "Таблица \"{}\" не существует, создание таблицы.", tableName);
             s.execute(createString);
         }
+        createLoginIndexIfNotExists();
+    }
+
+    /**
+     * Рейтинг игрока (getPlayerRating) ищется по логину, поэтому на LOGIN нужен индекс.
+     * Создается и в уже существующей таблице, если его там еще нет.
+     * @throws SQLException
+     */
+    private static void createLoginIndexIfNotExists() throws SQLException {
+        String indexName = tableName + "_LOGIN";
+        try (ResultSet indexes = conn.getMetaData().getIndexInfo(null, null, tableName, false, true)) {
+            while (indexes.next()) {
+                if (indexName.equals(indexes.getString("INDEX_NAME"))) {
+                    return;
+                }
+            }
+        }
+        s.execute("create index " + indexName + " on " + tableName + "(LOGIN)");
     }
 
     /**
@@ -97,7 +134,7 @@ public class DbConnUtils {
     private static void checkTableExistsAndCorrectColumns() throws SQLException {
         boolean tableExists = tableExists(tableName);
         if (!tableExists) {
-            System.out.println("DbConnUtils: Таблица " + tableName + " не существует. Удалите папку DERBY.");
+            ServerLog.get().warn(LOG_SOURCE, "Таблица {} не существует. Удалите папку DERBY.", tableName);
             throw new SQLException();
         }
 
@@ -119,8 +156,7 @@ public class DbConnUtils {
                 || !(columns.containsKey("END_TIME") && columns.get("END_TIME").equals("TIMESTAMP"))
                 || !(columns.containsKey("MOVES_DONE") && columns.get("MOVES_DONE").equals("INTEGER NOT NULL"))
                 || !(columns.containsKey("GAME_LENGTH") && columns.get("GAME_LENGTH").equals("BIGINT NOT NULL"))) {
-            System.out.println("DbConnUtils: Неправильное определение таблицы " + tableName
-                    + ". Удалите папку DERBY.");
+            ServerLog.get().warn(LOG_SOURCE, "Неправильное определение таблицы {}. Удалите папку DERBY.", tableName);
             throw new SQLException();
         }
     }
@@ -145,24 +181,29 @@ public class DbConnUtils {
      * @throws SQLException
      * @throws InvalidGameStatException
      */
-    public static void insertGameResults(GameStatModel gsm) throws SQLException, InvalidGameStatException {
-        // Проверяется связь с таблицей.
-        checkTableExistsAndCorrectColumns();
-        // Проверяется корректность переданных результатов.
-        // (На всякий случай, в реальной игре результаты всегда корректные).
-        gsm.validate();
-        int nthPlaceholder = 1;
-        psInsertRow.setString(nthPlaceholder++, gsm.login);
-        psInsertRow.setTimestamp(nthPlaceholder++, gsm.endTime);
-        psInsertRow.setInt(nthPlaceholder++, gsm.movesDone);
-        psInsertRow.setLong(nthPlaceholder++, gsm.gameLength);
+    public static synchronized void insertGameResults(GameStatModel gsm) throws SQLException, InvalidGameStatException {
+        long startNanos = System.nanoTime();
         try {
-            if (psInsertRow.executeUpdate() != 1) {
-                throw new SQLException("DbConnUtils: Не получилось вставить данные в таблицу.");
+            // Проверяется связь с таблицей.
+            checkTableExistsAndCorrectColumns();
+            // Проверяется корректность переданных результатов.
+            // (На всякий случай, в реальной игре результаты всегда корректные).
+            gsm.validate();
+            int nthPlaceholder = 1;
+            psInsertRow.setString(nthPlaceholder++, gsm.login);
+            psInsertRow.setTimestamp(nthPlaceholder++, gsm.endTime);
+            psInsertRow.setInt(nthPlaceholder++, gsm.movesDone);
+            psInsertRow.setLong(nthPlaceholder++, gsm.gameLength);
+            try {
+                if (psInsertRow.executeUpdate() != 1) {
+                    throw new SQLException("DbConnUtils: Не получилось вставить данные в таблицу.");
+                }
+            } catch (SQLException e) {
+                ServerLog.get().warn(LOG_SOURCE, "Не получилось вставить данные в таблицу. Удалите папку DERBY.");
+                throw e;
             }
-        } catch (SQLException e) {
-            System.out.println("DbConnUtils: Не получилось вставить данные в таблицу. Удалите папку DERBY.");
-            throw e;
+        } finally {
+            GameServerMetrics.get().recordLatency("db", System.nanoTime() - startNanos);
         }
     }
 
@@ -174,31 +215,63 @@ public class DbConnUtils {
      * @throws SQLException
      * @throws InvalidGameStatException
      */
-    public static List<GameStatModel> getTopTenGameResults() throws SQLException, InvalidGameStatException {
-        // Проверяется связь с таблицей.
-        checkTableExistsAndCorrectColumns();
-        // Сортировка происходит по трем параметрам:
-        // 1) чем больше ходов сделано - тем лучше.
-        // 2) чем меньше длилась игра - тем лучше.
-        // 3) чем позже закончилась игра - тем лучше.
-        ResultSet queryResult = s.executeQuery("select LOGIN, END_TIME, MOVES_DONE, GAME_LENGTH " +
-                "from " + tableName + " " +
-                "order by MOVES_DONE desc, GAME_LENGTH asc, END_TIME desc " +
-                "fetch first 10 rows only");
-        List<GameStatModel> results = new ArrayList<>();
-        while (queryResult.next()) {
-            int nthPlace = 1;
-            GameStatModel gsm = new GameStatModel(queryResult.getString(nthPlace++),
-                    queryResult.getTimestamp(nthPlace++),
-                    queryResult.getInt(nthPlace++),
-                    queryResult.getLong(nthPlace++));
-            // Проверка полученных из БД результатов.
-            // Некорректные данные могут быть только при изменении таблицы вне игры/сервера.
-            gsm.validate();
-            results.add(gsm);
+    public static synchronized List<GameStatModel> getTopTenGameResults() throws SQLException, InvalidGameStatException {
+        long startNanos = System.nanoTime();
+        try {
+            // Проверяется связь с таблицей.
+            checkTableExistsAndCorrectColumns();
+            // Сортировка происходит по трем параметрам:
+            // 1) чем больше ходов сделано - тем лучше.
+            // 2) чем меньше длилась игра - тем лучше.
+            // 3) чем позже закончилась игра - тем лучше.
+            ResultSet queryResult = s.executeQuery("select LOGIN, END_TIME, MOVES_DONE, GAME_LENGTH " +
+                    "from " + tableName + " " +
+                    "order by MOVES_DONE desc, GAME_LENGTH asc, END_TIME desc " +
+                    "fetch first 10 rows only");
+            List<GameStatModel> results = new ArrayList<>();
+            while (queryResult.next()) {
+                int nthPlace = 1;
+                GameStatModel gsm = new GameStatModel(queryResult.getString(nthPlace++),
+                        queryResult.getTimestamp(nthPlace++),
+                        queryResult.getInt(nthPlace++),
+                        queryResult.getLong(nthPlace++));
+                // Проверка полученных из БД результатов.
+                // Некорректные данные могут быть только при изменении таблицы вне игры/сервера.
+                gsm.validate();
+                results.add(gsm);
+            }
+            queryResult.close();
+            return results;
+        } finally {
+            GameServerMetrics.get().recordLatency("db", System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Рейтинг игрока для подбора партнеров: средняя скорость игры (в десятых долях фигуры в минуту)
+     * за последние {@link #RATING_GAMES} игр. У игрока без истории рейтинг 0.
+     * Запросы (как и в остальных методах чтения и записи) общие на все потоки, поэтому метод synchronized.
+     * @param login имя игрока
+     * @return рейтинг
+     * @throws SQLException
+     */
+    public static synchronized int getPlayerRating(String login) throws SQLException {
+        long startNanos = System.nanoTime();
+        try {
+            psPlayerGames.setString(1, login);
+            double sum = 0;
+            int games = 0;
+            try (ResultSet queryResult = psPlayerGames.executeQuery()) {
+                while (queryResult.next()) {
+                    // Игра короче секунды считается секундной.
+                    sum += queryResult.getInt(1) * 600.0 / Math.max(1, queryResult.getLong(2));
+                    games++;
+                }
+            }
+            return games == 0 ? 0 : (int) Math.round(sum / games);
+        } finally {
+            GameServerMetrics.get().recordLatency("db", System.nanoTime() - startNanos);
         }
-        queryResult.close();
-        return results;
     }
 
     /**
@@ -209,6 +282,9 @@ public class DbConnUtils {
         if (psInsertRow != null) {
             psInsertRow.close();
         }
+        if (psPlayerGames != null) {
+            psPlayerGames.close();
+        }
         if (s != null) {
             s.close();
         }
@@ -225,9 +301,9 @@ public class DbConnUtils {
     public static void closeConnection() {
         try {
             closeStatementsAndConn();
-            System.out.println("DbConnUtils: Подключение закрыто.");
+            ServerLog.get().info(LOG_SOURCE, "Подключение закрыто.");
         } catch (SQLException e) {
-            e.printStackTrace();
+            ServerLog.get().error(LOG_SOURCE, "Не удалось закрыть подключение к базе данных.", e);
         }
 
         // В embedded-драйвере при выключении derby выбрасывает исключение с номером XJ015.
@@ -245,9 +321,9 @@ public class DbConnUtils {
             }
         }
         if (!gotSQLExc) {
-            System.out.println("DbConnUtils: База данных выключена некорректно.");
+            ServerLog.get().warn(LOG_SOURCE, "База данных выключена некорректно.");
         } else {
-            System.out.println("DbConnUtils: База данных выключена корректно.");
+            ServerLog.get().info(LOG_SOURCE, "База данных выключена корректно.");
         }
     }
 }
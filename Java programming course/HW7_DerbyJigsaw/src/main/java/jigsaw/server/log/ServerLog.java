@@ -0,0 +1,289 @@
+package jigsaw.server.log;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Асинхронный журнал сервера.
+ * <p>
+ * Потоки игроков и циклов обработки не пишут в консоль сами: событие (уровень, источник, шаблон
+ * сообщения и до двух аргументов) копируется в заранее выделенную ячейку кольцевого буфера,
+ * а строку собирает и выводит отдельный фоновый поток - пачкой, одной записью в консоль.
+ * Поэтому блокировка System.out больше не попадает в задержку ответов под нагрузкой.
+ * Если буфер заполнен, событие отбрасывается (и считается), но поток игрока не ждет.
+ * <p>
+ * Шаблон сообщения - константа с местами {@code {}} для аргументов. Предупреждения и ошибки
+ * ограничиваются по шаблону: не больше {@link #ERROR_BURST} за {@link #ERROR_WINDOW_NANOS},
+ * о пропущенных сообщается в следующей записи с тем же шаблоном.
+ */
+public final class ServerLog {
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    /**
+     * Ячейка кольцевого буфера. Поля пишет поток, занявший ячейку,
+     * а публикует их запись {@link #sequence} (volatile).
+     */
+    private static final class Slot {
+        volatile long sequence = -1;
+        Level level;
+        long timeMillis;
+        String source;
+        String template;
+        Object arg0;
+        Object arg1;
+        Throwable error;
+        int suppressed;
+    }
+
+    /**
+     * Счетчик предупреждений и ошибок одного шаблона в текущем окне.
+     */
+    private static final class RateLimit {
+        final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger suppressed = new AtomicInteger();
+    }
+
+    static final int DEFAULT_CAPACITY = 8192;
+    static final int ERROR_BURST = 5;
+    static final long ERROR_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int MAX_BATCH_CHARS = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final ServerLog instance = new ServerLog(DEFAULT_CAPACITY, System.out, ERROR_WINDOW_NANOS);
+
+    private final Slot[] ring;
+    private final int mask;
+    private final PrintStream out;
+    private final long errorWindowNanos;
+    /**
+     * Следующий номер события для записи (занимается потоками, пишущими в журнал).
+     */
+    private final AtomicLong claimed = new AtomicLong();
+    /**
+     * Следующий номер события для вывода (меняет только фоновый поток).
+     */
+    private volatile long consumed;
+    /**
+     * Номер первого события, еще не выведенного в консоль (меняет только фоновый поток).
+     */
+    private volatile long written;
+    private final LongAdder dropped = new LongAdder();
+    private final ConcurrentMap<String, RateLimit> rateLimits = new ConcurrentHashMap<>();
+    private volatile Level level = Level.INFO;
+    private volatile Thread writer;
+
+    ServerLog(int capacity, PrintStream out, long errorWindowNanos) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("ServerLog: Размер буфера должен быть степенью двойки.");
+        }
+        ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+        mask = capacity - 1;
+        this.out = out;
+        this.errorWindowNanos = errorWindowNanos;
+    }
+
+    public static ServerLog get() {
+        return instance;
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0;
+    }
+
+    public void debug(String source, String template, Object arg) {
+        log(Level.DEBUG, source, template, arg, null, null);
+    }
+
+    public void info(String source, String template) {
+        log(Level.INFO, source, template, null, null, null);
+    }
+
+    public void info(String source, String template, Object arg) {
+        log(Level.INFO, source, template, arg, null, null);
+    }
+
+    public void info(String source, String template, Object arg0, Object arg1) {
+        log(Level.INFO, source, template, arg0, arg1, null);
+    }
+
+    public void warn(String source, String template) {
+        log(Level.WARN, source, template, null, null, null);
+    }
+
+    public void warn(String source, String template, Object arg) {
+        log(Level.WARN, source, template, arg, null, null);
+    }
+
+    public void warn(String source, String template, Object arg0, Object arg1) {
+        log(Level.WARN, source, template, arg0, arg1, null);
+    }
+
+    public void error(String source, String template, Throwable error) {
+        log(Level.ERROR, source, template, null, null, error);
+    }
+
+    public void error(String source, String template, Object arg, Throwable error) {
+        log(Level.ERROR, source, template, arg, null, error);
+    }
+
+    /**
+     * Запись события. Не блокируется: при заполненном буфере событие отбрасывается.
+     */
+    public void log(Level level, String source, String template, Object arg0, Object arg1, Throwable error) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        int suppressed = 0;
+        if (level.compareTo(Level.WARN) >= 0) {
+            RateLimit limit = rateLimits.computeIfAbsent(template, key -> new RateLimit());
+            long now = System.nanoTime();
+            long windowStart = limit.windowStart.get();
+            if (now - windowStart >= errorWindowNanos && limit.windowStart.compareAndSet(windowStart, now)) {
+                limit.count.set(0);
+            }
+            if (limit.count.incrementAndGet() > ERROR_BURST) {
+                limit.suppressed.incrementAndGet();
+                return;
+            }
+            suppressed = limit.suppressed.getAndSet(0);
+        }
+
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= ring.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        Slot slot = ring[(int) (sequence & mask)];
+        slot.level = level;
+        slot.timeMillis = System.currentTimeMillis();
+        slot.source = source;
+        slot.template = template;
+        slot.arg0 = arg0;
+        slot.arg1 = arg1;
+        slot.error = error;
+        slot.suppressed = suppressed;
+        slot.sequence = sequence;
+        if (writer == null) {
+            startWriter();
+        }
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        Thread thread = new Thread(this::writeLoop, "server-log-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+
+    /**
+     * Фоновый поток: форматирует все опубликованные события и выводит их одной записью.
+     */
+    private void writeLoop() {
+        StringBuilder batch = new StringBuilder(4096);
+        while (true) {
+            long next = consumed;
+            Slot slot = ring[(int) (next & mask)];
+            if (slot.sequence != next) {
+                if (batch.length() > 0) {
+                    out.print(batch);
+                    out.flush();
+                    batch.setLength(0);
+                }
+                written = next;
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            format(slot, batch);
+            slot.source = null;
+            slot.template = null;
+            slot.arg0 = null;
+            slot.arg1 = null;
+            slot.error = null;
+            // Только после этого ячейку можно занять снова.
+            consumed = next + 1;
+            if (batch.length() >= MAX_BATCH_CHARS) {
+                // При непрерывном потоке событий пачка выводится, не дожидаясь пустого буфера.
+                out.print(batch);
+                batch.setLength(0);
+            }
+        }
+    }
+
+    private static void format(Slot slot, StringBuilder batch) {
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(slot.timeMillis), batch);
+        batch.append(' ').append(slot.level);
+        for (int i = slot.level.name().length(); i < 6; i++) {
+            batch.append(' ');
+        }
+        batch.append(slot.source).append(": ");
+        Object[] args = {slot.arg0, slot.arg1};
+        int argIndex = 0;
+        String template = slot.template;
+        int from = 0;
+        int hole;
+        while ((hole = template.indexOf("{}", from)) >= 0) {
+            batch.append(template, from, hole).append(argIndex < args.length ? args[argIndex++] : "{}");
+            from = hole + 2;
+        }
+        batch.append(template, from, template.length());
+        if (slot.suppressed > 0) {
+            batch.append(" (пропущено похожих сообщений: ").append(slot.suppressed).append(')');
+        }
+        batch.append(System.lineSeparator());
+        if (slot.error != null) {
+            StringWriter trace = new StringWriter();
+            slot.error.printStackTrace(new PrintWriter(trace));
+            batch.append(trace);
+        }
+    }
+
+    /**
+     * Ожидание вывода всех уже записанных событий (не дольше {@code timeoutMillis}).
+     * Нужно перед выводом в консоль напрямую (диалоги, остановка сервера), чтобы не перепутать порядок строк.
+     */
+    public void flush(long timeoutMillis) {
+        long target = claimed.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Thread thread = writer;
+        while (thread != null && written < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    /**
+     * Отброшенные из-за заполненного буфера события.
+     */
+    public long getDroppedEvents() {
+        return dropped.sum();
+    }
+}
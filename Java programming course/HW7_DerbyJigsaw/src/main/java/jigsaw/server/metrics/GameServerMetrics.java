@@ -0,0 +1,215 @@
+package jigsaw.server.metrics;
+
+import jigsaw.server.log.ServerLog;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Метрики игрового сервера: счетчики и гистограммы задержек.
+ * <p>
+ * Запись - без блокировок (LongAdder и атомарные корзины), поэтому ее можно вызывать
+ * на каждом сообщении. Значения только собираются; читаются они по запросу:
+ * через JMX ({@link #register()}) или командой "stats" в консоли сервера ({@link #report()}).
+ */
+public final class GameServerMetrics implements GameServerMetricsMXBean {
+    public static final String OBJECT_NAME = "jigsaw.server:type=GameServerMetrics";
+    private static final String LOG_SOURCE = "GameServerMetrics";
+
+    private static final GameServerMetrics instance = new GameServerMetrics();
+
+    private final ConcurrentMap<String, LongAdder> messageCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final AtomicInteger activeMatches = new AtomicInteger();
+    private final LongAdder socketErrors = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder idleEvictions = new LongAdder();
+    private final LongAdder slowConsumerEvictions = new LongAdder();
+    private final LongAdder conflatedFrames = new LongAdder();
+    private final LongAdder socketWrites = new LongAdder();
+    private volatile IntSupplier connectedClients = () -> 0;
+
+    // Значения при предыдущем запросе getMessagesPerSecond.
+    private final ReentrantLock rateLock = new ReentrantLock();
+    private Map<String, Long> previousCounts = Map.of();
+    private long previousNanos = System.nanoTime();
+
+    private GameServerMetrics() {
+    }
+
+    public static GameServerMetrics get() {
+        return instance;
+    }
+
+    /**
+     * Регистрация в платформенном MBeanServer. Повторная регистрация ничего не делает.
+     */
+    public void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            ServerLog.get().warn(LOG_SOURCE, "Не удалось зарегистрировать метрики в JMX. {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Источник количества подключенных клиентов (сервер хранит их сам).
+     */
+    public void setConnectedClients(IntSupplier connectedClients) {
+        this.connectedClients = connectedClients;
+    }
+
+    public void recordMessage(String type) {
+        messageCounts.computeIfAbsent(String.valueOf(type), key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Запись задержки.
+     *
+     * @param name  название (команда, "opponentWait", "db")
+     * @param nanos задержка в наносекундах
+     */
+    public void recordLatency(String name, long nanos) {
+        latencies.computeIfAbsent(name, key -> new LatencyHistogram()).record(nanos);
+    }
+
+    public void matchStarted() {
+        activeMatches.incrementAndGet();
+    }
+
+    public void matchFinished() {
+        activeMatches.decrementAndGet();
+    }
+
+    public void socketError() {
+        socketErrors.increment();
+    }
+
+    public void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    public void idleEvicted() {
+        idleEvictions.increment();
+    }
+
+    public void slowConsumerEvicted() {
+        slowConsumerEvictions.increment();
+    }
+
+    public void frameConflated() {
+        conflatedFrames.increment();
+    }
+
+    public void socketWrite() {
+        socketWrites.increment();
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return connectedClients.getAsInt();
+    }
+
+    @Override
+    public int getActiveMatches() {
+        return activeMatches.get();
+    }
+
+    @Override
+    public long getSocketErrors() {
+        return socketErrors.sum();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    @Override
+    public long getIdleEvictions() {
+        return idleEvictions.sum();
+    }
+
+    @Override
+    public long getSlowConsumerEvictions() {
+        return slowConsumerEvictions.sum();
+    }
+
+    @Override
+    public long getConflatedFrames() {
+        return conflatedFrames.sum();
+    }
+
+    @Override
+    public long getSocketWrites() {
+        return socketWrites.sum();
+    }
+
+    @Override
+    public long getDroppedLogEvents() {
+        return ServerLog.get().getDroppedEvents();
+    }
+
+    @Override
+    public Map<String, Long> getMessageCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        messageCounts.forEach((type, count) -> counts.put(type, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getMessagesPerSecond() {
+        rateLock.lock();
+        try {
+            Map<String, Long> counts = getMessageCounts();
+            long now = System.nanoTime();
+            double seconds = Math.max(1e-9, (now - previousNanos) / 1e9);
+            Map<String, Double> rates = new TreeMap<>();
+            counts.forEach((type, count) -> rates.put(type, (count - previousCounts.getOrDefault(type, 0L)) / seconds));
+            previousCounts = counts;
+            previousNanos = now;
+            return rates;
+        } finally {
+            rateLock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getLatencies() {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<>();
+        latencies.forEach((name, histogram) -> snapshots.put(name, histogram.snapshot()));
+        return snapshots;
+    }
+
+    /**
+     * Все метрики в текстовом виде, для вывода в консоль.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("GameServerMetrics: клиентов ").append(getConnectedClients())
+                .append(", партий ").append(getActiveMatches())
+                .append(", ошибок сокетов ").append(getSocketErrors())
+                .append(", записей в сокеты ").append(getSocketWrites())
+                .append(", отклонено подключений ").append(getRejectedConnections())
+                .append(", закрыто по молчанию ").append(getIdleEvictions())
+                .append(", закрыто медленных ").append(getSlowConsumerEvictions())
+                .append(", пропущено событий для зрителей ").append(getConflatedFrames())
+                .append(", отброшено записей журнала ").append(getDroppedLogEvents()).append('.');
+        getMessagesPerSecond().forEach((type, rate) -> report.append(System.lineSeparator())
+                .append(String.format("  %s: %.1f/с", type, rate)));
+        getLatencies().forEach((name, snapshot) -> report.append(System.lineSeparator())
+                .append("  ").append(name).append(": ").append(snapshot));
+        return report.toString();
+    }
+}
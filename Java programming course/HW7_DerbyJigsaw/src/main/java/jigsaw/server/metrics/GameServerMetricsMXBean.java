@@ -0,0 +1,74 @@
+package jigsaw.server.metrics;
+
+import java.util.Map;
+
+/**
+ * Метрики игрового сервера, доступные через JMX (например, в jconsole или VisualVM)
+ * под именем {@value GameServerMetrics#OBJECT_NAME}.
+ */
+public interface GameServerMetricsMXBean {
+    /**
+     * Подключенные клиенты.
+     */
+    int getConnectedClients();
+
+    /**
+     * Идущие партии (все игроки подключились, результат еще не определен).
+     */
+    int getActiveMatches();
+
+    /**
+     * Ошибки сокетов: разорванные подключения, испорченные данные, неудачные отправки.
+     */
+    long getSocketErrors();
+
+    /**
+     * Подключения, отклоненные контролем допуска (превышен лимит подключений или приветствий).
+     */
+    long getRejectedConnections();
+
+    /**
+     * Подключения, закрытые сервером из-за молчания клиента (нет приветствия или сообщений).
+     */
+    long getIdleEvictions();
+
+    /**
+     * Подключения, закрытые сервером, потому что клиент не успевает читать ответы.
+     */
+    long getSlowConsumerEvictions();
+
+    /**
+     * События для зрителей, пропущенные для медленных зрителей (заменены следующими).
+     */
+    long getConflatedFrames();
+
+    /**
+     * Записи в сокеты клиентов (системные вызовы write/flush).
+     * Несколько ответов, подготовленных за одну итерацию обработки, уходят одной записью.
+     */
+    long getSocketWrites();
+
+    /**
+     * События журнала сервера, отброшенные из-за заполненного буфера журнала.
+     */
+    long getDroppedLogEvents();
+
+    /**
+     * Количество сообщений от клиентов по типам с момента запуска
+     * (сообщения неизвестных серверу типов - вместе, под "unknown").
+     */
+    Map<String, Long> getMessageCounts();
+
+    /**
+     * Сообщений в секунду по типам с момента предыдущего запроса этого значения.
+     */
+    Map<String, Double> getMessagesPerSecond();
+
+    /**
+     * Задержки: обработка команд (top, begin, end, figure, figures),
+     * ожидание партнера (opponentWait) и запросы к БД (db).
+     * Для top - до отправки ответа, вместе с очередью к БД; для begin и end - только обработка в сессии,
+     * без ожидания партнеров (время до ответа на begin - opponentWait).
+     */
+    Map<String, LatencySnapshot> getLatencies();
+}
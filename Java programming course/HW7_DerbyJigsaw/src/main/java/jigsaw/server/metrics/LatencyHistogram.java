@@ -0,0 +1,72 @@
+package jigsaw.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гистограмма задержек без блокировок.
+ * <p>
+ * Корзина i содержит значения из [2^(i-1), 2^i) микросекунд, поэтому запись - один инкремент,
+ * а процентили получаются с точностью до степени двойки (для мониторинга этого достаточно).
+ */
+public final class LatencyHistogram {
+    /**
+     * 2^39 мкс - больше шести суток, дальше все попадает в последнюю корзину.
+     */
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Запись одного значения.
+     *
+     * @param nanos задержка в наносекундах
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long micros = nanos / 1000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Текущие значения. Записи, идущие параллельно, могут попасть в снимок частично.
+     */
+    public LatencySnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        double meanMicros = total == 0 ? 0 : sumNanos.get() / 1000.0 / total;
+        return new LatencySnapshot(total, meanMicros, percentile(counts, total, 0.5),
+                percentile(counts, total, 0.99), maxNanos.get() / 1000);
+    }
+
+    /**
+     * Верхняя граница корзины, в которую попадает процентиль (в микросекундах).
+     */
+    private static long percentile(long[] counts, long total, double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (counts.length - 1);
+    }
+}
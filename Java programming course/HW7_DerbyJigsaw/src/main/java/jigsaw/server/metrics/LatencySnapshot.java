@@ -0,0 +1,55 @@
+package jigsaw.server.metrics;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * Снимок {@link LatencyHistogram}. Все значения, кроме количества, - в микросекундах.
+ * В JMX отображается как CompositeData.
+ */
+public class LatencySnapshot {
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p99;
+    private final long max;
+
+    @ConstructorParameters({"count", "mean", "p50", "p99", "max"})
+    public LatencySnapshot(long count, double mean, long p50, long p99, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Медиана (верхняя граница корзины).
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * 99-й процентиль (верхняя граница корзины).
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.0fus p50<=%dus p99<=%dus max=%dus", count, mean, p50, p99, max);
+    }
+}
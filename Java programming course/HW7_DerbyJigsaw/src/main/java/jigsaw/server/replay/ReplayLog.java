@@ -0,0 +1,392 @@
+package jigsaw.server.replay;
+
+import jigsaw.server.log.ServerLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Журнал партий: события всех партий дописываются в файлы-сегменты, отображенные в память.
+ * <p>
+ * Запись не обращается к диску и не берет блокировок: поток игрока резервирует место в текущем сегменте
+ * атомарным сложением, копирует поля записи прямо в отображенную память и публикует запись,
+ * записав ее длину последней (с семантикой release). На диск страницы сбрасывает операционная система.
+ * Блокировка берется только при переходе на новый сегмент, и переход не обращается к диску:
+ * следующий сегмент заранее создается и отображается фоновым потоком журнала,
+ * он же сбрасывает заполненный сегмент на диск. Объекты при записи не создаются.
+ * <p>
+ * Формат записи (big-endian, длина кратна 4):
+ * <pre>
+ * int длина записи | byte тип | long номер партии | long время (мс) | поля типа...
+ * </pre>
+ * Нулевая длина означает конец данных сегмента. Читается журнал классом {@link ReplayReader}.
+ */
+public final class ReplayLog implements Closeable {
+    /**
+     * Размер сегмента по умолчанию.
+     */
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+
+    // Типы записей.
+    static final byte MATCH_STARTED = 1;
+    static final byte PLAYER_JOINED = 2;
+    static final byte FIGURES_ISSUED = 3;
+    static final byte PLAYER_FINISHED = 4;
+    static final byte MATCH_FINISHED = 5;
+    static final byte FIGURES_PLACED = 6;
+
+    static final int HEADER_BYTES = Integer.BYTES + 1 + Long.BYTES + Long.BYTES;
+    static final int MAX_NAME_CHARS = 64;
+    static final int MAX_RECORD_BYTES = align(HEADER_BYTES + Integer.BYTES + Short.BYTES + MAX_NAME_CHARS * Character.BYTES);
+    static final String SEGMENT_PREFIX = "replay-";
+    static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Длина записи пишется и читается с барьером: читатель не увидит запись раньше ее полей.
+     */
+    static final VarHandle LENGTH = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Один файл журнала.
+     */
+    private static final class Segment {
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger tail = new AtomicInteger();
+
+        private Segment(Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return смещение зарезервированного места или -1, если сегмент заполнен
+         */
+        private int reserve(int length) {
+            int offset = tail.getAndAdd(length);
+            // Остаток после последней записи остается нулевым - это конец данных сегмента.
+            return offset + length <= buffer.capacity() ? offset : -1;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final ReentrantLock rollLock = new ReentrantLock();
+    private volatile Segment current;
+    /**
+     * Следующий сегмент, который готовит фоновый поток (меняется под rollLock).
+     */
+    private CompletableFuture<Segment> spare;
+    /**
+     * Фоновый поток: создание следующего сегмента и сброс заполненных на диск (null у выключенного журнала).
+     */
+    private final ExecutorService background;
+    // Меняется только при открытии и в фоновом потоке.
+    private int nextSegmentNumber;
+    private long lastMatchId;
+
+    private ReplayLog(Path directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        background = directory == null ? null : Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "replay-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Открытие журнала в каталоге. Запись начинается с нового сегмента после уже существующих.
+     *
+     * @param directory    каталог сегментов (создается при необходимости)
+     * @param segmentBytes размер одного сегмента
+     * @throws IOException              если каталог или файл нельзя создать
+     * @throws IllegalArgumentException если в сегмент не помещается самая длинная запись
+     */
+    public static ReplayLog open(Path directory, int segmentBytes) throws IOException {
+        if (segmentBytes < MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("ReplayLog: Размер сегмента должен быть не меньше "
+                    + MAX_RECORD_BYTES + " байт.");
+        }
+        Files.createDirectories(directory);
+        ReplayLog log = new ReplayLog(directory, segmentBytes);
+        try (Stream<Path> files = Files.list(directory)) {
+            log.nextSegmentNumber = files.mapToInt(ReplayLog::segmentNumber).max().orElse(0) + 1;
+        }
+        log.lastMatchId = ReplayReader.lastMatchId(directory);
+        log.current = log.newSegment();
+        log.prepareSpare();
+        return log;
+    }
+
+    /**
+     * Наибольший номер партии, уже записанной в каталог до открытия журнала (0, если партий нет).
+     * Номера новых партий должны быть больше: иначе партии разных запусков сервера
+     * в одном каталоге нельзя отличить при чтении.
+     */
+    public long getLastMatchId() {
+        return lastMatchId;
+    }
+
+    /**
+     * Журнал, который ничего не записывает (запись партий выключена).
+     */
+    public static ReplayLog disabled() {
+        return new ReplayLog(null, 0);
+    }
+
+    static int segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        Path file = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, nextSegmentNumber++, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+    }
+
+    /**
+     * Создание следующего сегмента в фоновом потоке (под rollLock или при открытии).
+     */
+    private void prepareSpare() {
+        spare = CompletableFuture.supplyAsync(() -> {
+            try {
+                return newSegment();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, background);
+    }
+
+    /**
+     * Сброс сегмента на диск и закрытие его файла. Отображение остается действительным,
+     * поэтому потоки, еще дописывающие зарезервированные в нем записи, не мешают.
+     */
+    private static void retire(Segment segment) {
+        try {
+            segment.buffer.force();
+            segment.channel.close();
+        } catch (IOException e) {
+            ServerLog.get().warn("ReplayLog", "Не удалось сбросить сегмент журнала на диск. {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Переход на новый сегмент, если {@code full} все еще текущий.
+     * Новый сегмент к этому времени обычно уже создан фоновым потоком, а заполненный сбрасывается на диск им же.
+     * Если новый сегмент создать не удалось, запись партий выключается.
+     */
+    private void roll(Segment full) {
+        rollLock.lock();
+        try {
+            if (current != full) {
+                // Другой поток уже перешел на новый сегмент (или журнал закрыт).
+                return;
+            }
+            current = spare.join();
+            prepareSpare();
+            background.execute(() -> retire(full));
+        } catch (CompletionException e) {
+            ServerLog.get().warn("ReplayLog", "Не удалось создать сегмент журнала, запись партий остановлена. {}",
+                    e.getCause().getMessage());
+            current = null;
+        } finally {
+            rollLock.unlock();
+        }
+    }
+
+    private static int align(int length) {
+        return (length + 3) & ~3;
+    }
+
+    private static void putHeader(MappedByteBuffer buffer, int offset, byte type, long matchId) {
+        buffer.put(offset + Integer.BYTES, type);
+        buffer.putLong(offset + Integer.BYTES + 1, matchId);
+        buffer.putLong(offset + Integer.BYTES + 1 + Long.BYTES, System.currentTimeMillis());
+    }
+
+    private static void publish(MappedByteBuffer buffer, int offset, int length) {
+        LENGTH.setRelease(buffer, offset, length);
+    }
+
+    // Каждый метод записи: резервирование места (с переходом на новый сегмент при необходимости),
+    // поля записи, публикация длины.
+
+    public void matchStarted(long matchId, int capacity, int maxSeconds, long seed) {
+        int length = align(HEADER_BYTES + Integer.BYTES + Integer.BYTES + Long.BYTES);
+        Segment segment;
+        int offset = -1;
+        while ((segment = current) != null && (offset = segment.reserve(length)) < 0) {
+            roll(segment);
+        }
+        if (segment == null) {
+            return;
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        putHeader(buffer, offset, MATCH_STARTED, matchId);
+        buffer.putInt(offset + HEADER_BYTES, capacity);
+        buffer.putInt(offset + HEADER_BYTES + Integer.BYTES, maxSeconds);
+        buffer.putLong(offset + HEADER_BYTES + 2 * Integer.BYTES, seed);
+        publish(buffer, offset, length);
+    }
+
+    public void playerJoined(long matchId, int playerIndex, String name) {
+        int nameChars = name == null ? 0 : Math.min(name.length(), MAX_NAME_CHARS);
+        int length = align(HEADER_BYTES + Integer.BYTES + Short.BYTES + nameChars * Character.BYTES);
+        Segment segment;
+        int offset = -1;
+        while ((segment = current) != null && (offset = segment.reserve(length)) < 0) {
+            roll(segment);
+        }
+        if (segment == null) {
+            return;
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        putHeader(buffer, offset, PLAYER_JOINED, matchId);
+        buffer.putInt(offset + HEADER_BYTES, playerIndex);
+        buffer.putShort(offset + HEADER_BYTES + Integer.BYTES, (short) nameChars);
+        int charsOffset = offset + HEADER_BYTES + Integer.BYTES + Short.BYTES;
+        for (int i = 0; i < nameChars; i++) {
+            buffer.putChar(charsOffset + i * Character.BYTES, name.charAt(i));
+        }
+        publish(buffer, offset, length);
+    }
+
+    public void figuresIssued(long matchId, int playerIndex, int fromIndex, int count) {
+        int length = align(HEADER_BYTES + 3 * Integer.BYTES);
+        Segment segment;
+        int offset = -1;
+        while ((segment = current) != null && (offset = segment.reserve(length)) < 0) {
+            roll(segment);
+        }
+        if (segment == null) {
+            return;
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        putHeader(buffer, offset, FIGURES_ISSUED, matchId);
+        buffer.putInt(offset + HEADER_BYTES, playerIndex);
+        buffer.putInt(offset + HEADER_BYTES + Integer.BYTES, fromIndex);
+        buffer.putInt(offset + HEADER_BYTES + 2 * Integer.BYTES, count);
+        publish(buffer, offset, length);
+    }
+
+    public void figuresPlaced(long matchId, int playerIndex, int placed) {
+        int length = align(HEADER_BYTES + 2 * Integer.BYTES);
+        Segment segment;
+        int offset = -1;
+        while ((segment = current) != null && (offset = segment.reserve(length)) < 0) {
+            roll(segment);
+        }
+        if (segment == null) {
+            return;
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        putHeader(buffer, offset, FIGURES_PLACED, matchId);
+        buffer.putInt(offset + HEADER_BYTES, playerIndex);
+        buffer.putInt(offset + HEADER_BYTES + Integer.BYTES, placed);
+        publish(buffer, offset, length);
+    }
+
+    public void playerFinished(long matchId, int playerIndex, int figures, long elapsedSeconds) {
+        int length = align(HEADER_BYTES + 2 * Integer.BYTES + Long.BYTES);
+        Segment segment;
+        int offset = -1;
+        while ((segment = current) != null && (offset = segment.reserve(length)) < 0) {
+            roll(segment);
+        }
+        if (segment == null) {
+            return;
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        putHeader(buffer, offset, PLAYER_FINISHED, matchId);
+        buffer.putInt(offset + HEADER_BYTES, playerIndex);
+        buffer.putInt(offset + HEADER_BYTES + Integer.BYTES, figures);
+        buffer.putLong(offset + HEADER_BYTES + 2 * Integer.BYTES, elapsedSeconds);
+        publish(buffer, offset, length);
+    }
+
+    public void matchFinished(long matchId, int winnerIndex) {
+        int length = align(HEADER_BYTES + Integer.BYTES);
+        Segment segment;
+        int offset = -1;
+        while ((segment = current) != null && (offset = segment.reserve(length)) < 0) {
+            roll(segment);
+        }
+        if (segment == null) {
+            return;
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        putHeader(buffer, offset, MATCH_FINISHED, matchId);
+        buffer.putInt(offset + HEADER_BYTES, winnerIndex);
+        publish(buffer, offset, length);
+    }
+
+    /**
+     * Сброс текущего сегмента на диск и закрытие журнала. Последующие записи игнорируются.
+     * Заготовленный, но не начатый сегмент удаляется.
+     */
+    @Override
+    public void close() throws IOException {
+        rollLock.lock();
+        try {
+            Segment segment = current;
+            current = null;
+            if (segment != null) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            if (spare != null) {
+                Segment unused = spare.exceptionally(e -> null).join();
+                spare = null;
+                if (unused != null) {
+                    unused.channel.close();
+                    try {
+                        Files.deleteIfExists(unused.file);
+                    } catch (IOException e) {
+                        // Пока файл отображен, некоторые ОС не дают его удалить.
+                        // Пустой сегмент читателю не мешает: нулевая длина - конец данных.
+                    }
+                }
+            }
+        } finally {
+            rollLock.unlock();
+        }
+        if (background != null) {
+            // Сброс на диск уже заполненных сегментов завершается до возврата.
+            background.shutdown();
+            try {
+                background.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package jigsaw.server.replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static jigsaw.server.replay.ReplayLog.*;
+
+/**
+ * Чтение журнала партий, записанного {@link ReplayLog}.
+ * <p>
+ * Сегменты отображаются в память только для чтения. При открытии каждый сегмент просматривается один раз,
+ * чтобы узнать диапазон номеров партий в нем; поиск партии по номеру читает только сегменты,
+ * в диапазон которых попадает номер (партии идут почти по порядку номеров, поэтому таких сегментов мало).
+ * Журнал можно читать, пока сервер пишет в него: видны только опубликованные записи.
+ */
+public final class ReplayReader implements Closeable {
+    /**
+     * Сегмент и диапазон номеров партий в нем.
+     */
+    private static final class SegmentView {
+        private final MappedByteBuffer buffer;
+        private long minMatchId = Long.MAX_VALUE;
+        private long maxMatchId = Long.MIN_VALUE;
+
+        private SegmentView(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private final List<SegmentView> segments = new ArrayList<>();
+
+    private ReplayReader() {
+    }
+
+    /**
+     * Открытие всех сегментов каталога (в порядке их номеров).
+     *
+     * @param directory каталог журнала
+     * @throws IOException если каталог или сегмент нельзя прочитать
+     */
+    public static ReplayReader open(Path directory) throws IOException {
+        ReplayReader reader = new ReplayReader();
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(file -> segmentNumber(file) > 0)
+                    .sorted(Comparator.comparingInt(ReplayLog::segmentNumber))
+                    .toList();
+        }
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                SegmentView segment = new SegmentView(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                forEachRecord(segment.buffer, offset -> {
+                    long matchId = segment.buffer.getLong(offset + Integer.BYTES + 1);
+                    segment.minMatchId = Math.min(segment.minMatchId, matchId);
+                    segment.maxMatchId = Math.max(segment.maxMatchId, matchId);
+                });
+                reader.segments.add(segment);
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Наибольший номер партии в последнем непустом сегменте каталога (0, если записей нет).
+     * Итог каждой партии записывается после ее начала, поэтому при штатной остановке сервера
+     * последняя начатая партия есть в последнем сегменте и более старые сегменты читать не нужно.
+     *
+     * @param directory каталог журнала
+     * @throws IOException если каталог или сегмент нельзя прочитать
+     */
+    static long lastMatchId(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(file -> segmentNumber(file) > 0)
+                    .sorted(Comparator.comparingInt(ReplayLog::segmentNumber).reversed())
+                    .toList();
+        }
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                long[] max = {0};
+                forEachRecord(buffer, offset -> max[0] = Math.max(max[0], buffer.getLong(offset + Integer.BYTES + 1)));
+                if (max[0] > 0) {
+                    return max[0];
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Все записи журнала по порядку.
+     */
+    public void replayAll(ReplayVisitor visitor) {
+        for (SegmentView segment : segments) {
+            forEachRecord(segment.buffer, offset -> visit(segment.buffer, offset, visitor));
+        }
+    }
+
+    /**
+     * Записи одной партии по порядку.
+     */
+    public void replay(long matchId, ReplayVisitor visitor) {
+        for (SegmentView segment : segments) {
+            if (matchId < segment.minMatchId || matchId > segment.maxMatchId) {
+                continue;
+            }
+            forEachRecord(segment.buffer, offset -> {
+                if (segment.buffer.getLong(offset + Integer.BYTES + 1) == matchId) {
+                    visit(segment.buffer, offset, visitor);
+                }
+            });
+        }
+    }
+
+    private interface RecordAction {
+        void accept(int offset);
+    }
+
+    private static void forEachRecord(MappedByteBuffer buffer, RecordAction action) {
+        int offset = 0;
+        while (offset + Integer.BYTES <= buffer.capacity()) {
+            int length = (int) LENGTH.getAcquire(buffer, offset);
+            if (length <= 0 || offset + length > buffer.capacity()) {
+                return;
+            }
+            action.accept(offset);
+            offset += length;
+        }
+    }
+
+    private static void visit(MappedByteBuffer buffer, int offset, ReplayVisitor visitor) {
+        byte type = buffer.get(offset + Integer.BYTES);
+        long matchId = buffer.getLong(offset + Integer.BYTES + 1);
+        long timeMillis = buffer.getLong(offset + Integer.BYTES + 1 + Long.BYTES);
+        int body = offset + HEADER_BYTES;
+        switch (type) {
+            case MATCH_STARTED -> visitor.onMatchStarted(matchId, timeMillis,
+                    buffer.getInt(body), buffer.getInt(body + Integer.BYTES), buffer.getLong(body + 2 * Integer.BYTES));
+            case PLAYER_JOINED -> {
+                int nameChars = buffer.getShort(body + Integer.BYTES);
+                char[] name = new char[nameChars];
+                for (int i = 0; i < nameChars; i++) {
+                    name[i] = buffer.getChar(body + Integer.BYTES + Short.BYTES + i * Character.BYTES);
+                }
+                visitor.onPlayerJoined(matchId, timeMillis, buffer.getInt(body), new String(name));
+            }
+            case FIGURES_ISSUED -> visitor.onFiguresIssued(matchId, timeMillis,
+                    buffer.getInt(body), buffer.getInt(body + Integer.BYTES), buffer.getInt(body + 2 * Integer.BYTES));
+            case FIGURES_PLACED -> visitor.onFiguresPlaced(matchId, timeMillis,
+                    buffer.getInt(body), buffer.getInt(body + Integer.BYTES));
+            case PLAYER_FINISHED -> visitor.onPlayerFinished(matchId, timeMillis,
+                    buffer.getInt(body), buffer.getInt(body + Integer.BYTES), buffer.getLong(body + 2 * Integer.BYTES));
+            case MATCH_FINISHED -> visitor.onMatchFinished(matchId, timeMillis, buffer.getInt(body));
+            default -> {
+                // Запись неизвестного типа (из более новой версии сервера) пропускается.
+            }
+        }
+    }
+
+    /**
+     * Отображенные сегменты освобождаются сборщиком мусора; метод нужен для try-with-resources.
+     */
+    @Override
+    public void close() {
+        segments.clear();
+    }
+}
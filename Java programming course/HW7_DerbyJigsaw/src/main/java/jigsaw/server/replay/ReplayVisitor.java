@@ -0,0 +1,47 @@
+package jigsaw.server.replay;
+
+/**
+ * Получатель записей журнала партий при чтении {@link ReplayReader}.
+ * Методы вызываются в порядке записи; ненужные можно не переопределять.
+ */
+public interface ReplayVisitor {
+    /**
+     * Партия началась (все игроки подключились).
+     *
+     * @param seed зерно последовательности фигур: по нему восстанавливаются все фигуры партии
+     */
+    default void onMatchStarted(long matchId, long timeMillis, int capacity, int maxSeconds, long seed) {
+    }
+
+    /**
+     * Игрок участвует в партии (записывается сразу после начала партии).
+     */
+    default void onPlayerJoined(long matchId, long timeMillis, int playerIndex, String name) {
+    }
+
+    /**
+     * Игроку выданы фигуры с номерами [{@code fromIndex}, {@code fromIndex + count}).
+     */
+    default void onFiguresIssued(long matchId, long timeMillis, int playerIndex, int fromIndex, int count) {
+    }
+
+    /**
+     * Игрок поставил {@code placed} фигур партии (выданных из-за предзапроса может быть больше).
+     */
+    default void onFiguresPlaced(long matchId, long timeMillis, int playerIndex, int placed) {
+    }
+
+    /**
+     * Игрок прислал результат.
+     */
+    default void onPlayerFinished(long matchId, long timeMillis, int playerIndex, int figures, long elapsedSeconds) {
+    }
+
+    /**
+     * Партия завершена.
+     *
+     * @param winnerIndex номер победителя или -1, если партнер вышел из игры
+     */
+    default void onMatchFinished(long matchId, long timeMillis, int winnerIndex) {
+    }
+}
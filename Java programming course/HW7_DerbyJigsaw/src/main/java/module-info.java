@@ -2,6 +2,7 @@ module jigsaw {
     requires javafx.controls;
     requires javafx.fxml;
     requires java.sql;
+    requires java.management;
 
     exports jigsaw.client.controllers;
     opens jigsaw.client.controllers to javafx.fxml;
@@ -13,4 +14,6 @@ module jigsaw {
     opens jigsaw.client to javafx.fxml;
     exports jigsaw.client.backend.figure;
     opens jigsaw.client.backend.figure to javafx.fxml;
+    // Интерфейс MXBean должен быть доступен JMX.
+    exports jigsaw.server.metrics;
 }
\ No newline at end of file
@@ -53,4 +53,27 @@ public class JigsawFiguresSeederTest {
         assertEquals((4 * 4 * 4) + (2 * 5 * 4) + (2 * 3 + 4 * 3) + 1, allCellsCount);
         assertEquals(31, figureImages.length);
     }
-}
\ No newline at end of file
+
+    /**
+     * Последовательность по зерну детерминирована, зависит от зерна
+     * и использует все изображения примерно поровну.
+     */
+    @Test
+    public void testSeededSequence() {
+        int count = JigsawFiguresSeeder.getFigureImagesCount();
+        int[] hits = new int[count];
+        boolean seedsDiffer = false;
+        int samples = count * 1000;
+        for (int n = 0; n < samples; n++) {
+            int index = JigsawFiguresSeeder.getFigureImageIndex(42, n);
+            assertEquals(index, JigsawFiguresSeeder.getFigureImageIndex(42, n));
+            seedsDiffer |= index != JigsawFiguresSeeder.getFigureImageIndex(43, n);
+            hits[index]++;
+        }
+        assertTrue(seedsDiffer);
+        for (int hit : hits) {
+            // Ожидается 1000 попаданий на изображение.
+            assertTrue(hit > 800 && hit < 1200, "Неравномерное распределение: " + Arrays.toString(hits));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package jigsaw.protocol;
+
+import jigsaw.client.backend.figure.JigsawFigure;
+import jigsaw.packagemodels.*;
+import jigsaw.server.ormmodels.GameStatModel;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryPackageCodecTest {
+    private final BinaryPackageCodec codec = new BinaryPackageCodec();
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(Object message) throws IOException {
+        byte[] frame = codec.encode(message);
+        // Кадр может лежать в середине большего буфера.
+        byte[] buffer = new byte[frame.length + 3];
+        System.arraycopy(frame, 0, buffer, 2, frame.length);
+        return (T) codec.decode(buffer, 2, frame.length);
+    }
+
+    /**
+     * Команды без данных занимают два байта и восстанавливаются с тем же type.
+     */
+    @Test
+    public void testCommands() throws Exception {
+        assertEquals(2, codec.encode(new GeneralPackage("begin")).length);
+        assertEquals("figure", this.<GeneralPackage>roundTrip(new GeneralPackage("figure")).type);
+        assertEquals("something new", this.<GeneralPackage>roundTrip(new GeneralPackage("something new")).type);
+    }
+
+    /**
+     * Все пакеты восстанавливаются с теми же значениями полей.
+     */
+    @Test
+    public void testPackages() throws Exception {
+        assertEquals("игрок", this.<NamePackage>roundTrip(new NamePackage("игрок")).name);
+
+        Timestamp endTime = Timestamp.valueOf("2022-03-01 12:30:45.123456789");
+        GameStatPackage stat = roundTrip(new GameStatPackage(7, 42, endTime));
+        assertEquals(7, stat.numberOfFigures);
+        assertEquals(42, stat.elapsedSeconds);
+        assertEquals(endTime, stat.endTime);
+        assertEquals("end", stat.type);
+
+        BeginToClientPackage begin = roundTrip(new BeginToClientPackage("bob", 60));
+        assertEquals("bob", begin.name);
+        assertEquals(60, begin.maxSeconds);
+        // Игрок без имени не ломает отправку.
+        assertEquals("", this.<BeginToClientPackage>roundTrip(new BeginToClientPackage(null, 60)).name);
+        assertEquals("", this.<NamePackage>roundTrip(new NamePackage(null)).name);
+
+        FiguresRequestPackage request = roundTrip(new FiguresRequestPackage(8, 13));
+        assertEquals(8, request.count);
+        assertEquals(13, request.placed);
+        assertEquals("figures", request.type);
+
+        assertEquals("LOSE", this.<WonLosePackage>roundTrip(new WonLosePackage("LOSE")).value);
+        assertTrue(this.<BoolPackage>roundTrip(new BoolPackage(true)).value);
+        assertEquals(EventPackage.OPPONENT_LEFT,
+                this.<EventPackage>roundTrip(new EventPackage(EventPackage.OPPONENT_LEFT)).event);
+
+        List<GameStatModel> games = List.of(new GameStatModel("alice", endTime, 3, 100),
+                new GameStatModel("bob", endTime, 5, 90));
+        assertEquals(games, this.<TopGamesPackage>roundTrip(new TopGamesPackage(games)).topGames);
+    }
+
+    /**
+     * Фигура из каталога передается номером формы
+     * и на принимающей стороне становится общим экземпляром из каталога.
+     */
+    @Test
+    public void testCatalogFigure() throws Exception {
+        JigsawFigure figure = JigsawFigure.ofShape(7);
+        assertEquals(2, codec.encode(figure).length);
+        assertSame(figure, roundTrip(figure));
+        // Случайная фигура тоже из каталога.
+        JigsawFigure random = new JigsawFigure(JigsawFigure.DEFAULT_FIGURE_NUM_CELLS, JigsawFigure.DEFAULT_FIGURE_NUM_CELLS);
+        assertSame(JigsawFigure.ofShape(random.getShapeId()), roundTrip(random));
+
+        List<JigsawFigure> batch = List.of(JigsawFigure.ofShape(0), JigsawFigure.ofShape(30));
+        // Код, количество и по байту на фигуру.
+        assertEquals(5, codec.encode(new FiguresPackage(batch)).length);
+        assertEquals(batch, this.<FiguresPackage>roundTrip(new FiguresPackage(batch)).figures);
+
+        // Кодек Java serialization тоже передает только номер формы.
+        SerializedPackageCodec serialized = new SerializedPackageCodec();
+        byte[] frame = serialized.encode(figure);
+        assertSame(figure, serialized.decode(frame, 0, frame.length));
+    }
+
+    /**
+     * Изображение фигуры не из каталога передается по битам и совпадает с исходным.
+     */
+    @Test
+    public void testFigure() throws Exception {
+        JigsawFigure figure = new JigsawFigure(new boolean[][]{
+                {true, false, true},
+                {false, true, false},
+                {true, true, false}});
+        // Код сообщения, два размера и 9 бит изображения.
+        assertEquals(5, codec.encode(figure).length);
+        JigsawFigure decoded = roundTrip(figure);
+        assertEquals(figure.getVerticalSize(), decoded.getVerticalSize());
+        assertEquals(figure.getHorizontalSize(), decoded.getHorizontalSize());
+        for (int y = 0; y < figure.getVerticalSize(); y++) {
+            for (int x = 0; x < figure.getHorizontalSize(); x++) {
+                assertEquals(figure.has(x, y), decoded.has(x, y));
+            }
+        }
+    }
+
+    /**
+     * Испорченный кадр - IOException, а не исключение времени выполнения.
+     */
+    @Test
+    public void testCorruptedFrame() {
+        assertThrows(IOException.class, () -> codec.decode(new byte[]{99}, 0, 1));
+        assertThrows(IOException.class, () -> codec.decode(new byte[]{BinaryPackageCodec.OP_GAME_STAT, 1}, 0, 2));
+        assertThrows(IOException.class, () -> codec.decode(new byte[]{BinaryPackageCodec.OP_COMMAND, 100}, 0, 2));
+    }
+}
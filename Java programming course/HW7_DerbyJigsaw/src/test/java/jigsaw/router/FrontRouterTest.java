@@ -0,0 +1,171 @@
+package jigsaw.router;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrontRouterTest {
+    private FrontRouter router;
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    /**
+     * Поддельный игровой сервер: при подключении отправляет свою метку, затем возвращает все полученные байты.
+     */
+    private final class FakeWorker {
+        private final ServerSocket server = new ServerSocket(0);
+        private final Socket control = new Socket("localhost", router.getControlPort());
+        /**
+         * Подключения, закрытые клиентом.
+         */
+        private final AtomicInteger disconnected = new AtomicInteger();
+
+        FakeWorker(char mark) throws IOException {
+            resources.add(server);
+            resources.add(control);
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket client = server.accept();
+                        resources.add(client);
+                        Thread echo = new Thread(() -> {
+                            try (client) {
+                                OutputStream out = client.getOutputStream();
+                                out.write(mark);
+                                client.getInputStream().transferTo(out);
+                            } catch (IOException ignored) {
+                                // Клиент отключился.
+                            } finally {
+                                disconnected.incrementAndGet();
+                            }
+                        });
+                        echo.setDaemon(true);
+                        echo.start();
+                    }
+                } catch (IOException ignored) {
+                    // Сервер закрыт.
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        void report(int clients) throws IOException {
+            control.getOutputStream().write(("LOAD " + server.getLocalPort() + " " + clients + " 0\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @BeforeEach
+    void startRouter() throws IOException {
+        router = new FrontRouter(0, 0, 2);
+        router.start();
+    }
+
+    @AfterEach
+    void stopRouter() throws Exception {
+        router.close();
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Условие не выполнено за 5 с.");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Подключение клиента через маршрутизатор.
+     *
+     * @return метка сервера, на который попал клиент
+     */
+    private char connectClient() throws IOException {
+        Socket client = new Socket("localhost", router.getPort());
+        resources.add(client);
+        client.setSoTimeout(5000);
+        InputStream in = client.getInputStream();
+        char mark = (char) in.read();
+        // Данные проходят в обе стороны.
+        client.getOutputStream().write(42);
+        assertEquals(42, in.read());
+        return mark;
+    }
+
+    /**
+     * Клиенты направляются парами (по размеру партии) на наименее нагруженный сервер;
+     * отключившийся сервер больше не получает клиентов.
+     */
+    @Test
+    public void testGroupsArePlacedOnLeastLoadedWorker() throws Exception {
+        FakeWorker busy = new FakeWorker('A');
+        FakeWorker idle = new FakeWorker('B');
+        busy.report(10);
+        idle.report(0);
+        awaitCondition(() -> router.getWorkers().size() == 2);
+
+        assertEquals('B', connectClient());
+        assertEquals('B', connectClient());
+        // Направленные клиенты учитываются до следующего отчета: 0 + 2 все еще меньше 10.
+        assertEquals('B', connectClient());
+        assertEquals('B', connectClient());
+
+        idle.report(50);
+        Thread.sleep(100);
+        assertEquals('A', connectClient());
+        assertEquals('A', connectClient());
+
+        idle.control.close();
+        awaitCondition(() -> router.getWorkers().size() == 1);
+        assertEquals('A', connectClient());
+    }
+
+    /**
+     * Клиент, отключившийся до того, как набралась его группа, возвращает место:
+     * следующий клиент попадает на тот же сервер, хотя другой сервер теперь свободнее.
+     */
+    @Test
+    public void testDroppedClientReturnsItsPlaceInGroup() throws Exception {
+        FakeWorker first = new FakeWorker('A');
+        first.report(0);
+        awaitCondition(() -> router.getWorkers().size() == 1);
+        assertEquals('A', connectClient());
+        Socket dropped = new Socket("localhost", router.getPort());
+        assertEquals('A', dropped.getInputStream().read());
+        dropped.close();
+        // Сервер видит отключение после того, как маршрутизатор узнал о нем.
+        awaitCondition(() -> first.disconnected.get() == 1);
+
+        FakeWorker second = new FakeWorker('B');
+        second.report(0);
+        awaitCondition(() -> router.getWorkers().size() == 2);
+        assertEquals('A', connectClient());
+        assertEquals('B', connectClient());
+    }
+
+    /**
+     * Без подключенных серверов маршрутизатор сразу закрывает подключение клиента.
+     */
+    @Test
+    public void testClientIsClosedWithoutWorkers() throws Exception {
+        try (Socket client = new Socket("localhost", router.getPort())) {
+            client.setSoTimeout(5000);
+            assertEquals(-1, client.getInputStream().read());
+        }
+    }
+}
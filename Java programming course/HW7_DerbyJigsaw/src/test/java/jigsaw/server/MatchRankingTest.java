@@ -0,0 +1,26 @@
+package jigsaw.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MatchRankingTest {
+    /**
+     * Место считается среди уже приславших результат: больше фигур - выше, при равенстве - быстрее.
+     */
+    @Test
+    public void testPlacesAreUpdatedAsResultsArrive() {
+        MatchRanking ranking = new MatchRanking();
+        assertNull(ranking.leader());
+        assertEquals(1, ranking.add(1, "a", 5, 30));
+        assertEquals(1, ranking.add(2, "b", 7, 40));
+        assertEquals(2, ranking.add(3, "c", 5, 20));
+        assertEquals(4, ranking.add(4, "d", 5, 30));
+
+        assertEquals(2, ranking.leader().playerIndex());
+        List<MatchRanking.Entry> standings = ranking.standings();
+        assertEquals(List.of(2, 3, 1, 4), standings.stream().map(MatchRanking.Entry::playerIndex).toList());
+    }
+}
@@ -0,0 +1,604 @@
+package jigsaw.server;
+
+import jigsaw.bot.BotStats;
+import jigsaw.bot.LoadGenerator;
+import jigsaw.client.backend.ServerConnection;
+import jigsaw.router.FrontRouter;
+import jigsaw.client.backend.figure.JigsawFigure;
+import jigsaw.packagemodels.*;
+import jigsaw.protocol.FramedConnection;
+import jigsaw.protocol.WireProtocol;
+import jigsaw.server.dbconn.DbConnUtils;
+import jigsaw.server.metrics.GameServerMetrics;
+import jigsaw.server.ormmodels.GameStatModel;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioGameServerTest {
+    private NioGameServer server;
+
+    /**
+     * Результаты игр пишутся в БД, поэтому для тестов с end она создается заново.
+     */
+    @BeforeAll
+    static void initDatabase() throws Exception {
+        deleteDerbyFolder();
+        DbConnUtils.initializeConnection();
+    }
+
+    @AfterAll
+    static void closeDatabase() {
+        DbConnUtils.closeConnection();
+        deleteDerbyFolder();
+    }
+
+    private static void deleteDerbyFolder() {
+        File derbyDir = new File("DERBY");
+        if (derbyDir.exists()) {
+            assertDoesNotThrow(() -> FileUtils.deleteDirectory(derbyDir));
+        }
+    }
+
+    @BeforeEach
+    void startServer() throws Exception {
+        ServerConfig config = new ServerConfig()
+                .withEngine(ServerConfig.Engine.NIO)
+                .withPort(0)
+                .withMaxPlayers(2)
+                .withMaxSeconds(30)
+                .withEventLoops(2);
+        MultithreadedGameServer.configure(config);
+        server = new NioGameServer(config);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() throws Exception {
+        server.close();
+    }
+
+    private FramedConnection connect(Socket socket, String name) throws Exception {
+        return connect(socket, name, WireProtocol.VERSION_SERIALIZED);
+    }
+
+    private FramedConnection connect(Socket socket, String name, byte version) throws Exception {
+        socket.setSoTimeout(5000);
+        FramedConnection connection = FramedConnection.connect(socket, version);
+        connection.send(new NamePackage(name));
+        return connection;
+    }
+
+    /**
+     * Два игрока на разных циклах обработки и с разными версиями протокола:
+     * оба получают begin с именем партнера, затем каждый получает фигуру.
+     */
+    @Test
+    public void testTwoPlayersBeginAndFigure() throws Exception {
+        try (Socket first = new Socket("localhost", server.getPort());
+             Socket second = new Socket("localhost", server.getPort())) {
+            FramedConnection alice = connect(first, "alice");
+            FramedConnection bob = connect(second, "bob", WireProtocol.VERSION_BINARY);
+
+            alice.send(new GeneralPackage("begin"));
+            bob.send(new GeneralPackage("begin"));
+            assertEquals("bob", ((BeginToClientPackage) alice.receive()).name);
+            BeginToClientPackage bobBegin = (BeginToClientPackage) bob.receive();
+            assertEquals("alice", bobBegin.name);
+            assertEquals(30, bobBegin.maxSeconds);
+
+            alice.send(new GeneralPackage("figure"));
+            bob.send(new GeneralPackage("figure"));
+            assertEquals(JigsawFigure.DEFAULT_FIGURE_NUM_CELLS, ((JigsawFigure) alice.receive()).getVerticalSize());
+            assertNotNull(bob.receive());
+        }
+    }
+
+    /**
+     * Игроки сверх размера партии не отключаются, а попадают в следующую партию:
+     * две партии идут одновременно, у каждой свой партнер и свой результат.
+     */
+    @Test
+    public void testPlayersArePairedIntoIndependentMatches() throws Exception {
+        try (Socket s1 = new Socket("localhost", server.getPort());
+             Socket s2 = new Socket("localhost", server.getPort());
+             Socket s3 = new Socket("localhost", server.getPort());
+             Socket s4 = new Socket("localhost", server.getPort())) {
+            FramedConnection alice = connect(s1, "alice");
+            FramedConnection bob = connect(s2, "bob");
+            FramedConnection carol = connect(s3, "carol");
+            FramedConnection dave = connect(s4, "dave");
+
+            alice.send(new GeneralPackage("begin"));
+            bob.send(new GeneralPackage("begin"));
+            assertEquals("bob", ((BeginToClientPackage) alice.receive()).name);
+            assertEquals("alice", ((BeginToClientPackage) bob.receive()).name);
+            carol.send(new GeneralPackage("begin"));
+            dave.send(new GeneralPackage("begin"));
+            assertEquals("dave", ((BeginToClientPackage) carol.receive()).name);
+            assertEquals("carol", ((BeginToClientPackage) dave.receive()).name);
+
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            carol.send(new GameStatPackage(5, 10, now));
+            dave.send(new GameStatPackage(2, 10, now));
+            assertEquals("WON", ((WonLosePackage) carol.receive()).value);
+            assertEquals("LOSE", ((WonLosePackage) dave.receive()).value);
+
+            alice.send(new GameStatPackage(1, 10, now));
+            bob.send(new GameStatPackage(1, 5, now));
+            assertEquals("LOSE", ((WonLosePackage) alice.receive()).value);
+            assertEquals("WON", ((WonLosePackage) bob.receive()).value);
+        }
+    }
+
+    /**
+     * Первый завершивший игру ждет результата партнера без активного ожидания
+     * и сразу получает победу, когда партнер отключается.
+     */
+    @Test
+    public void testFirstFinisherWinsWhenOpponentLeaves() throws Exception {
+        try (Socket first = new Socket("localhost", server.getPort())) {
+            FramedConnection alice = connect(first, "alice");
+            Socket second = new Socket("localhost", server.getPort());
+            FramedConnection bob = connect(second, "bob");
+            alice.send(new GeneralPackage("begin"));
+            bob.send(new GeneralPackage("begin"));
+            alice.receive();
+            bob.receive();
+
+            alice.send(new GameStatPackage(3, 10, new Timestamp(System.currentTimeMillis())));
+            second.close();
+            assertEquals("WON", ((WonLosePackage) alice.receive()).value);
+        }
+    }
+
+    /**
+     * Подписанный на события клиент узнает о выходе партнера сразу, без опроса,
+     * а ответы на запросы по-прежнему получает через receive.
+     */
+    @Test
+    public void testOpponentLeftIsPushedToSubscribedClient() throws Exception {
+        try (Socket first = new Socket("localhost", server.getPort())) {
+            ServerConnection alice = ServerConnection.connect(first);
+            CompletableFuture<String> event = new CompletableFuture<>();
+            alice.addListener(new ServerConnection.Listener() {
+                @Override
+                public void onEvent(EventPackage received) {
+                    event.complete(received.event);
+                }
+
+                @Override
+                public void onClosed() {
+                    event.completeExceptionally(new IllegalStateException("Сервер закрыл подключение"));
+                }
+            });
+            alice.send(new NamePackage("alice"));
+            Socket second = new Socket("localhost", server.getPort());
+            FramedConnection bob = connect(second, "bob");
+            alice.send(new GeneralPackage("begin"));
+            bob.send(new GeneralPackage("begin"));
+            assertEquals("bob", ((BeginToClientPackage) alice.receive()).name);
+            bob.receive();
+
+            second.close();
+            assertEquals(EventPackage.OPPONENT_LEFT, event.get(5, TimeUnit.SECONDS));
+            alice.send(new GameStatPackage(3, 10, new Timestamp(System.currentTimeMillis())));
+            assertEquals("WON", ((WonLosePackage) alice.receive()).value);
+            alice.close();
+        }
+    }
+
+    /**
+     * Партия завершается по часам сервера, даже если клиент не прислал результат:
+     * приславший результат побеждает сразу, опоздавший получает событие и проигрывает.
+     */
+    @Test
+    public void testMatchIsEndedByServerClock() throws Exception {
+        MultithreadedGameServer.matchMaker = new FifoMatchMaker(2, 1);
+        try (Socket first = new Socket("localhost", server.getPort());
+             Socket second = new Socket("localhost", server.getPort())) {
+            ServerConnection alice = ServerConnection.connect(first);
+            BlockingQueue<String> events = new LinkedBlockingQueue<>();
+            alice.addListener(new ServerConnection.Listener() {
+                @Override
+                public void onEvent(EventPackage received) {
+                    events.add(received.event);
+                }
+
+                @Override
+                public void onClosed() {
+                    events.add("closed");
+                }
+            });
+            alice.send(new NamePackage("alice"));
+            FramedConnection bob = connect(second, "bob");
+            alice.send(new GeneralPackage("begin"));
+            bob.send(new GeneralPackage("begin"));
+            alice.receive();
+            bob.receive();
+
+            bob.send(new GameStatPackage(0, 1, new Timestamp(System.currentTimeMillis())));
+            assertEquals(EventPackage.OPPONENT_FINISHED, events.poll(5, TimeUnit.SECONDS));
+            assertEquals(EventPackage.TIME_IS_UP,
+                    events.poll(1 + Match.DEADLINE_GRACE_SECONDS + 2, TimeUnit.SECONDS));
+            assertEquals("WON", ((WonLosePackage) bob.receive()).value);
+            // Опоздавший результат записывается, но победителя уже не меняет.
+            alice.send(new GameStatPackage(5, 1, new Timestamp(System.currentTimeMillis())));
+            assertEquals("LOSE", ((WonLosePackage) alice.receive()).value);
+            alice.close();
+        }
+    }
+
+    /**
+     * Партия на восьмерых: выход одного игрока не завершает ее для остальных,
+     * каждый игрок получает окончательное место, побеждает лучший результат.
+     */
+    @Test
+    public void testLargeMatchRanksAllPlayers() throws Exception {
+        int players = 8;
+        MultithreadedGameServer.matchMaker = new FifoMatchMaker(players, 30);
+        Socket[] sockets = new Socket[players];
+        ServerConnection[] connections = new ServerConnection[players];
+        List<BlockingQueue<MatchEventPackage>> ranks = new java.util.ArrayList<>();
+        try {
+            for (int i = 0; i < players; i++) {
+                BlockingQueue<MatchEventPackage> events = new LinkedBlockingQueue<>();
+                ranks.add(events);
+                sockets[i] = new Socket("localhost", server.getPort());
+                sockets[i].setSoTimeout(5000);
+                connections[i] = ServerConnection.connect(sockets[i]);
+                connections[i].addListener(new ServerConnection.Listener() {
+                    @Override
+                    public void onEvent(EventPackage event) {
+                    }
+
+                    @Override
+                    public void onMatchEvent(MatchEventPackage event) {
+                        events.add(event);
+                    }
+
+                    @Override
+                    public void onClosed() {
+                    }
+                });
+                connections[i].send(new NamePackage("player" + i));
+                connections[i].send(new GeneralPackage("begin"));
+            }
+            for (ServerConnection connection : connections) {
+                assertInstanceOf(BeginToClientPackage.class, connection.receive());
+            }
+            connections[0].close();
+            for (int i = 1; i < players; i++) {
+                connections[i].send(new GameStatPackage(i, 10, new Timestamp(System.currentTimeMillis())));
+            }
+            for (int i = 1; i < players; i++) {
+                assertEquals(i == players - 1 ? "WON" : "LOSE", ((WonLosePackage) connections[i].receive()).value);
+                MatchEventPackage event;
+                do {
+                    event = ranks.get(i).poll(5, TimeUnit.SECONDS);
+                    assertNotNull(event);
+                } while (!event.kind.equals(MatchEventPackage.FINAL_RANK));
+                assertEquals(players - i, event.value);
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Ожидание рейтинга игрока: top выполняется в том же потоке БД после чтения рейтинга.
+     */
+    private static void awaitRating(FramedConnection player) throws Exception {
+        player.send(new GeneralPackage("top"));
+        assertInstanceOf(TopGamesPackage.class, player.receive());
+    }
+
+    private static void insertGames(String login, int figures, long seconds) throws Exception {
+        for (int i = 0; i < 3; i++) {
+            DbConnUtils.insertGameResults(new GameStatModel(login,
+                    new Timestamp(System.currentTimeMillis()), figures, seconds));
+        }
+    }
+
+    /**
+     * В рейтинговом подборе игроки ждут партнера своего уровня, а не первого в очереди.
+     */
+    @Test
+    public void testRankedPlayersAreMatchedByRating() throws Exception {
+        MultithreadedGameServer.matchMaker = new RankedMatchMaker(2, 30, 10, 60);
+        insertGames("novice", 6, 60);
+        insertGames("ace1", 60, 60);
+        insertGames("ace2", 60, 60);
+        try (Socket first = new Socket("localhost", server.getPort());
+             Socket second = new Socket("localhost", server.getPort());
+             Socket third = new Socket("localhost", server.getPort())) {
+            FramedConnection novice = connect(first, "novice");
+            FramedConnection ace1 = connect(second, "ace1");
+            FramedConnection ace2 = connect(third, "ace2");
+            awaitRating(novice);
+            awaitRating(ace1);
+            awaitRating(ace2);
+            novice.send(new GeneralPackage("begin"));
+            ace1.send(new GeneralPackage("begin"));
+            ace2.send(new GeneralPackage("begin"));
+            assertEquals("ace1", ((BeginToClientPackage) ace2.receive()).name);
+            assertEquals("ace2", ((BeginToClientPackage) ace1.receive()).name);
+            // Новичок все еще ждет: следующая команда отменяет ожидание, и ответ на нее - фигура.
+            novice.send(new GeneralPackage("figure"));
+            assertInstanceOf(JigsawFigure.class, novice.receive());
+        }
+    }
+
+    /**
+     * Окно поиска расширяется со временем ожидания: игроки соседних корзин рейтинга
+     * в конце концов попадают в одну партию.
+     */
+    @Test
+    public void testRankedSearchWindowWidensOverTime() throws Exception {
+        MultithreadedGameServer.matchMaker = new RankedMatchMaker(2, 30, 10, 1);
+        insertGames("steady1", 10, 60);
+        insertGames("steady2", 12, 60);
+        try (Socket first = new Socket("localhost", server.getPort());
+             Socket second = new Socket("localhost", server.getPort())) {
+            FramedConnection steady1 = connect(first, "steady1");
+            FramedConnection steady2 = connect(second, "steady2");
+            awaitRating(steady1);
+            awaitRating(steady2);
+            steady1.send(new GeneralPackage("begin"));
+            steady2.send(new GeneralPackage("begin"));
+            assertEquals("steady1", ((BeginToClientPackage) steady2.receive()).name);
+            assertEquals("steady2", ((BeginToClientPackage) steady1.receive()).name);
+        }
+    }
+
+    /**
+     * Фигуры, полученные через очередь предзапроса, идут в том же порядке,
+     * что и у партнера, запросившего их одной пачкой: у партии одна последовательность.
+     */
+    @Test
+    public void testPrefetchedFiguresFollowMatchSequence() throws Exception {
+        try (Socket first = new Socket("localhost", server.getPort());
+             Socket second = new Socket("localhost", server.getPort())) {
+            ServerConnection alice = ServerConnection.connect(first);
+            alice.send(new NamePackage("alice"));
+            FramedConnection bob = connect(second, "bob", WireProtocol.VERSION_BINARY);
+            alice.figures().reset();
+            alice.send(new GeneralPackage("begin"));
+            bob.send(new GeneralPackage("begin"));
+            alice.receive();
+            bob.receive();
+
+            int count = 10;
+            bob.send(new FiguresRequestPackage(count));
+            List<JigsawFigure> expected = ((FiguresPackage) bob.receive()).figures;
+            assertEquals(count, expected.size());
+            for (JigsawFigure figure : expected) {
+                JigsawFigure actual = alice.figures().next();
+                for (int y = 0; y < figure.getVerticalSize(); y++) {
+                    for (int x = 0; x < figure.getHorizontalSize(); x++) {
+                        assertEquals(figure.has(x, y), actual.has(x, y));
+                    }
+                }
+            }
+            alice.close();
+        }
+    }
+
+    /**
+     * Несколько ботов сами разбиваются на пары и доигрывают все партии без ошибок.
+     */
+    @Test
+    public void testBotsPlayAllGames() throws Exception {
+        LoadGenerator.Settings settings = LoadGenerator.Settings.parse(new String[]{
+                "port=" + server.getPort(), "bots=6", "games=2", "timeoutMillis=10000"});
+        BotStats stats = LoadGenerator.run(settings);
+        assertEquals(0, stats.getErrors());
+        assertEquals(12, stats.getGamesPlayed());
+        assertEquals(6, stats.getGamesWon());
+        assertEquals(6, stats.getLatencies().get("connect").getCount());
+        assertTrue(stats.getLatencies().get("figure").getCount() >= 12);
+    }
+
+    /**
+     * Зрители с разными версиями протокола получают состояние партии и все ее события;
+     * без идущей партии зритель получает отказ.
+     */
+    @Test
+    public void testSpectatorsReceiveMatchEvents() throws Exception {
+        try (Socket first = new Socket("localhost", server.getPort());
+             Socket second = new Socket("localhost", server.getPort());
+             Socket binaryWatcher = new Socket("localhost", server.getPort());
+             Socket serializedWatcher = new Socket("localhost", server.getPort())) {
+            FramedConnection early = connect(binaryWatcher, "eve", WireProtocol.VERSION_BINARY);
+            early.send(new SpectatePackage(SpectatePackage.ANY_MATCH));
+            assertEquals(MatchEventPackage.NOT_FOUND, ((MatchEventPackage) early.receive()).kind);
+
+            FramedConnection alice = connect(first, "alice", WireProtocol.VERSION_BINARY);
+            FramedConnection bob = connect(second, "bob");
+            alice.send(new GeneralPackage("begin"));
+            bob.send(new GeneralPackage("begin"));
+            alice.receive();
+            bob.receive();
+
+            List<FramedConnection> watchers = List.of(early, connect(serializedWatcher, "mallory"));
+            for (FramedConnection watcher : watchers) {
+                watcher.send(new SpectatePackage(SpectatePackage.ANY_MATCH));
+                MatchEventPackage player = (MatchEventPackage) watcher.receive();
+                assertEquals(MatchEventPackage.PLAYER, player.kind);
+                assertEquals(MatchEventPackage.PLAYER, ((MatchEventPackage) watcher.receive()).kind);
+            }
+
+            // Первый запрос фигуры ничего не ставит, второй означает, что первая фигура поставлена.
+            alice.send(new GeneralPackage("figure"));
+            alice.receive();
+            alice.send(new GeneralPackage("figure"));
+            alice.receive();
+            alice.send(new GameStatPackage(1, 2, new Timestamp(System.currentTimeMillis())));
+            bob.send(new GameStatPackage(0, 3, new Timestamp(System.currentTimeMillis())));
+            assertEquals("WON", ((WonLosePackage) alice.receive()).value);
+
+            for (FramedConnection watcher : watchers) {
+                MatchEventPackage figure = (MatchEventPackage) watcher.receive();
+                assertEquals(MatchEventPackage.FIGURE, figure.kind);
+                assertEquals("alice", figure.player);
+                assertEquals(1, figure.value);
+                assertEquals(MatchEventPackage.FINISHED, ((MatchEventPackage) watcher.receive()).kind);
+                assertEquals(MatchEventPackage.FINISHED, ((MatchEventPackage) watcher.receive()).kind);
+                MatchEventPackage result = (MatchEventPackage) watcher.receive();
+                assertEquals(MatchEventPackage.RESULT, result.kind);
+                assertEquals("alice", result.player);
+            }
+        }
+    }
+
+    /**
+     * Сервер сообщает маршрутизатору о себе, и клиенты, подключившиеся к маршрутизатору,
+     * играют на этом сервере.
+     */
+    @Test
+    public void testPlayersAreRoutedThroughFrontRouter() throws Exception {
+        try (FrontRouter router = new FrontRouter(0, 0, 2)) {
+            router.start();
+            LoadReporter reporter = new LoadReporter(
+                    LoadReporter.parseAddress("localhost:" + router.getControlPort()), server.getPort()).start();
+            try {
+                long deadline = System.currentTimeMillis() + 5000;
+                while (router.getWorkers().isEmpty()) {
+                    assertTrue(System.currentTimeMillis() < deadline);
+                    Thread.sleep(10);
+                }
+                try (Socket first = new Socket("localhost", router.getPort());
+                     Socket second = new Socket("localhost", router.getPort())) {
+                    FramedConnection alice = connect(first, "alice", WireProtocol.VERSION_BINARY);
+                    FramedConnection bob = connect(second, "bob", WireProtocol.VERSION_BINARY);
+                    alice.send(new GeneralPackage("begin"));
+                    bob.send(new GeneralPackage("begin"));
+                    assertEquals("bob", ((BeginToClientPackage) alice.receive()).name);
+                    assertEquals("alice", ((BeginToClientPackage) bob.receive()).name);
+                }
+            } finally {
+                reporter.stop();
+            }
+        }
+    }
+
+    /**
+     * Ожидание закрытия подключения сервером.
+     */
+    private static void assertClosedByServer(Socket socket) {
+        assertDoesNotThrow(() -> socket.setSoTimeout(5000));
+        try {
+            assertEquals(-1, socket.getInputStream().read());
+        } catch (SocketException e) {
+            // Отказ сбросом подключения (RST) - тоже закрытие.
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Подключения сверх лимита ожидающих приветствия сразу закрываются сервером.
+     */
+    @Test
+    public void testConnectionsOverHandshakeLimitAreRejected() throws Exception {
+        MultithreadedGameServer.admission = new AdmissionController(new ServerConfig().withMaxHandshakes(1));
+        long rejectedBefore = GameServerMetrics.get().getRejectedConnections();
+        try (Socket silent = new Socket("localhost", server.getPort());
+             Socket rejected = new Socket("localhost", server.getPort())) {
+            assertClosedByServer(rejected);
+            assertEquals(rejectedBefore + 1, GameServerMetrics.get().getRejectedConnections());
+            assertEquals(1, MultithreadedGameServer.admission.getPendingHandshakes());
+            // После приветствия место освобождается (ответ на figure - признак, что приветствие обработано).
+            FramedConnection first = connect(silent, "bob", WireProtocol.VERSION_BINARY);
+            first.send(new GeneralPackage("figure"));
+            first.receive();
+            assertEquals(0, MultithreadedGameServer.admission.getPendingHandshakes());
+            try (Socket next = new Socket("localhost", server.getPort())) {
+                FramedConnection connection = connect(next, "carol", WireProtocol.VERSION_BINARY);
+                connection.send(new GeneralPackage("figure"));
+                assertInstanceOf(JigsawFigure.class, connection.receive());
+            }
+        }
+    }
+
+    /**
+     * Клиент, не приславший приветствие вовремя, отключается.
+     */
+    @Test
+    public void testSilentClientIsEvicted() throws Exception {
+        MultithreadedGameServer.admission = new AdmissionController(new ServerConfig().withHandshakeSeconds(1));
+        long evictedBefore = GameServerMetrics.get().getIdleEvictions();
+        try (Socket silent = new Socket("localhost", server.getPort())) {
+            assertClosedByServer(silent);
+        }
+        assertEquals(evictedBefore + 1, GameServerMetrics.get().getIdleEvictions());
+    }
+
+    /**
+     * Старый клиент, приславший только заголовок ObjectOutputStream, отключается сразу,
+     * а не по истечении времени на приветствие.
+     */
+    @Test
+    public void testLegacyClientIsRejectedAfterStreamHeader() throws Exception {
+        MultithreadedGameServer.admission = new AdmissionController(new ServerConfig().withHandshakeSeconds(60));
+        try (Socket legacy = new Socket("localhost", server.getPort())) {
+            new ObjectOutputStream(legacy.getOutputStream()).flush();
+            assertClosedByServer(legacy);
+        }
+    }
+
+    /**
+     * Ответы на команды, пришедшие одной пачкой, уходят клиенту меньшим числом записей в сокет.
+     */
+    @Test
+    public void testPipelinedRepliesAreCoalesced() throws Exception {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            FramedConnection connection = connect(socket, "erin", WireProtocol.VERSION_BINARY);
+            connection.send(new GeneralPackage("figure"));
+            assertNotNull(connection.receive());
+
+            int count = 20;
+            long writesBefore = GameServerMetrics.get().getSocketWrites();
+            for (int i = 0; i < count; i++) {
+                connection.sendWithoutFlush(new GeneralPackage("figure"));
+            }
+            connection.flush();
+            for (int i = 0; i < count; i++) {
+                assertInstanceOf(JigsawFigure.class, connection.receive());
+            }
+            assertTrue(GameServerMetrics.get().getSocketWrites() - writesBefore < count);
+        }
+    }
+
+    /**
+     * Клиент, у которого неотправленные ответы превысили лимит, отключается.
+     */
+    @Test
+    public void testSlowConsumerIsEvicted() throws Exception {
+        MultithreadedGameServer.admission = new AdmissionController(new ServerConfig().withMaxOutboundBytes(4));
+        long evictedBefore = GameServerMetrics.get().getSlowConsumerEvictions();
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            FramedConnection connection = connect(socket, "dave", WireProtocol.VERSION_BINARY);
+            connection.send(new GeneralPackage("figure"));
+            assertClosedByServer(socket);
+        }
+        assertEquals(evictedBefore + 1, GameServerMetrics.get().getSlowConsumerEvictions());
+    }
+}
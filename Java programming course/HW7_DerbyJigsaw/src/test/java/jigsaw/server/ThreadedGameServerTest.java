@@ -0,0 +1,157 @@
+package jigsaw.server;
+
+import jigsaw.client.backend.figure.JigsawFigure;
+import jigsaw.packagemodels.*;
+import jigsaw.protocol.FramedConnection;
+import jigsaw.protocol.WireProtocol;
+import jigsaw.server.metrics.GameServerMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Сервер с потоком на клиента (engine=threads): ответы из чужих потоков идут через очередь подключения.
+ */
+public class ThreadedGameServerTest {
+    private ServerSocket serverSocket;
+
+    private void startServer(ServerConfig config) throws IOException {
+        MultithreadedGameServer.configure(config.withPort(0).withMaxPlayers(2).withMaxSeconds(30));
+        serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                MultithreadedGameServer.acceptClients(serverSocket, config);
+            } catch (IOException ignored) {
+                // Серверный сокет закрыт в конце теста.
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        serverSocket.close();
+    }
+
+    private FramedConnection connect(Socket socket, String name) throws Exception {
+        socket.setSoTimeout(5000);
+        FramedConnection connection = FramedConnection.connect(socket, WireProtocol.VERSION_BINARY);
+        connection.send(new NamePackage(name));
+        return connection;
+    }
+
+    /**
+     * Ответ на begin одному из игроков отправляет поток партнера (через очередь),
+     * но оба игрока получают его и продолжают игру.
+     */
+    @Test
+    public void testRepliesFromOtherThreadsAreDelivered() throws Exception {
+        startServer(new ServerConfig());
+        try (Socket first = new Socket("localhost", serverSocket.getLocalPort());
+             Socket second = new Socket("localhost", serverSocket.getLocalPort())) {
+            FramedConnection alice = connect(first, "alice");
+            FramedConnection bob = connect(second, "bob");
+
+            alice.send(new GeneralPackage("begin"));
+            bob.send(new GeneralPackage("begin"));
+            assertEquals("bob", ((BeginToClientPackage) alice.receive()).name);
+            assertEquals("alice", ((BeginToClientPackage) bob.receive()).name);
+
+            alice.send(new GeneralPackage("figure"));
+            assertEquals(JigsawFigure.DEFAULT_FIGURE_NUM_CELLS, ((JigsawFigure) alice.receive()).getVerticalSize());
+        }
+    }
+
+    /**
+     * Старый клиент, приславший вместо команды другой объект, отключается,
+     * а сервер продолжает принимать подключения.
+     */
+    @Test
+    public void testNonCommandObjectClosesConnection() throws Exception {
+        startServer(new ServerConfig());
+        try (Socket legacy = new Socket("localhost", serverSocket.getLocalPort())) {
+            legacy.setSoTimeout(5000);
+            ObjectOutputStream out = new ObjectOutputStream(legacy.getOutputStream());
+            out.writeObject("not a command");
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(legacy.getInputStream());
+            assertThrows(EOFException.class, in::readObject);
+        }
+        try (Socket socket = new Socket("localhost", serverSocket.getLocalPort())) {
+            FramedConnection player = connect(socket, "carol");
+            player.send(new GeneralPackage("figure"));
+            assertInstanceOf(JigsawFigure.class, player.receive());
+        }
+    }
+
+    /**
+     * Подбор, который сообщает, когда первый игрок подписался на future своей партии.
+     * После этого ответ ему на begin может отправить только поток партнера, то есть через очередь.
+     */
+    private static CountDownLatch observeFirstSubscription() {
+        MatchMaker delegate = MultithreadedGameServer.matchMaker;
+        CountDownLatch subscribed = new CountDownLatch(1);
+        MultithreadedGameServer.matchMaker = new MatchMaker() {
+            @Override
+            public CompletableFuture<Match> join(GameSession player) {
+                CompletableFuture<Match> joined = delegate.join(player);
+                if (subscribed.getCount() == 0) {
+                    return joined;
+                }
+                CompletableFuture<Match> observed = new CompletableFuture<>() {
+                    @Override
+                    public CompletableFuture<Void> thenAccept(Consumer<? super Match> action) {
+                        CompletableFuture<Void> result = super.thenAccept(action);
+                        subscribed.countDown();
+                        return result;
+                    }
+                };
+                joined.thenAccept(observed::complete);
+                return observed;
+            }
+
+            @Override
+            public void leave(GameSession player) {
+                delegate.leave(player);
+            }
+        };
+        return subscribed;
+    }
+
+    /**
+     * Сообщение из чужого потока сверх лимита очереди закрывает подключение получателя,
+     * а поток отправителя продолжает работу: его клиент получает свой ответ.
+     */
+    @Test
+    public void testSlowConsumerIsEvictedWithoutBlockingSender() throws Exception {
+        startServer(new ServerConfig().withMaxOutboundBytes(4));
+        CountDownLatch aliceWaiting = observeFirstSubscription();
+        long evictedBefore = GameServerMetrics.get().getSlowConsumerEvictions();
+        try (Socket first = new Socket("localhost", serverSocket.getLocalPort());
+             Socket second = new Socket("localhost", serverSocket.getLocalPort())) {
+            FramedConnection alice = connect(first, "alice");
+            FramedConnection bob = connect(second, "bob");
+
+            alice.send(new GeneralPackage("begin"));
+            assertTrue(aliceWaiting.await(5, TimeUnit.SECONDS));
+            // Ответ alice ставит в очередь поток bob, а свой ответ он пишет сам.
+            bob.send(new GeneralPackage("begin"));
+            assertEquals("alice", ((BeginToClientPackage) bob.receive()).name);
+            assertThrows(IOException.class, alice::receive);
+        }
+        assertEquals(evictedBefore + 1, GameServerMetrics.get().getSlowConsumerEvictions());
+    }
+}
@@ -0,0 +1,53 @@
+package jigsaw.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+    /**
+     * Сроки выполняются не раньше заданного времени, в том числе сроки длиннее одного оборота колеса.
+     */
+    @Test
+    public void testTimeoutsFireAfterDelay() throws Exception {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8, "test-wheel");
+        CountDownLatch fired = new CountDownLatch(2);
+        long start = System.nanoTime();
+        long[] firedAfter = new long[2];
+        wheel.schedule(() -> {
+            firedAfter[0] = System.nanoTime() - start;
+            fired.countDown();
+        }, 30, TimeUnit.MILLISECONDS);
+        // 8 ячеек по 10 мс - оборот 80 мс, срок 250 мс требует нескольких оборотов.
+        wheel.schedule(() -> {
+            firedAfter[1] = System.nanoTime() - start;
+            fired.countDown();
+        }, 250, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(firedAfter[0] >= TimeUnit.MILLISECONDS.toNanos(30));
+        assertTrue(firedAfter[1] >= TimeUnit.MILLISECONDS.toNanos(250));
+        assertEquals(0, wheel.pendingTimeouts());
+    }
+
+    /**
+     * Отмененный срок не выполняется; выполненный срок уже нельзя отменить.
+     */
+    @Test
+    public void testCancelledTimeoutDoesNotFire() throws Exception {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8, "test-wheel");
+        AtomicInteger cancelledRuns = new AtomicInteger();
+        CountDownLatch fired = new CountDownLatch(1);
+        TimingWheel.Timeout cancelled = wheel.schedule(cancelledRuns::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        TimingWheel.Timeout kept = wheel.schedule(fired::countDown, 100, TimeUnit.MILLISECONDS);
+        assertTrue(cancelled.cancel());
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertEquals(0, cancelledRuns.get());
+        assertFalse(kept.cancel());
+    }
+}
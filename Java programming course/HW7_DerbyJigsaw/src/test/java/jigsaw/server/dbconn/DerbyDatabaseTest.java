@@ -72,6 +72,44 @@ public class DerbyDatabaseTest {
         assertDoesNotThrow(DbConnUtils::closeConnection);
     }
 
+    /**
+     * Проверка открытия + закрытия подключения.
+     * Случай 3: таблица создана старой версией сервера, без индекса по LOGIN, - индекс добавляется.
+     */
+    @Test
+    public void testInitConnectionAddsMissingLoginIndex() throws Exception {
+        Method initializeConnectionUrlMethod = DbConnUtils.class.getDeclaredMethod("initializeConnectionUrl");
+        initializeConnectionUrlMethod.setAccessible(true);
+        initializeConnectionUrlMethod.invoke(DbConnUtils.class);
+        Field connectionUrlField = DbConnUtils.class.getDeclaredField("connectionUrl");
+        connectionUrlField.setAccessible(true);
+        String connectionUrl = (String) connectionUrlField.get(DbConnUtils.class);
+
+        try (Connection conn = DriverManager.getConnection(connectionUrl);
+             Statement statement = conn.createStatement()) {
+            statement.execute("create table GAME_RESULTS" +
+                    "(ID INT NOT NULL PRIMARY KEY GENERATED ALWAYS AS IDENTITY," +
+                    "LOGIN VARCHAR(255) NOT NULL," +
+                    "END_TIME TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                    "MOVES_DONE INT NOT NULL," +
+                    "GAME_LENGTH BIGINT NOT NULL)");
+        }
+        closeConnection();
+
+        assertDoesNotThrow(DbConnUtils::initializeConnection);
+        assertDoesNotThrow(DbConnUtils::closeConnection);
+
+        boolean indexFound = false;
+        try (Connection conn = DriverManager.getConnection(connectionUrl);
+             ResultSet indexes = conn.getMetaData().getIndexInfo(null, null, "GAME_RESULTS", false, true)) {
+            while (indexes.next()) {
+                indexFound |= "GAME_RESULTS_LOGIN".equals(indexes.getString("INDEX_NAME"));
+            }
+        }
+        closeConnection();
+        assertTrue(indexFound);
+    }
+
     /**
      * Метод для выполнения любой команды в интерпретаторе командной строки Windows.
      * @param command строка команды.
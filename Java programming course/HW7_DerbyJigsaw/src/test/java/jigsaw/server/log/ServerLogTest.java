@@ -0,0 +1,60 @@
+package jigsaw.server.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerLogTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private String output() {
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Сообщения выводятся фоновым потоком в порядке записи, с подставленными аргументами;
+     * сообщения ниже заданного уровня не выводятся.
+     */
+    @Test
+    public void testEventsAreFormattedInOrder() {
+        ServerLog log = new ServerLog(16, new PrintStream(bytes, true, StandardCharsets.UTF_8), ServerLog.ERROR_WINDOW_NANOS);
+        log.debug("Test", "скрыто {}", 0);
+        log.info("Test", "Игрок {} вышел.", "alice");
+        log.info("Test", "Партия {} завершена за {} с.", 7L, 42L);
+        log.flush(5000);
+
+        String[] lines = output().split(System.lineSeparator());
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].endsWith("INFO  Test: Игрок alice вышел."), lines[0]);
+        assertTrue(lines[1].endsWith("INFO  Test: Партия 7 завершена за 42 с."), lines[1]);
+    }
+
+    /**
+     * Одинаковые ошибки ограничиваются: лишние пропускаются, а их число
+     * выводится со следующей ошибкой того же вида в новом окне.
+     */
+    @Test
+    public void testRepeatedErrorsAreRateLimited() throws Exception {
+        ServerLog log = new ServerLog(64, new PrintStream(bytes, true, StandardCharsets.UTF_8),
+                TimeUnit.MILLISECONDS.toNanos(200));
+        int repeated = 20;
+        for (int i = 0; i < repeated; i++) {
+            log.warn("Test", "Клиент {} не отвечает.", i);
+        }
+        log.flush(5000);
+        assertEquals(ServerLog.ERROR_BURST, output().split(System.lineSeparator()).length);
+
+        Thread.sleep(300);
+        log.warn("Test", "Клиент {} не отвечает.", repeated);
+        log.flush(5000);
+        String[] lines = output().split(System.lineSeparator());
+        assertEquals(ServerLog.ERROR_BURST + 1, lines.length);
+        assertTrue(lines[lines.length - 1].contains("(пропущено похожих сообщений: "
+                + (repeated - ServerLog.ERROR_BURST) + ")"), lines[lines.length - 1]);
+    }
+}
@@ -0,0 +1,58 @@
+package jigsaw.server.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GameServerMetricsTest {
+
+    /**
+     * Процентили гистограммы - верхние границы корзин (степени двойки в микросекундах).
+     */
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+
+        LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(128, snapshot.getP50());
+        assertEquals(128, snapshot.getP99());
+        assertEquals(50_000, snapshot.getMax());
+        assertEquals((99 * 100 + 50_000) / 100.0, snapshot.getMean(), 1e-9);
+        assertEquals(0, new LatencyHistogram().snapshot().getP99());
+    }
+
+    /**
+     * Метрики читаются через платформенный MBeanServer.
+     */
+    @Test
+    public void testMetricsAreReadableThroughJmx() throws Exception {
+        GameServerMetrics metrics = GameServerMetrics.get();
+        metrics.register();
+        metrics.register();
+        metrics.recordMessage("figure");
+        metrics.recordLatency("figure", TimeUnit.MICROSECONDS.toNanos(10));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(GameServerMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        TabularData latencies = (TabularData) server.getAttribute(name, "Latencies");
+        CompositeData figure = (CompositeData) latencies.get(new Object[]{"figure"}).get("value");
+        assertTrue((Long) figure.get("count") >= 1);
+        TabularData counts = (TabularData) server.getAttribute(name, "MessageCounts");
+        assertTrue((Long) counts.get(new Object[]{"figure"}).get("value") >= 1);
+        assertTrue(metrics.report().contains("figure"));
+        assertTrue((Long) server.getAttribute(name, "DroppedLogEvents") >= 0);
+    }
+}
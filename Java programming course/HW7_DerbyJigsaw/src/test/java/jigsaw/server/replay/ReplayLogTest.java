@@ -0,0 +1,171 @@
+package jigsaw.server.replay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplayLogTest {
+    private static final int THREADS = 4;
+    private static final int MATCHES_PER_THREAD = 50;
+    private static final int FIGURE_RECORDS = 5;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Одна партия: начало, игрок, выдача фигур, поставленные фигуры, результат игрока и итог.
+     */
+    private static void writeMatch(ReplayLog log, long matchId) {
+        log.matchStarted(matchId, 1, 60, matchId * 31);
+        log.playerJoined(matchId, (int) matchId, "player" + matchId);
+        for (int i = 0; i < FIGURE_RECORDS; i++) {
+            log.figuresIssued(matchId, (int) matchId, i * 4, 4);
+        }
+        log.figuresPlaced(matchId, (int) matchId, 17);
+        log.playerFinished(matchId, (int) matchId, 17, 42);
+        log.matchFinished(matchId, (int) matchId);
+    }
+
+    /**
+     * Записи нескольких потоков целиком попадают в журнал,
+     * сегменты переключаются, а партия находится по номеру.
+     */
+    @Test
+    public void testConcurrentWritesAcrossSegments() throws Exception {
+        try (ReplayLog log = ReplayLog.open(directory, 1024)) {
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                long firstMatch = 1 + (long) t * MATCHES_PER_THREAD;
+                Thread writer = new Thread(() -> {
+                    for (long matchId = firstMatch; matchId < firstMatch + MATCHES_PER_THREAD; matchId++) {
+                        writeMatch(log, matchId);
+                    }
+                });
+                writer.start();
+                writers.add(writer);
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.count() > 1);
+        }
+
+        try (ReplayReader reader = ReplayReader.open(directory)) {
+            AtomicInteger started = new AtomicInteger();
+            AtomicInteger figures = new AtomicInteger();
+            AtomicInteger finished = new AtomicInteger();
+            reader.replayAll(new ReplayVisitor() {
+                @Override
+                public void onMatchStarted(long matchId, long timeMillis, int capacity, int maxSeconds, long seed) {
+                    started.incrementAndGet();
+                    assertEquals(matchId * 31, seed);
+                }
+
+                @Override
+                public void onFiguresIssued(long matchId, long timeMillis, int playerIndex, int fromIndex, int count) {
+                    figures.incrementAndGet();
+                }
+
+                @Override
+                public void onMatchFinished(long matchId, long timeMillis, int winnerIndex) {
+                    finished.incrementAndGet();
+                }
+            });
+            int matches = THREADS * MATCHES_PER_THREAD;
+            assertEquals(matches, started.get());
+            assertEquals(matches * FIGURE_RECORDS, figures.get());
+            assertEquals(matches, finished.get());
+
+            List<String> events = new ArrayList<>();
+            reader.replay(123, new ReplayVisitor() {
+                @Override
+                public void onMatchStarted(long matchId, long timeMillis, int capacity, int maxSeconds, long seed) {
+                    events.add("start " + matchId);
+                }
+
+                @Override
+                public void onPlayerJoined(long matchId, long timeMillis, int playerIndex, String name) {
+                    events.add("join " + name);
+                }
+
+                @Override
+                public void onFiguresIssued(long matchId, long timeMillis, int playerIndex, int fromIndex, int count) {
+                    events.add("figures " + fromIndex);
+                }
+
+                @Override
+                public void onFiguresPlaced(long matchId, long timeMillis, int playerIndex, int placed) {
+                    events.add("placed " + placed);
+                }
+
+                @Override
+                public void onPlayerFinished(long matchId, long timeMillis, int playerIndex, int figures, long elapsedSeconds) {
+                    events.add("end " + figures + " " + elapsedSeconds);
+                }
+
+                @Override
+                public void onMatchFinished(long matchId, long timeMillis, int winnerIndex) {
+                    events.add("winner " + winnerIndex);
+                }
+            });
+            assertEquals(List.of("start 123", "join player123", "figures 0", "figures 4", "figures 8",
+                    "figures 12", "figures 16", "placed 17", "end 17 42", "winner 123"), events);
+        }
+    }
+
+    /**
+     * Повторно открытый журнал пишет в новый сегмент и не затирает старые записи.
+     */
+    @Test
+    public void testReopenAppendsNewSegment() throws Exception {
+        try (ReplayLog log = ReplayLog.open(directory, 4096)) {
+            writeMatch(log, 1);
+        }
+        try (ReplayLog log = ReplayLog.open(directory, 4096)) {
+            writeMatch(log, 2);
+        }
+        AtomicInteger started = new AtomicInteger();
+        try (ReplayReader reader = ReplayReader.open(directory)) {
+            reader.replayAll(new ReplayVisitor() {
+                @Override
+                public void onMatchStarted(long matchId, long timeMillis, int capacity, int maxSeconds, long seed) {
+                    assertEquals(started.incrementAndGet(), matchId);
+                }
+            });
+        }
+        assertEquals(2, started.get());
+    }
+
+    /**
+     * Повторно открытый журнал знает последний записанный номер партии,
+     * даже если после него остались пустые сегменты.
+     */
+    @Test
+    public void testReopenKnowsLastMatchId() throws Exception {
+        try (ReplayLog log = ReplayLog.open(directory, 4096)) {
+            assertEquals(0, log.getLastMatchId());
+            writeMatch(log, 7);
+            writeMatch(log, 3);
+        }
+        try (ReplayLog log = ReplayLog.open(directory, 4096)) {
+            assertEquals(7, log.getLastMatchId());
+        }
+        try (ReplayLog log = ReplayLog.open(directory, 4096)) {
+            assertEquals(7, log.getLastMatchId());
+            writeMatch(log, 8);
+        }
+        try (ReplayLog log = ReplayLog.open(directory, 4096)) {
+            assertEquals(8, log.getLastMatchId());
+        }
+    }
+}